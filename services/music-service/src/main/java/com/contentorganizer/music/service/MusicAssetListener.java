@@ -0,0 +1,69 @@
+package com.contentorganizer.music.service;
+
+import com.contentorganizer.common.event.AssetFailedEvent;
+import com.contentorganizer.common.event.AssetRequestedEvent;
+import com.contentorganizer.common.event.AssetType;
+import com.contentorganizer.common.event.MusicReadyEvent;
+import com.contentorganizer.common.util.EventListener;
+import com.contentorganizer.common.util.EventPublisher;
+import com.contentorganizer.music.dto.MusicRequest;
+import com.contentorganizer.music.dto.MusicResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Answers the orchestrator's music requests: downloads music of the requested genre and
+ * publishes a {@link MusicReadyEvent}, or an {@link AssetFailedEvent} if the download failed.
+ * <p>
+ * The download runs in the background, so the listener thread is free for the next request.
+ * A request lost with a replica is requested again by the orchestrator after its asset timeout.
+ */
+@Component
+public class MusicAssetListener extends EventListener {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MusicAssetListener.class);
+    
+    private final JamendoService jamendoService;
+    private final EventPublisher eventPublisher;
+    
+    @Value("${music.asset.duration-hours:1}")
+    private int durationHours;
+    
+    public MusicAssetListener(JamendoService jamendoService, EventPublisher eventPublisher) {
+        this.jamendoService = jamendoService;
+        this.eventPublisher = eventPublisher;
+        on(AssetRequestedEvent.channelFor(AssetType.MUSIC), AssetRequestedEvent.class, this::onMusicRequested);
+    }
+    
+    private void onMusicRequested(AssetRequestedEvent event) {
+        logger.info("Music requested for project {} (attempt {}), genre {}", event.getProjectId(), event.getAttempt(),
+                event.getMusicGenre());
+        jamendoService.downloadMusic(new MusicRequest(event.getMusicGenre(), durationHours))
+                .subscribe(response -> answer(event, response),
+                        e -> fail(event, e.getMessage()));
+    }
+    
+    private void answer(AssetRequestedEvent event, MusicResponse response) {
+        if (!response.isSuccess()) {
+            fail(event, response.getError());
+            return;
+        }
+        // duration in minutes, as reported by the download
+        eventPublisher.publishEvent(new MusicReadyEvent(event.getProjectId(), response.getSessionId(),
+                response.getMusicDirectoryPath(), response.getGenre(), response.getTotalDurationMinutes()));
+        logger.info("Music of project {} ready: {} tracks in {}", event.getProjectId(), response.getTotalTracks(),
+                response.getMusicDirectoryPath());
+    }
+    
+    private void fail(AssetRequestedEvent event, String reason) {
+        logger.warn("Music of project {} failed: {}", event.getProjectId(), reason);
+        try {
+            eventPublisher.publishEvent(new AssetFailedEvent(event.getProjectId(), AssetType.MUSIC, reason, true));
+        } catch (RuntimeException e) {
+            // the orchestrator requests the music again when its timeout expires
+            logger.error("Failed to report the failed music of project {}", event.getProjectId(), e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.contentorganizer.orchestrator;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ComponentScan;
+
+@SpringBootApplication
+@ComponentScan(basePackages = {
+    "com.contentorganizer.orchestrator",
+    "com.contentorganizer.common"
+})
+public class OrchestratorServiceApplication {
+    
+    public static void main(String[] args) {
+        SpringApplication.run(OrchestratorServiceApplication.class, args);
+    }
+}
@@ -0,0 +1,91 @@
+package com.contentorganizer.orchestrator.controller;
+
+import com.contentorganizer.common.dto.VideoCreationRequest;
+import com.contentorganizer.common.util.EventBackpressureException;
+import com.contentorganizer.orchestrator.model.ProjectAssembly;
+import com.contentorganizer.orchestrator.service.NoPartitionAssignedException;
+import com.contentorganizer.orchestrator.service.ProjectOrchestrator;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api")
+@Tag(name = "Project API", description = "Video project orchestration")
+public class ProjectController {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ProjectController.class);
+    
+    private final ProjectOrchestrator orchestrator;
+    
+    @Autowired
+    public ProjectController(ProjectOrchestrator orchestrator) {
+        this.orchestrator = orchestrator;
+    }
+    
+    @PostMapping("/projects")
+    @Operation(
+        summary = "Create a video project",
+        description = "Requests music, images and SEO data for the video in parallel. " +
+                     "The video creation starts once all of them are ready."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "Project created, assets requested"),
+        @ApiResponse(responseCode = "400", description = "Invalid request parameters"),
+        @ApiResponse(responseCode = "503", description = "Asset services are overloaded, retry later")
+    })
+    public ResponseEntity<ProjectAssembly> createProject(
+            @Parameter(description = "Video creation request", required = true)
+            @Valid @RequestBody VideoCreationRequest request) {
+        
+        logger.info("Received video creation request: {}", request);
+        
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(orchestrator.createProject(request));
+    }
+    
+    @GetMapping("/projects/{projectId}")
+    @Operation(
+        summary = "Get a video project",
+        description = "Returns the phase of the project and the progress of each asset"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Project found"),
+        @ApiResponse(responseCode = "404", description = "Unknown project")
+    })
+    public ResponseEntity<ProjectAssembly> getProject(
+            @Parameter(description = "Project ID", required = true)
+            @PathVariable String projectId) {
+        
+        ProjectAssembly assembly = orchestrator.getProject(projectId);
+        return assembly != null ? ResponseEntity.ok(assembly) : ResponseEntity.notFound().build();
+    }
+    
+    @ExceptionHandler(EventBackpressureException.class)
+    public ResponseEntity<Map<String, Object>> handleBackpressure(EventBackpressureException e) {
+        logger.warn("Rejecting video creation request: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "30")
+                .body(Map.of("error", e.getMessage(), "channel", e.getChannelName()));
+    }
+    
+    @ExceptionHandler(NoPartitionAssignedException.class)
+    public ResponseEntity<Map<String, Object>> handleNoPartition(NoPartitionAssignedException e) {
+        // the replica is still joining
+        logger.warn("Rejecting video creation request: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .body(Map.of("error", e.getMessage()));
+    }
+}
@@ -0,0 +1,94 @@
+package com.contentorganizer.orchestrator.model;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Progress of one asset of a project: requested (possibly several times), ready or skipped
+ */
+public class AssetProgress {
+    
+    public enum Status {
+        PENDING,
+        REQUESTED,
+        READY,
+        /** Given up on an optional asset; the project goes ahead without it */
+        SKIPPED
+    }
+    
+    private Status status = Status.PENDING;
+    
+    private int attempts;
+    
+    private Instant requestedAt;
+    
+    private Instant deadline;
+    
+    private String readyEventId;
+    
+    private String lastError;
+    
+    /**
+     * Record another request for the asset
+     * 
+     * @param now The current time
+     * @param timeout How long the asset service has to answer
+     */
+    public void requested(Instant now, Duration timeout) {
+        status = Status.REQUESTED;
+        attempts++;
+        requestedAt = now;
+        deadline = now.plus(timeout);
+    }
+    
+    public void ready(String eventId) {
+        status = Status.READY;
+        readyEventId = eventId;
+        deadline = null;
+    }
+    
+    public void skipped(String error) {
+        status = Status.SKIPPED;
+        lastError = error;
+        deadline = null;
+    }
+    
+    public void failed(String error) {
+        lastError = error;
+    }
+    
+    public boolean isDone() {
+        return status == Status.READY || status == Status.SKIPPED;
+    }
+    
+    /**
+     * Whether the asset service did not answer the last request in time
+     */
+    public boolean isOverdue(Instant now) {
+        return status == Status.REQUESTED && deadline != null && now.isAfter(deadline);
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public int getAttempts() {
+        return attempts;
+    }
+    
+    public Instant getRequestedAt() {
+        return requestedAt;
+    }
+    
+    public Instant getDeadline() {
+        return deadline;
+    }
+    
+    public String getReadyEventId() {
+        return readyEventId;
+    }
+    
+    public String getLastError() {
+        return lastError;
+    }
+}
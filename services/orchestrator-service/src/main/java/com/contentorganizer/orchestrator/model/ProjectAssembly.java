@@ -0,0 +1,182 @@
+package com.contentorganizer.orchestrator.model;
+
+import com.contentorganizer.common.dto.VideoCreationRequest;
+import com.contentorganizer.common.event.AssetType;
+import com.contentorganizer.common.event.SEOReadyEvent;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * State machine of a project while its assets are produced. A project is {@code COLLECTING}
+ * until every asset is ready (or skipped), then {@code STARTED} once the
+ * {@link com.contentorganizer.common.event.VideoCreationStartedEvent} was published, or
+ * {@code FAILED} when a required asset could not be produced.
+ * <p>
+ * Instances are shared between threads; callers synchronize on the instance.
+ */
+@Document(collection = "project_assemblies")
+public class ProjectAssembly {
+    
+    public enum Phase {
+        COLLECTING,
+        STARTED,
+        FAILED
+    }
+    
+    @Id
+    private String projectId;
+    
+    @Indexed
+    private Phase phase;
+    
+    private VideoCreationRequest request;
+    
+    private AssetProgress music;
+    
+    private AssetProgress images;
+    
+    private AssetProgress seo;
+    
+    private String optimizedTitle;
+    
+    private String optimizedDescription;
+    
+    private List<String> seoTags;
+    
+    private Instant createdAt;
+    
+    private Instant updatedAt;
+    
+    /**
+     * Time by which all assets must be ready
+     */
+    private Instant joinDeadline;
+    
+    private String startedEventId;
+    
+    private String failureReason;
+    
+    public ProjectAssembly() {
+    }
+    
+    public ProjectAssembly(String projectId, VideoCreationRequest request, Instant now, Instant joinDeadline) {
+        this.projectId = projectId;
+        this.request = request;
+        this.phase = Phase.COLLECTING;
+        this.music = new AssetProgress();
+        this.images = new AssetProgress();
+        this.seo = new AssetProgress();
+        this.createdAt = now;
+        this.updatedAt = now;
+        this.joinDeadline = joinDeadline;
+    }
+    
+    public AssetProgress getAsset(AssetType asset) {
+        switch (asset) {
+            case MUSIC:
+                return music;
+            case IMAGES:
+                return images;
+            case SEO:
+                return seo;
+            default:
+                throw new IllegalArgumentException("Unknown asset type: " + asset);
+        }
+    }
+    
+    /**
+     * Whether every asset is ready or skipped, so the video can be started
+     */
+    public boolean isComplete() {
+        return music.isDone() && images.isDone() && seo.isDone();
+    }
+    
+    public boolean isTerminal() {
+        return phase != Phase.COLLECTING;
+    }
+    
+    public void applySeo(SEOReadyEvent event) {
+        optimizedTitle = event.getOptimizedTitle();
+        optimizedDescription = event.getOptimizedDescription();
+        seoTags = event.getTags();
+    }
+    
+    public void started(String eventId, Instant now) {
+        phase = Phase.STARTED;
+        startedEventId = eventId;
+        updatedAt = now;
+    }
+    
+    public void failed(String reason, Instant now) {
+        phase = Phase.FAILED;
+        failureReason = reason;
+        updatedAt = now;
+    }
+    
+    public void touch(Instant now) {
+        updatedAt = now;
+    }
+    
+    /**
+     * Title of the video: the SEO-optimized one when available, otherwise the requested one
+     */
+    public String getVideoTitle() {
+        return optimizedTitle != null ? optimizedTitle : request.getTitle();
+    }
+    
+    public String getVideoDescription() {
+        return optimizedDescription != null ? optimizedDescription : request.getDescription();
+    }
+    
+    public String getVideoTags() {
+        return seoTags != null && !seoTags.isEmpty() ? String.join(",", seoTags) : request.getTags();
+    }
+    
+    public String getProjectId() {
+        return projectId;
+    }
+    
+    public Phase getPhase() {
+        return phase;
+    }
+    
+    public VideoCreationRequest getRequest() {
+        return request;
+    }
+    
+    public AssetProgress getMusic() {
+        return music;
+    }
+    
+    public AssetProgress getImages() {
+        return images;
+    }
+    
+    public AssetProgress getSeo() {
+        return seo;
+    }
+    
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+    
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+    
+    public Instant getJoinDeadline() {
+        return joinDeadline;
+    }
+    
+    public String getStartedEventId() {
+        return startedEventId;
+    }
+    
+    public String getFailureReason() {
+        return failureReason;
+    }
+}
@@ -0,0 +1,12 @@
+package com.contentorganizer.orchestrator.service;
+
+/**
+ * Thrown when a project is created on a replica that owns no project partition yet, e.g. while
+ * it joins. Another replica, or this one a little later, can take the request.
+ */
+public class NoPartitionAssignedException extends IllegalStateException {
+    
+    public NoPartitionAssignedException() {
+        super("No project partition is assigned to this replica");
+    }
+}
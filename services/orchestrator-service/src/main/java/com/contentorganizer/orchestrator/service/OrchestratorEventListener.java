@@ -0,0 +1,22 @@
+package com.contentorganizer.orchestrator.service;
+
+import com.contentorganizer.common.event.AssetFailedEvent;
+import com.contentorganizer.common.event.ImageReadyEvent;
+import com.contentorganizer.common.event.MusicReadyEvent;
+import com.contentorganizer.common.event.SEOReadyEvent;
+import com.contentorganizer.common.util.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Feeds the answers of the asset services into the {@link ProjectOrchestrator}
+ */
+@Component
+public class OrchestratorEventListener extends EventListener {
+    
+    public OrchestratorEventListener(ProjectOrchestrator orchestrator) {
+        on(MusicReadyEvent.class, orchestrator::onMusicReady);
+        on(ImageReadyEvent.class, orchestrator::onImagesReady);
+        on(SEOReadyEvent.class, orchestrator::onSeoReady);
+        on(AssetFailedEvent.class, orchestrator::onAssetFailed);
+    }
+}
@@ -0,0 +1,291 @@
+package com.contentorganizer.orchestrator.service;
+
+import com.contentorganizer.common.util.ProjectPartitions;
+import com.contentorganizer.orchestrator.model.ProjectAssembly;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * In-memory map of the projects being assembled, written behind to MongoDB.
+ * <p>
+ * State changes only mark a project dirty; every {@code flushInterval} the dirty projects are
+ * written in one unordered bulk write, so thousands of projects cost one round trip instead of
+ * one per event. Finished projects leave the map once written. On start the unfinished projects
+ * are loaded back. A crash loses at most the changes of the last interval; assets that then
+ * seem missing are requested again when their timeout expires.
+ * <p>
+ * With {@link ProjectPartitions} only the projects of this replica's partitions are held: a
+ * partition's projects are written and dropped before it is handed to another replica, and
+ * loaded when it is assigned here.
+ */
+@Component
+public class ProjectAssemblyStore implements SmartLifecycle, ProjectPartitions.Listener {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ProjectAssemblyStore.class);
+    
+    private final MongoTemplate mongoTemplate;
+    private final ProjectPartitions partitions;
+    private final Map<String, ProjectAssembly> assemblies = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    
+    @Value("${orchestrator.flush-interval:1s}")
+    private Duration flushInterval;
+    
+    private volatile boolean running;
+    private Thread flusherThread;
+    
+    public ProjectAssemblyStore(MongoTemplate mongoTemplate, ObjectProvider<ProjectPartitions> partitions) {
+        this.mongoTemplate = mongoTemplate;
+        this.partitions = partitions.getIfAvailable();
+        if (this.partitions != null) {
+            this.partitions.addListener(this);
+        }
+    }
+    
+    /**
+     * Look up a project, loading it from MongoDB if it is not in memory
+     * 
+     * @param projectId The project
+     * @return The project, or {@code null} if it is unknown
+     */
+    public ProjectAssembly get(String projectId) {
+        ProjectAssembly assembly = assemblies.get(projectId);
+        if (assembly != null) {
+            return assembly;
+        }
+        ProjectAssembly stored = mongoTemplate.findById(projectId, ProjectAssembly.class);
+        if (stored == null || stored.isTerminal() || !owns(projectId)) {
+            // finished and foreign projects are not cached; late events for them are ignored anyway
+            return stored;
+        }
+        ProjectAssembly existing = assemblies.putIfAbsent(projectId, stored);
+        return existing != null ? existing : stored;
+    }
+    
+    /**
+     * Add a new project; it is written with the next flush
+     */
+    public void put(ProjectAssembly assembly) {
+        assemblies.put(assembly.getProjectId(), assembly);
+        dirty.add(assembly.getProjectId());
+    }
+    
+    /**
+     * Write a new project right away, e.g. inside the transaction that publishes its requests
+     * to the outbox
+     */
+    public void insert(ProjectAssembly assembly) {
+        mongoTemplate.insert(assembly);
+    }
+    
+    /**
+     * Forget a project that was never announced, e.g. because publishing its requests failed
+     */
+    public void remove(String projectId) {
+        assemblies.remove(projectId);
+        dirty.remove(projectId);
+    }
+    
+    /**
+     * Schedule a changed project for the next flush
+     */
+    public void markDirty(String projectId) {
+        dirty.add(projectId);
+    }
+    
+    /**
+     * Projects currently held in memory
+     */
+    public Collection<ProjectAssembly> active() {
+        return assemblies.values();
+    }
+    
+    public int size() {
+        return assemblies.size();
+    }
+    
+    /**
+     * Whether this replica is responsible for a project
+     */
+    public boolean owns(String projectId) {
+        return partitions == null || partitions.owns(projectId);
+    }
+    
+    @Override
+    public void onAssigned(Set<Integer> assigned) {
+        int loaded = load(assembly -> assigned.contains(partitions.partitionOf(assembly.getProjectId())));
+        logger.info("Loaded {} unfinished projects of partitions {}", loaded, assigned);
+    }
+    
+    @Override
+    public void onRevoked(Set<Integer> revoked) {
+        // written before the partitions are released, so the next owner loads the current state
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Failed to write the projects of partitions {} before handing them over", revoked, e);
+        }
+        drop(revoked);
+    }
+    
+    @Override
+    public void onLost(Set<Integer> lost) {
+        // another replica may already have loaded them; writing now could overwrite its changes
+        drop(lost);
+    }
+    
+    private void drop(Set<Integer> dropped) {
+        int removed = 0;
+        for (ProjectAssembly assembly : assemblies.values()) {
+            if (dropped.contains(partitions.partitionOf(assembly.getProjectId()))
+                    && assemblies.remove(assembly.getProjectId(), assembly)) {
+                dirty.remove(assembly.getProjectId());
+                removed++;
+            }
+        }
+        logger.info("Dropped {} projects of partitions {}", removed, dropped);
+    }
+    
+    private int load(Predicate<ProjectAssembly> filter) {
+        int loaded = 0;
+        for (ProjectAssembly assembly : mongoTemplate.find(query(where("phase").is(ProjectAssembly.Phase.COLLECTING)),
+                ProjectAssembly.class)) {
+            if (filter.test(assembly) && assemblies.putIfAbsent(assembly.getProjectId(), assembly) == null) {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+    
+    /**
+     * Write the dirty projects and drop the finished ones from memory
+     * 
+     * @return Number of projects written
+     */
+    public int flush() {
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+        List<String> projectIds = new ArrayList<>(dirty);
+        dirty.removeAll(projectIds);
+        
+        List<ProjectAssembly> written = new ArrayList<>(projectIds.size());
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ProjectAssembly.class);
+        for (String projectId : projectIds) {
+            ProjectAssembly assembly = assemblies.get(projectId);
+            if (assembly == null) {
+                continue;
+            }
+            Document document = new Document();
+            // converted under the lock, so the document is a consistent copy
+            synchronized (assembly) {
+                if (assemblies.get(projectId) != assembly) {
+                    // removed while waiting for the lock, e.g. a project whose creation failed
+                    continue;
+                }
+                mongoTemplate.getConverter().write(assembly, document);
+            }
+            bulk.replaceOne(query(where("_id").is(projectId)), document, FindAndReplaceOptions.options().upsert());
+            written.add(assembly);
+        }
+        if (written.isEmpty()) {
+            return 0;
+        }
+        
+        try {
+            bulk.execute();
+        } catch (RuntimeException e) {
+            dirty.addAll(projectIds);
+            throw e;
+        }
+        for (ProjectAssembly assembly : written) {
+            synchronized (assembly) {
+                if (assembly.isTerminal() && !dirty.contains(assembly.getProjectId())) {
+                    assemblies.remove(assembly.getProjectId(), assembly);
+                }
+            }
+        }
+        return written.size();
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (partitions == null) {
+            logger.info("Loaded {} unfinished projects", load(assembly -> true));
+        }
+        running = true;
+        flusherThread = new Thread(this::flushLoop, "project-assembly-flusher");
+        flusherThread.setDaemon(true);
+        flusherThread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (flusherThread != null) {
+            flusherThread.interrupt();
+            flusherThread = null;
+        }
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Failed to write {} projects on shutdown", dirty.size(), e);
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Start before and stop after the event listeners, so no event finds the store closed
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE + 1000;
+    }
+    
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushInterval.toMillis());
+                int written = flush();
+                if (written > 0) {
+                    logger.debug("Wrote {} projects, {} in memory", written, assemblies.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Failed to write projects, retrying in {}", flushInterval, e);
+            }
+        }
+    }
+}
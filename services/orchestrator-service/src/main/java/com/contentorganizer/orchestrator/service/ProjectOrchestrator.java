@@ -0,0 +1,382 @@
+package com.contentorganizer.orchestrator.service;
+
+import com.contentorganizer.common.dto.VideoCreationRequest;
+import com.contentorganizer.common.event.AssetFailedEvent;
+import com.contentorganizer.common.event.AssetRequestedEvent;
+import com.contentorganizer.common.event.AssetType;
+import com.contentorganizer.common.event.BaseEvent;
+import com.contentorganizer.common.event.ImageReadyEvent;
+import com.contentorganizer.common.event.MusicReadyEvent;
+import com.contentorganizer.common.event.SEOReadyEvent;
+import com.contentorganizer.common.event.VideoCreationStartedEvent;
+import com.contentorganizer.common.util.EventIds;
+import com.contentorganizer.common.util.EventPublisher;
+import com.contentorganizer.orchestrator.model.AssetProgress;
+import com.contentorganizer.orchestrator.model.ProjectAssembly;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Assembles video projects: fans a {@link VideoCreationRequest} out to the music, image and SEO
+ * services at once, joins their answers per project and publishes the
+ * {@link VideoCreationStartedEvent} when all assets are there.
+ * <p>
+ * Each project is a {@link ProjectAssembly} state machine held in the {@link ProjectAssemblyStore};
+ * transitions synchronize on the project, so events of different projects are handled in
+ * parallel. Failed or overdue assets are requested again up to {@code maxAttempts} times, without
+ * touching the assets that are already there. An optional asset (SEO by default) that still fails
+ * is skipped and the video uses the requested title and description; a required one fails the
+ * project. A project whose assets are not all there within {@code joinTimeout} fails as well.
+ * <p>
+ * With partitioned ownership, new projects get an id in one of this replica's partitions, so the
+ * replica that created a project also handles its answers.
+ * <p>
+ * With the event outbox enabled, a new project and its asset requests are committed in one Mongo
+ * transaction, so a project is never stored without its requests or announced without being
+ * stored. Later state changes are written behind as usual; the outbox only makes their events
+ * durable.
+ */
+@Service
+public class ProjectOrchestrator implements SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ProjectOrchestrator.class);
+    
+    private static final int MAX_ID_ATTEMPTS = 10_000;
+    private static final List<String> ASSET_CHANNELS = new ArrayList<>();
+    
+    static {
+        for (AssetType asset : AssetType.values()) {
+            ASSET_CHANNELS.add(AssetRequestedEvent.channelFor(asset));
+        }
+    }
+    
+    private final ProjectAssemblyStore store;
+    private final EventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    
+    @Value("${orchestrator.asset-timeout:10m}")
+    private Duration assetTimeout;
+    
+    @Value("${orchestrator.join-timeout:1h}")
+    private Duration joinTimeout;
+    
+    @Value("${orchestrator.max-attempts:3}")
+    private int maxAttempts;
+    
+    @Value("${orchestrator.timeout-check-interval:1s}")
+    private Duration timeoutCheckInterval;
+    
+    private Set<AssetType> optionalAssets = EnumSet.of(AssetType.IMAGES, AssetType.SEO);
+    
+    private volatile boolean running;
+    private Thread timeoutThread;
+    
+    public ProjectOrchestrator(ProjectAssemblyStore store, EventPublisher eventPublisher,
+                               ObjectProvider<MongoTransactionManager> transactionManager) {
+        this.store = store;
+        this.eventPublisher = eventPublisher;
+        MongoTransactionManager manager = transactionManager.getIfAvailable();
+        this.transactionTemplate = manager != null ? new TransactionTemplate(manager) : null;
+    }
+    
+    /**
+     * Assets a project can do without, e.g. "SEO". Images are optional by default since no
+     * service answers their requests yet.
+     */
+    @Value("${orchestrator.optional-assets:IMAGES,SEO}")
+    public void setOptionalAssets(Set<AssetType> optionalAssets) {
+        this.optionalAssets = optionalAssets.isEmpty() ? EnumSet.noneOf(AssetType.class) : EnumSet.copyOf(optionalAssets);
+    }
+    
+    /**
+     * Start a project and request all of its assets at once
+     * 
+     * @param request The video creation request
+     * @return The new project
+     * @throws com.contentorganizer.common.util.EventBackpressureException if the asset services are too far behind
+     * @throws NoPartitionAssignedException if this replica owns no partition yet
+     */
+    public ProjectAssembly createProject(VideoCreationRequest request) {
+        Instant now = Instant.now();
+        String projectId = newProjectId(now);
+        // waits here rather than holding the project's lock, and a transaction, while the backlog drops
+        eventPublisher.acquire(ASSET_CHANNELS);
+        ProjectAssembly assembly = new ProjectAssembly(projectId, request, now, now.plus(joinTimeout));
+        // stored first, so that answers arriving before the last request was published find the project
+        store.put(assembly);
+        if (transactionTemplate != null) {
+            createInTransaction(assembly, now);
+            logger.info("Started project {} '{}'", assembly.getProjectId(), request.getTitle());
+            return assembly;
+        }
+        synchronized (assembly) {
+            int published = 0;
+            try {
+                for (AssetType asset : AssetType.values()) {
+                    requestAsset(assembly, asset, now, false);
+                    published++;
+                }
+            } catch (RuntimeException e) {
+                if (published == 0) {
+                    store.remove(assembly.getProjectId());
+                    throw e;
+                }
+                // the missing requests are sent again when their timeout expires
+                logger.warn("Requested only {} assets of project {}", published, assembly.getProjectId(), e);
+            }
+        }
+        logger.info("Started project {} '{}'", assembly.getProjectId(), request.getTitle());
+        return assembly;
+    }
+    
+    /**
+     * Write the project and store its requests in the outbox in one transaction. The lock keeps
+     * the write-behind flush from writing the project before the transaction ended.
+     */
+    private void createInTransaction(ProjectAssembly assembly, Instant now) {
+        synchronized (assembly) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    store.insert(assembly);
+                    for (AssetType asset : AssetType.values()) {
+                        requestAsset(assembly, asset, now, false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                store.remove(assembly.getProjectId());
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * A new projectId this replica is responsible for. Ids are random, so with {@code n} of
+     * {@code N} partitions owned one in {@code N/n} ids fits.
+     */
+    private String newProjectId(Instant now) {
+        for (int attempt = 0; attempt < MAX_ID_ATTEMPTS; attempt++) {
+            String projectId = EventIds.next(now.toEpochMilli());
+            if (store.owns(projectId)) {
+                return projectId;
+            }
+        }
+        throw new NoPartitionAssignedException();
+    }
+    
+    /**
+     * Look up a project
+     * 
+     * @param projectId The project
+     * @return The project, or {@code null} if it is unknown
+     */
+    public ProjectAssembly getProject(String projectId) {
+        return store.get(projectId);
+    }
+    
+    public void onMusicReady(MusicReadyEvent event) {
+        onAssetReady(event.getProjectId(), AssetType.MUSIC, event, null);
+    }
+    
+    public void onImagesReady(ImageReadyEvent event) {
+        onAssetReady(event.getProjectId(), AssetType.IMAGES, event, null);
+    }
+    
+    public void onSeoReady(SEOReadyEvent event) {
+        onAssetReady(event.getProjectId(), AssetType.SEO, event, assembly -> assembly.applySeo(event));
+    }
+    
+    public void onAssetFailed(AssetFailedEvent event) {
+        ProjectAssembly assembly = store.get(event.getProjectId());
+        if (assembly == null) {
+            logger.debug("Ignoring failed {} of unknown project {}", event.getAsset(), event.getProjectId());
+            return;
+        }
+        synchronized (assembly) {
+            if (assembly.isTerminal() || assembly.getAsset(event.getAsset()).isDone()) {
+                return;
+            }
+            assetFailed(assembly, event.getAsset(), event.getReason(), event.isRetryable(), Instant.now());
+        }
+    }
+    
+    /**
+     * Handle overdue assets and projects past their join deadline, and retry joins whose
+     * publish failed
+     */
+    public void checkTimeouts() {
+        Instant now = Instant.now();
+        for (ProjectAssembly assembly : store.active()) {
+            synchronized (assembly) {
+                if (assembly.isTerminal()) {
+                    continue;
+                }
+                try {
+                    checkTimeouts(assembly, now);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to advance project {}", assembly.getProjectId(), e);
+                }
+            }
+        }
+    }
+    
+    private void checkTimeouts(ProjectAssembly assembly, Instant now) {
+        if (now.isAfter(assembly.getJoinDeadline())) {
+            for (AssetType asset : optionalAssets) {
+                if (!assembly.getAsset(asset).isDone()) {
+                    assembly.getAsset(asset).skipped("Not ready within " + joinTimeout);
+                }
+            }
+            if (!assembly.isComplete()) {
+                fail(assembly, "Assets not ready within " + joinTimeout, now);
+                return;
+            }
+        }
+        for (AssetType asset : AssetType.values()) {
+            if (assembly.getAsset(asset).isOverdue(now)) {
+                assetFailed(assembly, asset, "No answer within " + assetTimeout, true, now);
+                if (assembly.isTerminal()) {
+                    return;
+                }
+            }
+        }
+        joinIfComplete(assembly, now);
+    }
+    
+    private void onAssetReady(String projectId, AssetType asset, BaseEvent event, Consumer<ProjectAssembly> apply) {
+        ProjectAssembly assembly = store.get(projectId);
+        if (assembly == null) {
+            logger.debug("Ignoring {} of unknown project {}", asset, projectId);
+            return;
+        }
+        synchronized (assembly) {
+            AssetProgress progress = assembly.getAsset(asset);
+            if (assembly.isTerminal() || progress.isDone()) {
+                logger.debug("Ignoring {} {} of project {} in phase {}", asset, event.getEventId(), projectId, assembly.getPhase());
+                return;
+            }
+            Instant now = Instant.now();
+            progress.ready(event.getEventId());
+            if (apply != null) {
+                apply.accept(assembly);
+            }
+            assembly.touch(now);
+            store.markDirty(projectId);
+            joinIfComplete(assembly, now);
+        }
+    }
+    
+    private void assetFailed(ProjectAssembly assembly, AssetType asset, String reason, boolean retryable, Instant now) {
+        AssetProgress progress = assembly.getAsset(asset);
+        progress.failed(reason);
+        assembly.touch(now);
+        store.markDirty(assembly.getProjectId());
+        if (retryable && progress.getAttempts() < maxAttempts) {
+            logger.warn("{} of project {} failed ({}), requesting it again", asset, assembly.getProjectId(), reason);
+            requestAsset(assembly, asset, now, true);
+        } else if (optionalAssets.contains(asset)) {
+            logger.warn("Continuing project {} without {}: {}", assembly.getProjectId(), asset, reason);
+            progress.skipped(reason);
+            joinIfComplete(assembly, now);
+        } else {
+            fail(assembly, asset + " failed after " + progress.getAttempts() + " attempts: " + reason, now);
+        }
+    }
+    
+    /**
+     * @param throttle Apply backpressure, unless the caller already did before taking the lock
+     */
+    private void requestAsset(ProjectAssembly assembly, AssetType asset, Instant now, boolean throttle) {
+        AssetProgress progress = assembly.getAsset(asset);
+        // counted before publishing, so a failed publish is retried after the timeout like a lost answer
+        progress.requested(now, assetTimeout);
+        store.markDirty(assembly.getProjectId());
+        VideoCreationRequest request = assembly.getRequest();
+        AssetRequestedEvent event = new AssetRequestedEvent(
+                assembly.getProjectId(), asset, progress.getAttempts(), request.getTitle(), request.getDescription(),
+                request.getTags(), request.getMusicGenre(), request.getImageStyle(), request.getVideoResolution());
+        if (throttle) {
+            eventPublisher.publishEvent(AssetRequestedEvent.channelFor(asset), event);
+        } else {
+            eventPublisher.publishAcquired(AssetRequestedEvent.channelFor(asset), event);
+        }
+    }
+    
+    /**
+     * Publish the video creation once all assets are there. If publishing fails the project stays
+     * in {@code COLLECTING} and the join is tried again with the next timeout check.
+     */
+    private void joinIfComplete(ProjectAssembly assembly, Instant now) {
+        if (assembly.isTerminal() || !assembly.isComplete()) {
+            return;
+        }
+        VideoCreationStartedEvent started = new VideoCreationStartedEvent(assembly.getProjectId(),
+                assembly.getVideoTitle(), assembly.getVideoDescription(), assembly.getVideoTags());
+        eventPublisher.publishEvent(started);
+        assembly.started(started.getEventId(), now);
+        store.markDirty(assembly.getProjectId());
+        logger.info("All assets of project {} ready after {}, video creation started", assembly.getProjectId(),
+                Duration.between(assembly.getCreatedAt(), now));
+    }
+    
+    private void fail(ProjectAssembly assembly, String reason, Instant now) {
+        assembly.failed(reason, now);
+        store.markDirty(assembly.getProjectId());
+        logger.error("Project {} failed: {}", assembly.getProjectId(), reason);
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        timeoutThread = new Thread(this::timeoutLoop, "project-timeouts");
+        timeoutThread.setDaemon(true);
+        timeoutThread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (timeoutThread != null) {
+            timeoutThread.interrupt();
+            timeoutThread = null;
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    private void timeoutLoop() {
+        while (running) {
+            try {
+                Thread.sleep(timeoutCheckInterval.toMillis());
+                checkTimeouts();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Failed to check project timeouts", e);
+            }
+        }
+    }
+}
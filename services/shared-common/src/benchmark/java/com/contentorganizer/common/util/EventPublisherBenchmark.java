@@ -0,0 +1,104 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.BaseEvent;
+import com.contentorganizer.common.event.MusicReadyEvent;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares publishing events one at a time, with {@link EventPublisher#publishBatch} and with
+ * auto-batching, against a running Redis server.
+ * <p>
+ * Usage: {@code ./gradlew :services:shared-common:publisherBenchmark -PbenchmarkArgs="localhost 6379 pubsub 100000 8"}
+ * with host, port, transport ({@code pubsub} or {@code streams}), events per run and publisher threads.
+ */
+public class EventPublisherBenchmark {
+    
+    private static final int WARMUP_EVENTS = 10_000;
+    
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        String transportName = args.length > 2 ? args[2] : "pubsub";
+        int events = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+        
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(host, port);
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate redisTemplate = new StringRedisTemplate(connectionFactory);
+        redisTemplate.afterPropertiesSet();
+        EventTransport transport = "streams".equalsIgnoreCase(transportName)
+                ? new RedisStreamEventTransport(redisTemplate, "benchmark", "benchmark")
+                : new PubSubEventTransport(redisTemplate, null);
+        
+        System.out.printf("%s transport, %d events, %d publisher threads%n", transportName, events, threads);
+        try {
+            run(transport, Duration.ZERO, WARMUP_EVENTS, threads, false);
+            report("single", run(transport, Duration.ZERO, events, threads, false), events);
+            run(transport, Duration.ZERO, WARMUP_EVENTS, threads, true);
+            report("batch", run(transport, Duration.ZERO, events, threads, true), events);
+            run(transport, Duration.ofMillis(1), WARMUP_EVENTS, threads, false);
+            report("auto (1 ms linger)", run(transport, Duration.ofMillis(1), events, threads, false), events);
+        } finally {
+            if ("streams".equalsIgnoreCase(transportName)) {
+                redisTemplate.delete("events:MusicReadyEvent");
+            }
+            connectionFactory.destroy();
+        }
+    }
+    
+    /**
+     * Publish the events from {@code threads} threads and wait until all were sent
+     * 
+     * @return Elapsed nanoseconds
+     */
+    private static long run(EventTransport transport, Duration linger, int events, int threads, boolean batch) throws Exception {
+        EventPublisher publisher = new EventPublisher(transport, linger, 100);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        int perThread = events / threads;
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                List<BaseEvent> pending = new ArrayList<>(100);
+                for (int i = 0; i < perThread; i++) {
+                    MusicReadyEvent event = new MusicReadyEvent("project-" + thread, "music-" + i,
+                            "https://example.com/music/" + i + ".mp3", "lofi", 180);
+                    if (!batch) {
+                        publisher.publishEvent(event);
+                        continue;
+                    }
+                    pending.add(event);
+                    if (pending.size() == 100) {
+                        publisher.publishBatch(pending);
+                        pending.clear();
+                    }
+                }
+                if (!pending.isEmpty()) {
+                    publisher.publishBatch(pending);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        // flushes what auto-batching still holds
+        publisher.close();
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        return elapsed;
+    }
+    
+    private static void report(String mode, long elapsedNanos, int events) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%-20s %10.0f events/s %10.2f us/event%n", mode, events / seconds, elapsedNanos / 1e3 / events);
+    }
+}
@@ -0,0 +1,86 @@
+package com.contentorganizer.common.config;
+
+import com.contentorganizer.common.util.EventBacklogReporter;
+import com.contentorganizer.common.util.EventBackpressure;
+import com.contentorganizer.common.util.EventBackpressureHealthIndicator;
+import com.contentorganizer.common.util.EventListener;
+import com.contentorganizer.common.util.EventTransport;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+/**
+ * Backpressure between services, enabled with {@code events.backpressure.enabled=true}: every
+ * service reports the backlog of the channels it consumes and throttles publishing to channels
+ * whose consumers are over their limit. Enable it on all services of the pipeline.
+ */
+@Configuration
+@ConditionalOnProperty(name = "events.backpressure.enabled", havingValue = "true")
+public class EventBackpressureConfig {
+    
+    /**
+     * What publishers do while consumers are over their limit: "wait" or "reject"
+     */
+    @Value("${events.backpressure.mode:wait}")
+    private String mode;
+    
+    /**
+     * Backlog per consumed channel above which this service asks publishers to hold back
+     */
+    @Value("${events.backpressure.max-backlog:1000}")
+    private long maxBacklog;
+    
+    /**
+     * Longest time a publisher waits in "wait" mode before failing
+     */
+    @Value("${events.backpressure.max-wait:30s}")
+    private Duration maxWait;
+    
+    @Value("${events.backpressure.report-interval:1s}")
+    private Duration reportInterval;
+    
+    @Value("${events.backpressure.key-prefix:events:backlog:}")
+    private String keyPrefix;
+    
+    @Value("${events.streams.group:${spring.application.name:content-organizer}}")
+    private String group;
+    
+    @Value("${events.streams.consumer:}")
+    private String consumer;
+    
+    @Bean
+    public EventBacklogReporter eventBacklogReporter(RedisTemplate<String, String> redisTemplate,
+                                                     EventTransport eventTransport,
+                                                     ObjectProvider<EventListener> eventListeners) {
+        String consumerName = consumer.isBlank() ? ManagementFactory.getRuntimeMXBean().getName() : consumer;
+        EventBacklogReporter reporter = new EventBacklogReporter(redisTemplate, eventTransport, eventListeners,
+                group, consumerName, maxBacklog);
+        reporter.setKeyPrefix(keyPrefix);
+        reporter.setInterval(reportInterval);
+        return reporter;
+    }
+    
+    @Bean
+    public EventBackpressure eventBackpressure(RedisTemplate<String, String> redisTemplate) {
+        EventBackpressure backpressure = new EventBackpressure(redisTemplate);
+        backpressure.setMode(EventBackpressure.Mode.valueOf(mode.trim().toUpperCase()));
+        backpressure.setKeyPrefix(keyPrefix);
+        backpressure.setMaxWait(maxWait);
+        backpressure.setRefreshInterval(reportInterval.dividedBy(2));
+        // a few missed reports mean the consumer is gone, not that it caught up
+        backpressure.setStaleAfter(reportInterval.multipliedBy(5));
+        return backpressure;
+    }
+    
+    @Bean
+    public EventBackpressureHealthIndicator eventBackpressureHealthIndicator(EventBackpressure eventBackpressure,
+                                                                           EventBacklogReporter eventBacklogReporter) {
+        return new EventBackpressureHealthIndicator(eventBackpressure, eventBacklogReporter);
+    }
+}
@@ -0,0 +1,63 @@
+package com.contentorganizer.common.config;
+
+import com.contentorganizer.common.util.ProjectEventLog;
+import com.contentorganizer.common.util.ProjectEventLogEndpoint;
+import com.contentorganizer.common.util.ProjectEventLogListener;
+import com.contentorganizer.common.util.ProjectSnapshotCompactor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Duration;
+
+/**
+ * Per-project event log with snapshots, enabled with {@code events.log.enabled=true}.
+ * Only one service needs to enable it; it consumes every project event.
+ */
+@Configuration
+@ConditionalOnProperty(name = "events.log.enabled", havingValue = "true")
+public class EventLogConfig {
+    
+    /**
+     * Number of events after which a project gets a new snapshot
+     */
+    @Value("${events.log.snapshot-every:100}")
+    private long snapshotEvery;
+    
+    @Value("${events.log.compaction-interval:30s}")
+    private Duration compactionInterval;
+    
+    /**
+     * How old logged events must be before they are folded into a snapshot
+     */
+    @Value("${events.log.settle-time:10s}")
+    private Duration settleTime;
+    
+    @Bean
+    public ProjectEventLog projectEventLog(MongoTemplate mongoTemplate) {
+        ProjectEventLog eventLog = new ProjectEventLog(mongoTemplate);
+        eventLog.setSettleTime(settleTime);
+        eventLog.ensureIndexes();
+        return eventLog;
+    }
+    
+    @Bean
+    public ProjectSnapshotCompactor projectSnapshotCompactor(ProjectEventLog projectEventLog) {
+        ProjectSnapshotCompactor compactor = new ProjectSnapshotCompactor(projectEventLog);
+        compactor.setSnapshotEvery(snapshotEvery);
+        compactor.setInterval(compactionInterval);
+        return compactor;
+    }
+    
+    @Bean
+    public ProjectEventLogListener projectEventLogListener(ProjectEventLog projectEventLog) {
+        return new ProjectEventLogListener(projectEventLog);
+    }
+    
+    @Bean
+    public ProjectEventLogEndpoint projectEventLogEndpoint(ProjectEventLog projectEventLog) {
+        return new ProjectEventLogEndpoint(projectEventLog);
+    }
+}
@@ -0,0 +1,53 @@
+package com.contentorganizer.common.config;
+
+import com.contentorganizer.common.util.EventOutbox;
+import com.contentorganizer.common.util.EventTransport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Duration;
+
+/**
+ * MongoDB outbox for event publishing, enabled with {@code events.outbox.enabled=true}
+ */
+@Configuration
+@ConditionalOnProperty(name = "events.outbox.enabled", havingValue = "true")
+public class EventOutboxConfig {
+    
+    @Value("${events.outbox.batch-size:100}")
+    private int batchSize;
+    
+    @Value("${events.outbox.poll-interval:1s}")
+    private Duration pollInterval;
+    
+    /**
+     * How long a relay owns a claimed batch before another replica may send it
+     */
+    @Value("${events.outbox.lease:30s}")
+    private Duration lease;
+    
+    @Bean
+    public EventOutbox eventOutbox(MongoTemplate mongoTemplate, EventTransport eventTransport) {
+        EventOutbox outbox = new EventOutbox(mongoTemplate, eventTransport);
+        outbox.setBatchSize(batchSize);
+        outbox.setPollInterval(pollInterval);
+        outbox.setLease(lease);
+        return outbox;
+    }
+    
+    /**
+     * Transactions spanning the business data and the outbox, for {@code @Transactional} methods
+     * that publish events. Services with a transaction manager of their own turn it off with
+     * {@code events.outbox.transaction-manager=false}.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "events.outbox.transaction-manager", havingValue = "true", matchIfMissing = true)
+    public MongoTransactionManager transactionManager(MongoDatabaseFactory databaseFactory) {
+        return new MongoTransactionManager(databaseFactory);
+    }
+}
@@ -0,0 +1,93 @@
+package com.contentorganizer.common.config;
+
+import com.contentorganizer.common.util.ProjectPartitions;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+/**
+ * Partitioned project ownership, enabled with {@code events.partitions.enabled=true}: the
+ * replicas of a service lease the partitions of the projectId space between them and each
+ * handles only the events of its own projects. Meant for transports that deliver every event to
+ * every replica (pub/sub, local); on streams every replica needs its own consumer group.
+ */
+@Configuration
+@ConditionalOnProperty(name = "events.partitions.enabled", havingValue = "true")
+public class ProjectPartitionConfig {
+    
+    /**
+     * Number of partitions; the same on all replicas, and an upper bound for useful replicas
+     */
+    @Value("${events.partitions.count:64}")
+    private int count;
+    
+    @Value("${events.partitions.heartbeat-interval:1s}")
+    private Duration heartbeatInterval;
+    
+    /**
+     * How long a replica keeps its partitions without a heartbeat before others take them over
+     */
+    @Value("${events.partitions.lease-time:10s}")
+    private Duration leaseTime;
+    
+    /**
+     * Most events of other replicas' partitions held back during handovers
+     */
+    @Value("${events.partitions.max-deferred:10000}")
+    private int maxDeferred;
+    
+    @Value("${events.partitions.key-prefix:events:partitions:}")
+    private String keyPrefix;
+    
+    @Value("${events.transport:pubsub}")
+    private String transport;
+    
+    /**
+     * The replicas sharing the partitions; independent of the stream consumer group, which
+     * differs per replica when partitioning on streams
+     */
+    @Value("${events.partitions.group:${spring.application.name:content-organizer}}")
+    private String group;
+    
+    @Value("${events.streams.group:}")
+    private String streamGroup;
+    
+    @Value("${events.streams.consumer:}")
+    private String consumer;
+    
+    @Bean
+    public ProjectPartitions projectPartitions(RedisTemplate<String, String> redisTemplate,
+                                               ObjectProvider<MeterRegistry> meterRegistry) {
+        if ("streams".equalsIgnoreCase(transport) && (streamGroup.isBlank() || streamGroup.equals(group))) {
+            // a shared consumer group hands each event to one replica, which would skip foreign projects
+            throw new IllegalStateException("Partitioned projects with the streams transport need one consumer "
+                    + "group per replica: set events.streams.group to a name unique to the replica, or disable "
+                    + "events.partitions.enabled");
+        }
+        String member = consumer.isBlank() ? ManagementFactory.getRuntimeMXBean().getName() : consumer;
+        ProjectPartitions partitions = new ProjectPartitions(redisTemplate, group, member, count);
+        partitions.setKeyPrefix(keyPrefix);
+        partitions.setHeartbeatInterval(heartbeatInterval);
+        partitions.setLeaseTime(leaseTime);
+        partitions.setMaxDeferred(maxDeferred);
+        meterRegistry.ifAvailable(registry -> {
+            Gauge.builder("events.partitions.owned", partitions, p -> p.getOwned().size())
+                    .description("Project partitions owned by this replica")
+                    .tag("group", group)
+                    .register(registry);
+            Gauge.builder("events.partitions.deferred", partitions, ProjectPartitions::getDeferred)
+                    .description("Events of other replicas' partitions held back until their owner is known")
+                    .tag("group", group)
+                    .register(registry);
+        });
+        return partitions;
+    }
+}
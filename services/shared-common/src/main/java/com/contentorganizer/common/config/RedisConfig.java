@@ -1,13 +1,61 @@
 package com.contentorganizer.common.config;
 
+import com.contentorganizer.common.event.EventPriority;
+import com.contentorganizer.common.util.ClaimCheck;
+import com.contentorganizer.common.util.EventDeadLetterEndpoint;
+import com.contentorganizer.common.util.EventDeduplicator;
+import com.contentorganizer.common.util.EventIds;
+import com.contentorganizer.common.util.EventListener;
+import com.contentorganizer.common.util.EventMetrics;
+import com.contentorganizer.common.util.EventRetryScheduler;
+import com.contentorganizer.common.util.EventTransport;
+import com.contentorganizer.common.util.LoopbackEventTransport;
+import com.contentorganizer.common.util.PriorityLanes;
+import com.contentorganizer.common.util.ProjectPartitions;
+import com.contentorganizer.common.util.PubSubEventTransport;
+import com.contentorganizer.common.util.RedisStreamEventTransport;
+import com.contentorganizer.common.util.StripedExecutor;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.SocketOptions;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import io.lettuce.core.metrics.MicrometerCommandLatencyRecorder;
+import io.lettuce.core.metrics.MicrometerOptions;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.commonspool2.CommonsObjectPool2Metrics;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisConfiguration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisSentinelConfiguration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.StringUtils;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
 
 /**
  * Redis configuration for event messaging
@@ -24,13 +72,300 @@ public class RedisConfig {
     @Value("${spring.data.redis.database:0}")
     private int redisDatabase;
     
+    @Value("${spring.data.redis.password:}")
+    private String redisPassword;
+    
+    @Value("${spring.data.redis.timeout:5s}")
+    private Duration redisCommandTimeout;
+    
+    @Value("${spring.data.redis.connect-timeout:2s}")
+    private Duration redisConnectTimeout;
+    
+    /**
+     * Redis deployment: "standalone", "sentinel" (automatic failover to a replica) or "cluster"
+     */
+    @Value("${events.redis.topology:standalone}")
+    private String redisTopology;
+    
+    @Value("${spring.data.redis.sentinel.master:mymaster}")
+    private String redisSentinelMaster;
+    
+    /**
+     * Comma-separated host:port list of the sentinels
+     */
+    @Value("${spring.data.redis.sentinel.nodes:}")
+    private String redisSentinelNodes;
+    
+    /**
+     * Comma-separated host:port list of cluster nodes to discover the cluster from
+     */
+    @Value("${spring.data.redis.cluster.nodes:}")
+    private String redisClusterNodes;
+    
+    @Value("${spring.data.redis.cluster.max-redirects:3}")
+    private int redisClusterMaxRedirects;
+    
+    /**
+     * Netty I/O and computation threads of the Redis client; 0 keeps the client default (one per core)
+     */
+    @Value("${events.redis.io-threads:0}")
+    private int redisIoThreads;
+    
+    @Value("${events.redis.computation-threads:0}")
+    private int redisComputationThreads;
+    
+    /**
+     * Pool the connections used for commands instead of multiplexing them all over one connection
+     */
+    @Value("${events.redis.pool.enabled:true}")
+    private boolean redisPoolEnabled;
+    
+    @Value("${events.redis.pool.max-active:16}")
+    private int redisPoolMaxActive;
+    
+    @Value("${events.redis.pool.max-idle:8}")
+    private int redisPoolMaxIdle;
+    
+    @Value("${events.redis.pool.min-idle:2}")
+    private int redisPoolMinIdle;
+    
+    @Value("${events.redis.pool.max-wait:2s}")
+    private Duration redisPoolMaxWait;
+    
+    /**
+     * Event transport: "pubsub" (fire-and-forget), "streams" (durable, consumer groups) or
+     * "local" (in-process, for running all services in one JVM)
+     */
+    @Value("${events.transport:pubsub}")
+    private String eventTransport;
+    
+    @Value("${events.local.capacity:65536}")
+    private int localCapacity;
+    
+    @Value("${events.streams.group:${spring.application.name:content-organizer}}")
+    private String streamGroup;
+    
+    @Value("${events.streams.consumer:}")
+    private String streamConsumer;
+    
+    @Value("${events.streams.key-prefix:events:}")
+    private String streamKeyPrefix;
+    
+    @Value("${events.streams.batch-size:50}")
+    private int streamBatchSize;
+    
+    @Value("${events.streams.poll-timeout:2s}")
+    private Duration streamPollTimeout;
+    
+    @Value("${events.streams.claim-idle-time:60s}")
+    private Duration streamClaimIdleTime;
+    
+    @Value("${events.streams.max-length:100000}")
+    private long streamMaxLength;
+    
+    @Value("${events.streams.max-deliveries:5}")
+    private int streamMaxDeliveries;
+    
+    /**
+     * Streams per channel, picked by projectId; spreads busy channels over the nodes of a cluster
+     */
+    @Value("${events.streams.shards:1}")
+    private int streamShards;
+    
+    /**
+     * Listener dispatch: "direct" (receiving thread), "striped" (ordered lanes keyed by projectId)
+     * or "priority" (striped lanes per event priority class)
+     */
+    @Value("${events.listener.dispatch:direct}")
+    private String listenerDispatch;
+    
+    @Value("${events.listener.lanes:0}")
+    private int listenerLanes;
+    
+    @Value("${events.listener.lane-queue-capacity:1000}")
+    private int listenerLaneQueueCapacity;
+    
+    @Value("${events.listener.rejection-policy:block}")
+    private String listenerRejectionPolicy;
+    
+    @Value("${events.listener.priority-weights.high:6}")
+    private int highPriorityWeight;
+    
+    @Value("${events.listener.priority-weights.normal:3}")
+    private int normalPriorityWeight;
+    
+    @Value("${events.listener.priority-weights.bulk:1}")
+    private int bulkPriorityWeight;
+    
+    @Value("${events.dedup.max-entries:100000}")
+    private int dedupMaxEntries;
+    
+    @Value("${events.dedup.ttl:24h}")
+    private Duration dedupTtl;
+    
+    @Value("${events.dedup.processing-lease:5m}")
+    private Duration dedupProcessingLease;
+    
+    /**
+     * Also record handled eventIds in Redis so replicas of a service skip them
+     */
+    @Value("${events.dedup.redis:false}")
+    private boolean dedupRedis;
+    
+    @Value("${events.dedup.key-prefix:events:dedup:}")
+    private String dedupKeyPrefix;
+    
+    @Value("${events.retry.max-attempts:5}")
+    private int retryMaxAttempts;
+    
+    @Value("${events.retry.initial-backoff:1s}")
+    private Duration retryInitialBackoff;
+    
+    @Value("${events.retry.max-backoff:5m}")
+    private Duration retryMaxBackoff;
+    
+    @Value("${events.retry.multiplier:2.0}")
+    private double retryMultiplier;
+    
+    @Value("${events.retry.poll-interval:1s}")
+    private Duration retryPollInterval;
+    
+    @Value("${events.retry.lease:5m}")
+    private Duration retryLease;
+    
+    @Value("${events.retry.dead-letter-max-length:10000}")
+    private long retryDeadLetterMaxLength;
+    
+    /**
+     * Size in bytes above which event fields are offloaded to Redis
+     */
+    @Value("${events.claim-check.threshold:16384}")
+    private int claimCheckThreshold;
+    
+    @Value("${events.claim-check.ttl:24h}")
+    private Duration claimCheckTtl;
+    
+    @Value("${events.claim-check.key-prefix:events:claim:}")
+    private String claimCheckKeyPrefix;
+    
+    /**
+     * Generator for new event ids: "uuidv7" (default), "ulid" or "random"
+     */
+    @Value("${events.id-generator:uuidv7}")
+    public void setEventIdGenerator(String eventIdGenerator) {
+        EventIds.use(eventIdGenerator);
+    }
+    
+    /**
+     * Threads and command latency metrics ({@code lettuce.command.*}) shared by all Redis connections
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ClientResources redisClientResources(ObjectProvider<MeterRegistry> meterRegistry) {
+        DefaultClientResources.Builder builder = DefaultClientResources.builder()
+                .commandLatencyRecorder(new MicrometerCommandLatencyRecorder(
+                        meterRegistry.getIfAvailable(() -> Metrics.globalRegistry), MicrometerOptions.create()));
+        if (redisIoThreads > 0) {
+            builder.ioThreadPoolSize(redisIoThreads);
+        }
+        if (redisComputationThreads > 0) {
+            builder.computationThreadPoolSize(redisComputationThreads);
+        }
+        return builder.build();
+    }
+    
+    /**
+     * Connections for commands (publishing, stream reads, retries). Pooled connections are
+     * exclusive to one operation at a time, so a blocking stream read or a large pipeline does
+     * not hold up other publishers; pool usage is exported as {@code commons.pool2.*} metrics.
+     */
     @Bean
-    public RedisConnectionFactory redisConnectionFactory() {
-        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(redisHost, redisPort);
-        connectionFactory.setDatabase(redisDatabase);
+    @Primary
+    public RedisConnectionFactory redisConnectionFactory(ClientResources redisClientResources,
+                                                         ObjectProvider<MeterRegistry> meterRegistry) {
+        LettuceClientConfiguration clientConfiguration;
+        if (redisPoolEnabled) {
+            GenericObjectPoolConfig<StatefulConnection<?, ?>> poolConfig = new GenericObjectPoolConfig<>();
+            poolConfig.setMaxTotal(redisPoolMaxActive);
+            poolConfig.setMaxIdle(redisPoolMaxIdle);
+            poolConfig.setMinIdle(redisPoolMinIdle);
+            poolConfig.setMaxWait(redisPoolMaxWait);
+            poolConfig.setJmxNamePrefix("redis-commands");
+            clientConfiguration = LettucePoolingClientConfiguration.builder()
+                    .poolConfig(poolConfig)
+                    .clientResources(redisClientResources)
+                    .clientOptions(redisClientOptions())
+                    .commandTimeout(redisCommandTimeout)
+                    .build();
+            new CommonsObjectPool2Metrics().bindTo(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        } else {
+            clientConfiguration = LettuceClientConfiguration.builder()
+                    .clientResources(redisClientResources)
+                    .clientOptions(redisClientOptions())
+                    .commandTimeout(redisCommandTimeout)
+                    .build();
+        }
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(redisConfiguration(), clientConfiguration);
+        // without this every command would still go through one shared connection
+        connectionFactory.setShareNativeConnection(!redisPoolEnabled);
         return connectionFactory;
     }
     
+    /**
+     * Dedicated connection for pub/sub subscriptions, so they neither take a connection out of
+     * the command pool for good nor share one with publishers
+     */
+    @Bean
+    public LettuceConnectionFactory redisSubscriberConnectionFactory(ClientResources redisClientResources) {
+        return new LettuceConnectionFactory(redisConfiguration(), LettuceClientConfiguration.builder()
+                .clientResources(redisClientResources)
+                .clientOptions(redisClientOptions())
+                .build());
+    }
+    
+    private RedisConfiguration redisConfiguration() {
+        RedisPassword password = RedisPassword.of(redisPassword);
+        switch (redisTopology.trim().toLowerCase()) {
+            case "standalone":
+                RedisStandaloneConfiguration standalone = new RedisStandaloneConfiguration(redisHost, redisPort);
+                standalone.setDatabase(redisDatabase);
+                standalone.setPassword(password);
+                return standalone;
+            case "sentinel":
+                RedisSentinelConfiguration sentinel = new RedisSentinelConfiguration(redisSentinelMaster,
+                        StringUtils.commaDelimitedListToSet(redisSentinelNodes.replace(" ", "")));
+                sentinel.setDatabase(redisDatabase);
+                sentinel.setPassword(password);
+                return sentinel;
+            case "cluster":
+                RedisClusterConfiguration cluster = new RedisClusterConfiguration(
+                        StringUtils.commaDelimitedListToSet(redisClusterNodes.replace(" ", "")));
+                cluster.setMaxRedirects(redisClusterMaxRedirects);
+                cluster.setPassword(password);
+                return cluster;
+            default:
+                throw new IllegalArgumentException("Unknown Redis topology: " + redisTopology);
+        }
+    }
+    
+    private ClientOptions redisClientOptions() {
+        SocketOptions socketOptions = SocketOptions.builder().connectTimeout(redisConnectTimeout).build();
+        if (isCluster()) {
+            // follow failovers and resharding without waiting for a MOVED error on every node
+            return ClusterClientOptions.builder()
+                    .socketOptions(socketOptions)
+                    .topologyRefreshOptions(ClusterTopologyRefreshOptions.builder()
+                            .enableAllAdaptiveRefreshTriggers()
+                            .enablePeriodicRefresh(Duration.ofSeconds(30))
+                            .build())
+                    .build();
+        }
+        return ClientOptions.builder().socketOptions(socketOptions).build();
+    }
+    
+    private boolean isCluster() {
+        return "cluster".equalsIgnoreCase(redisTopology.trim());
+    }
+    
     @Bean
     public RedisTemplate<String, String> redisTemplate(RedisConnectionFactory connectionFactory) {
         RedisTemplate<String, String> template = new RedisTemplate<>();
@@ -44,9 +379,139 @@ public class RedisConfig {
     }
     
     @Bean
-    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            @Qualifier("redisSubscriberConnectionFactory") RedisConnectionFactory connectionFactory) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
+        if ("striped".equalsIgnoreCase(listenerDispatch) || "priority".equalsIgnoreCase(listenerDispatch)) {
+            // a single dispatcher thread keeps the publish order until events are handed to their lane
+            container.setTaskExecutor(Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-dispatcher");
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
         return container;
     }
+    
+    @Bean
+    public EventTransport eventTransport(RedisTemplate<String, String> redisTemplate,
+                                         RedisMessageListenerContainer redisMessageListenerContainer) {
+        if ("local".equalsIgnoreCase(eventTransport)) {
+            return new LoopbackEventTransport(localCapacity);
+        }
+        if ("streams".equalsIgnoreCase(eventTransport)) {
+            String consumer = streamConsumer.isBlank() ? ManagementFactory.getRuntimeMXBean().getName() : streamConsumer;
+            RedisStreamEventTransport transport = new RedisStreamEventTransport(redisTemplate, streamGroup, consumer);
+            transport.setKeyPrefix(streamKeyPrefix);
+            transport.setBatchSize(streamBatchSize);
+            transport.setPollTimeout(streamPollTimeout);
+            transport.setClaimIdleTime(streamClaimIdleTime);
+            transport.setMaxLength(streamMaxLength);
+            transport.setMaxDeliveries(streamMaxDeliveries);
+            transport.setDeadLetterMaxLength(retryDeadLetterMaxLength);
+            transport.setShards(streamShards);
+            transport.setCluster(isCluster());
+            return transport;
+        }
+        return new PubSubEventTransport(redisTemplate, redisMessageListenerContainer);
+    }
+    
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "events.listener.dispatch", havingValue = "striped")
+    public StripedExecutor eventDispatchExecutor(ObjectProvider<MeterRegistry> meterRegistry) {
+        int lanes = listenerLanes > 0 ? listenerLanes : Runtime.getRuntime().availableProcessors();
+        StripedExecutor executor = new StripedExecutor("event-lane", lanes, listenerLaneQueueCapacity,
+                listenerRejectionPolicy());
+        executor.bindTo(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry), Tags.empty());
+        return executor;
+    }
+    
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "events.listener.dispatch", havingValue = "priority")
+    public PriorityLanes eventPriorityLanes(ObjectProvider<MeterRegistry> meterRegistry) {
+        int threads = listenerLanes > 0 ? listenerLanes : Runtime.getRuntime().availableProcessors();
+        Map<EventPriority, Integer> weights = new EnumMap<>(EventPriority.class);
+        weights.put(EventPriority.HIGH, highPriorityWeight);
+        weights.put(EventPriority.NORMAL, normalPriorityWeight);
+        weights.put(EventPriority.BULK, bulkPriorityWeight);
+        PriorityLanes priorityLanes = new PriorityLanes("event-lane", threads, weights, listenerLaneQueueCapacity,
+                listenerRejectionPolicy());
+        priorityLanes.bindTo(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        return priorityLanes;
+    }
+    
+    private StripedExecutor.RejectionPolicy listenerRejectionPolicy() {
+        return StripedExecutor.RejectionPolicy.valueOf(listenerRejectionPolicy.trim().toUpperCase().replace('-', '_'));
+    }
+    
+    @Bean
+    @ConditionalOnProperty(name = "events.dedup.enabled", havingValue = "true")
+    public EventDeduplicator eventDeduplicator(RedisTemplate<String, String> redisTemplate,
+                                               ObjectProvider<MeterRegistry> meterRegistry) {
+        // keys are per consumer group: every service handles an event once, not every replica
+        return new EventDeduplicator(dedupMaxEntries, dedupTtl, dedupProcessingLease,
+                dedupRedis ? redisTemplate : null, dedupKeyPrefix + streamGroup + ":",
+                meterRegistry.getIfAvailable());
+    }
+    
+    @Bean
+    @ConditionalOnProperty(name = "events.retry.enabled", havingValue = "true")
+    public EventRetryScheduler eventRetryScheduler(RedisTemplate<String, String> redisTemplate) {
+        EventRetryScheduler retryScheduler = new EventRetryScheduler(redisTemplate, streamGroup);
+        retryScheduler.setKeyPrefix(streamKeyPrefix);
+        retryScheduler.setMaxAttempts(retryMaxAttempts);
+        retryScheduler.setInitialBackoff(retryInitialBackoff);
+        retryScheduler.setMaxBackoff(retryMaxBackoff);
+        retryScheduler.setMultiplier(retryMultiplier);
+        retryScheduler.setPollInterval(retryPollInterval);
+        retryScheduler.setLease(retryLease);
+        retryScheduler.setDeadLetterMaxLength(retryDeadLetterMaxLength);
+        return retryScheduler;
+    }
+    
+    @Bean
+    @ConditionalOnProperty(name = "events.retry.enabled", havingValue = "true")
+    public EventDeadLetterEndpoint eventDeadLetterEndpoint(EventRetryScheduler eventRetryScheduler) {
+        return new EventDeadLetterEndpoint(eventRetryScheduler);
+    }
+    
+    @Bean
+    @ConditionalOnProperty(name = "events.claim-check.enabled", havingValue = "true")
+    public ClaimCheck eventClaimCheck(RedisTemplate<String, String> redisTemplate) {
+        return new ClaimCheck(redisTemplate, claimCheckThreshold, claimCheckTtl, claimCheckKeyPrefix);
+    }
+    
+    @Bean
+    public EventMetrics eventMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new EventMetrics(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+    
+    /**
+     * Subscribes every {@link EventListener} bean to its channels once all singletons exist
+     */
+    @Bean
+    public SmartInitializingSingleton eventListenerSubscriptions(EventTransport eventTransport,
+                                                                 ObjectProvider<EventListener> eventListeners,
+                                                                 ObjectProvider<StripedExecutor> eventDispatchExecutor,
+                                                                 ObjectProvider<PriorityLanes> eventPriorityLanes,
+                                                                 ObjectProvider<EventDeduplicator> eventDeduplicator,
+                                                                 ObjectProvider<EventRetryScheduler> eventRetryScheduler,
+                                                                 ObjectProvider<ClaimCheck> eventClaimCheck,
+                                                                 ObjectProvider<ProjectPartitions> projectPartitions,
+                                                                 EventMetrics eventMetrics) {
+        return () -> eventListeners.orderedStream().forEach(listener -> {
+            listener.setDispatchExecutor(eventDispatchExecutor.getIfAvailable());
+            listener.setPriorityLanes(eventPriorityLanes.getIfAvailable());
+            listener.setMetrics(eventMetrics);
+            listener.setDeduplicator(eventDeduplicator.getIfAvailable());
+            listener.setClaimCheck(eventClaimCheck.getIfAvailable());
+            listener.setPartitions(projectPartitions.getIfAvailable());
+            eventRetryScheduler.ifAvailable(retryScheduler -> {
+                listener.setRetryScheduler(retryScheduler);
+                retryScheduler.register(listener);
+            });
+            listener.getChannels().forEach(channel -> eventTransport.subscribe(channel, listener));
+        });
+    }
 } 
\ No newline at end of file
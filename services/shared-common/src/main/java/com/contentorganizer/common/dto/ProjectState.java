@@ -0,0 +1,315 @@
+package com.contentorganizer.common.dto;
+
+import com.contentorganizer.common.event.BaseEvent;
+import com.contentorganizer.common.event.ImageReadyEvent;
+import com.contentorganizer.common.event.MusicReadyEvent;
+import com.contentorganizer.common.event.SEOReadyEvent;
+import com.contentorganizer.common.event.VideoCreationStartedEvent;
+import com.contentorganizer.common.event.VideoPublishedEvent;
+import com.contentorganizer.common.event.VideoReadyEvent;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Current state of a video project, folded from its events from
+ * {@link VideoCreationStartedEvent} to {@link VideoPublishedEvent}
+ */
+public class ProjectState {
+    
+    /**
+     * Progress of a project; assets are ready once music, images and SEO data arrived
+     */
+    public enum Status {
+        CREATION_STARTED,
+        ASSETS_PENDING,
+        ASSETS_READY,
+        VIDEO_READY,
+        PUBLISHED
+    }
+    
+    @JsonProperty("projectId")
+    private String projectId;
+    
+    @JsonProperty("status")
+    private Status status;
+    
+    @JsonProperty("title")
+    private String title;
+    
+    @JsonProperty("description")
+    private String description;
+    
+    @JsonProperty("tags")
+    private String tags;
+    
+    @JsonProperty("musicId")
+    private String musicId;
+    
+    @JsonProperty("musicUrl")
+    private String musicUrl;
+    
+    @JsonProperty("genre")
+    private String genre;
+    
+    @JsonProperty("musicDuration")
+    private Integer musicDuration;
+    
+    @JsonProperty("imageIds")
+    private List<String> imageIds;
+    
+    @JsonProperty("imageUrls")
+    private List<String> imageUrls;
+    
+    @JsonProperty("imageStyle")
+    private String imageStyle;
+    
+    @JsonProperty("optimizedTitle")
+    private String optimizedTitle;
+    
+    @JsonProperty("optimizedDescription")
+    private String optimizedDescription;
+    
+    @JsonProperty("keywords")
+    private List<String> keywords;
+    
+    @JsonProperty("seoTags")
+    private List<String> seoTags;
+    
+    @JsonProperty("thumbnail")
+    private String thumbnail;
+    
+    @JsonProperty("videoId")
+    private String videoId;
+    
+    @JsonProperty("videoUrl")
+    private String videoUrl;
+    
+    @JsonProperty("videoDuration")
+    private Integer videoDuration;
+    
+    @JsonProperty("resolution")
+    private String resolution;
+    
+    @JsonProperty("youtubeVideoId")
+    private String youtubeVideoId;
+    
+    @JsonProperty("youtubeUrl")
+    private String youtubeUrl;
+    
+    @JsonProperty("publishStatus")
+    private String publishStatus;
+    
+    @JsonProperty("publishedAt")
+    private LocalDateTime publishedAt;
+    
+    /**
+     * Log sequence number of the last event folded into this state
+     */
+    @JsonProperty("sequence")
+    private long sequence;
+    
+    @JsonProperty("lastEventId")
+    private String lastEventId;
+    
+    @JsonProperty("updatedAt")
+    private Instant updatedAt;
+    
+    // Default constructor
+    public ProjectState() {
+    }
+    
+    public ProjectState(String projectId) {
+        this.projectId = projectId;
+    }
+    
+    /**
+     * Fold an event into the state. Events of unknown types only advance the sequence.
+     * 
+     * @param event The event
+     * @param sequence The event's sequence number in the project log
+     */
+    public void apply(BaseEvent event, long sequence) {
+        if (event instanceof VideoCreationStartedEvent) {
+            VideoCreationStartedEvent started = (VideoCreationStartedEvent) event;
+            title = started.getTitle();
+            description = started.getDescription();
+            tags = started.getTags();
+        } else if (event instanceof MusicReadyEvent) {
+            MusicReadyEvent music = (MusicReadyEvent) event;
+            musicId = music.getMusicId();
+            musicUrl = music.getMusicUrl();
+            genre = music.getGenre();
+            musicDuration = music.getDuration();
+        } else if (event instanceof ImageReadyEvent) {
+            ImageReadyEvent images = (ImageReadyEvent) event;
+            imageIds = images.getImageIds();
+            imageUrls = images.getImageUrls();
+            imageStyle = images.getStyle();
+        } else if (event instanceof SEOReadyEvent) {
+            SEOReadyEvent seo = (SEOReadyEvent) event;
+            optimizedTitle = seo.getOptimizedTitle();
+            optimizedDescription = seo.getOptimizedDescription();
+            keywords = seo.getKeywords();
+            seoTags = seo.getTags();
+            thumbnail = seo.getThumbnail();
+        } else if (event instanceof VideoReadyEvent) {
+            VideoReadyEvent video = (VideoReadyEvent) event;
+            videoId = video.getVideoId();
+            videoUrl = video.getVideoUrl();
+            videoDuration = video.getDuration();
+            resolution = video.getResolution();
+        } else if (event instanceof VideoPublishedEvent) {
+            VideoPublishedEvent published = (VideoPublishedEvent) event;
+            youtubeVideoId = published.getYoutubeVideoId();
+            youtubeUrl = published.getYoutubeUrl();
+            publishStatus = published.getStatus();
+            publishedAt = published.getPublishedAt();
+        }
+        this.sequence = sequence;
+        this.lastEventId = event.getEventId();
+        this.updatedAt = event.getTimestamp();
+        this.status = currentStatus();
+    }
+    
+    private Status currentStatus() {
+        if (youtubeVideoId != null) {
+            return Status.PUBLISHED;
+        }
+        if (videoId != null) {
+            return Status.VIDEO_READY;
+        }
+        if (musicId != null && imageIds != null && optimizedTitle != null) {
+            return Status.ASSETS_READY;
+        }
+        if (musicId != null || imageIds != null || optimizedTitle != null) {
+            return Status.ASSETS_PENDING;
+        }
+        return Status.CREATION_STARTED;
+    }
+    
+    // Getters
+    public String getProjectId() {
+        return projectId;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public String getTitle() {
+        return title;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    public String getTags() {
+        return tags;
+    }
+    
+    public String getMusicId() {
+        return musicId;
+    }
+    
+    public String getMusicUrl() {
+        return musicUrl;
+    }
+    
+    public String getGenre() {
+        return genre;
+    }
+    
+    public Integer getMusicDuration() {
+        return musicDuration;
+    }
+    
+    public List<String> getImageIds() {
+        return imageIds;
+    }
+    
+    public List<String> getImageUrls() {
+        return imageUrls;
+    }
+    
+    public String getImageStyle() {
+        return imageStyle;
+    }
+    
+    public String getOptimizedTitle() {
+        return optimizedTitle;
+    }
+    
+    public String getOptimizedDescription() {
+        return optimizedDescription;
+    }
+    
+    public List<String> getKeywords() {
+        return keywords;
+    }
+    
+    public List<String> getSeoTags() {
+        return seoTags;
+    }
+    
+    public String getThumbnail() {
+        return thumbnail;
+    }
+    
+    public String getVideoId() {
+        return videoId;
+    }
+    
+    public String getVideoUrl() {
+        return videoUrl;
+    }
+    
+    public Integer getVideoDuration() {
+        return videoDuration;
+    }
+    
+    public String getResolution() {
+        return resolution;
+    }
+    
+    public String getYoutubeVideoId() {
+        return youtubeVideoId;
+    }
+    
+    public String getYoutubeUrl() {
+        return youtubeUrl;
+    }
+    
+    public String getPublishStatus() {
+        return publishStatus;
+    }
+    
+    public LocalDateTime getPublishedAt() {
+        return publishedAt;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public String getLastEventId() {
+        return lastEventId;
+    }
+    
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+    
+    @Override
+    public String toString() {
+        return "ProjectState{" +
+                "projectId='" + projectId + '\'' +
+                ", status=" + status +
+                ", sequence=" + sequence +
+                ", lastEventId='" + lastEventId + '\'' +
+                '}';
+    }
+}
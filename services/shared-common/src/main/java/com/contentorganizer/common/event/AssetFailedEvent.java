@@ -0,0 +1,77 @@
+package com.contentorganizer.common.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+
+/**
+ * Event triggered when an asset service could not produce the requested asset
+ */
+public class AssetFailedEvent extends BaseEvent implements ProjectEvent {
+    
+    @JsonProperty("projectId")
+    private final String projectId;
+    
+    @JsonProperty("asset")
+    private final AssetType asset;
+    
+    @JsonProperty("reason")
+    private final String reason;
+    
+    @JsonProperty("retryable")
+    private final boolean retryable;
+    
+    public AssetFailedEvent(String projectId, AssetType asset, String reason, boolean retryable) {
+        super("AssetFailedEvent");
+        this.projectId = projectId;
+        this.asset = asset;
+        this.reason = reason;
+        this.retryable = retryable;
+    }
+    
+    @JsonCreator
+    public AssetFailedEvent(
+            @JsonProperty("eventId") String eventId,
+            @JsonProperty("timestamp") Instant timestamp,
+            @JsonProperty("eventType") String eventType,
+            @JsonProperty("projectId") String projectId,
+            @JsonProperty("asset") AssetType asset,
+            @JsonProperty("reason") String reason,
+            @JsonProperty("retryable") boolean retryable) {
+        super(eventId, timestamp, eventType);
+        this.projectId = projectId;
+        this.asset = asset;
+        this.reason = reason;
+        this.retryable = retryable;
+    }
+    
+    public String getProjectId() {
+        return projectId;
+    }
+    
+    public AssetType getAsset() {
+        return asset;
+    }
+    
+    public String getReason() {
+        return reason;
+    }
+    
+    /**
+     * @return Whether requesting the asset again may succeed, e.g. after a timeout of an external API
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+    
+    @Override
+    public String toString() {
+        return "AssetFailedEvent{" +
+                "projectId='" + projectId + '\'' +
+                ", asset=" + asset +
+                ", reason='" + reason + '\'' +
+                ", retryable=" + retryable +
+                "} " + super.toString();
+    }
+}
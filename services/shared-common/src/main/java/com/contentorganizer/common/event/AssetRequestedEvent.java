@@ -0,0 +1,140 @@
+package com.contentorganizer.common.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+
+/**
+ * Event asking an asset service to produce one asset of a project. Each asset type has its own
+ * channel ({@link #channelFor(AssetType)}), so the services work on a project in parallel and a
+ * single failed asset can be requested again.
+ */
+public class AssetRequestedEvent extends BaseEvent implements ProjectEvent {
+    
+    @JsonProperty("projectId")
+    private final String projectId;
+    
+    @JsonProperty("asset")
+    private final AssetType asset;
+    
+    @JsonProperty("attempt")
+    private final int attempt;
+    
+    @JsonProperty("title")
+    private final String title;
+    
+    @JsonProperty("description")
+    private final String description;
+    
+    @JsonProperty("tags")
+    private final String tags;
+    
+    @JsonProperty("musicGenre")
+    private final String musicGenre;
+    
+    @JsonProperty("imageStyle")
+    private final String imageStyle;
+    
+    @JsonProperty("videoResolution")
+    private final String videoResolution;
+    
+    public AssetRequestedEvent(String projectId, AssetType asset, int attempt, String title, String description,
+                               String tags, String musicGenre, String imageStyle, String videoResolution) {
+        super("AssetRequestedEvent");
+        this.projectId = projectId;
+        this.asset = asset;
+        this.attempt = attempt;
+        this.title = title;
+        this.description = description;
+        this.tags = tags;
+        this.musicGenre = musicGenre;
+        this.imageStyle = imageStyle;
+        this.videoResolution = videoResolution;
+    }
+    
+    @JsonCreator
+    public AssetRequestedEvent(
+            @JsonProperty("eventId") String eventId,
+            @JsonProperty("timestamp") Instant timestamp,
+            @JsonProperty("eventType") String eventType,
+            @JsonProperty("projectId") String projectId,
+            @JsonProperty("asset") AssetType asset,
+            @JsonProperty("attempt") int attempt,
+            @JsonProperty("title") String title,
+            @JsonProperty("description") String description,
+            @JsonProperty("tags") String tags,
+            @JsonProperty("musicGenre") String musicGenre,
+            @JsonProperty("imageStyle") String imageStyle,
+            @JsonProperty("videoResolution") String videoResolution) {
+        super(eventId, timestamp, eventType);
+        this.projectId = projectId;
+        this.asset = asset;
+        this.attempt = attempt;
+        this.title = title;
+        this.description = description;
+        this.tags = tags;
+        this.musicGenre = musicGenre;
+        this.imageStyle = imageStyle;
+        this.videoResolution = videoResolution;
+    }
+    
+    /**
+     * Channel on which requests for an asset type are published
+     * 
+     * @param asset The asset type
+     * @return The channel name, e.g. {@code AssetRequestedEvent.music}
+     */
+    public static String channelFor(AssetType asset) {
+        return "AssetRequestedEvent." + asset.name().toLowerCase();
+    }
+    
+    public String getProjectId() {
+        return projectId;
+    }
+    
+    public AssetType getAsset() {
+        return asset;
+    }
+    
+    /**
+     * @return 1 for the first request of the asset, higher when it is requested again
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+    
+    public String getTitle() {
+        return title;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    public String getTags() {
+        return tags;
+    }
+    
+    public String getMusicGenre() {
+        return musicGenre;
+    }
+    
+    public String getImageStyle() {
+        return imageStyle;
+    }
+    
+    public String getVideoResolution() {
+        return videoResolution;
+    }
+    
+    @Override
+    public String toString() {
+        return "AssetRequestedEvent{" +
+                "projectId='" + projectId + '\'' +
+                ", asset=" + asset +
+                ", attempt=" + attempt +
+                ", title='" + title + '\'' +
+                "} " + super.toString();
+    }
+}
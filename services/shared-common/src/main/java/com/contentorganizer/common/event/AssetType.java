@@ -0,0 +1,10 @@
+package com.contentorganizer.common.event;
+
+/**
+ * Assets produced for a video project by the asset services, in parallel
+ */
+public enum AssetType {
+    MUSIC,
+    IMAGES,
+    SEO
+}
@@ -1,18 +1,24 @@
 package com.contentorganizer.common.event;
 
+import com.contentorganizer.common.util.EventIds;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateTimeDeserializer;
-import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateTimeSerializer;
+import com.fasterxml.jackson.datatype.jsr310.ser.InstantSerializer;
 
-import java.time.LocalDateTime;
-import java.util.UUID;
+import java.time.Instant;
 
 /**
  * Base event class for all domain events in the system.
  * Provides common fields like event ID, timestamp, and type.
+ * <p>
+ * Event ids come from {@link EventIds} (time-ordered UUIDv7 by default). Timestamps are UTC
+ * instants with millisecond precision; zone-less timestamps of older events are still read.
+ * <p>
+ * The priority class defaults per event type ({@link #defaultPriority()}) and may be changed by
+ * the publisher before publishing; events without one are read with the default of their type.
  */
 public abstract class BaseEvent {
     
@@ -20,32 +26,38 @@ public abstract class BaseEvent {
     private final String eventId;
     
     @JsonProperty("timestamp")
-    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss")
-    @JsonSerialize(using = LocalDateTimeSerializer.class)
-    @JsonDeserialize(using = LocalDateTimeDeserializer.class)
-    private final LocalDateTime timestamp;
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", timezone = "UTC")
+    @JsonSerialize(using = InstantSerializer.class)
+    @JsonDeserialize(using = EventTimestampDeserializer.class)
+    private final Instant timestamp;
     
     @JsonProperty("eventType")
     private final String eventType;
     
+    @JsonProperty("priority")
+    private EventPriority priority;
+    
     protected BaseEvent(String eventType) {
-        this.eventId = UUID.randomUUID().toString();
-        this.timestamp = LocalDateTime.now();
+        long now = System.currentTimeMillis();
+        this.eventId = EventIds.next(now);
+        this.timestamp = Instant.ofEpochMilli(now);
         this.eventType = eventType;
+        this.priority = defaultPriority();
     }
     
     // Constructor for deserialization
-    protected BaseEvent(String eventId, LocalDateTime timestamp, String eventType) {
+    protected BaseEvent(String eventId, Instant timestamp, String eventType) {
         this.eventId = eventId;
         this.timestamp = timestamp;
         this.eventType = eventType;
+        this.priority = defaultPriority();
     }
     
     public String getEventId() {
         return eventId;
     }
     
-    public LocalDateTime getTimestamp() {
+    public Instant getTimestamp() {
         return timestamp;
     }
     
@@ -53,12 +65,40 @@ public abstract class BaseEvent {
         return eventType;
     }
     
+    public EventPriority getPriority() {
+        return priority;
+    }
+    
+    /**
+     * Change the priority class, e.g. to mark a backfill as bulk work. Only call this before publishing.
+     */
+    public void setPriority(EventPriority priority) {
+        this.priority = priority != null ? priority : defaultPriority();
+    }
+    
+    /**
+     * Priority class of events of this type unless the publisher chose another one
+     */
+    protected EventPriority defaultPriority() {
+        return EventPriority.NORMAL;
+    }
+    
+    /**
+     * Schema version written to binary payload headers. Subclasses bump it when
+     * their serialized form changes so listeners can tell old and new payloads apart.
+     */
+    @JsonIgnore
+    public int getSchemaVersion() {
+        return 2;
+    }
+    
     @Override
     public String toString() {
         return "BaseEvent{" +
                 "eventId='" + eventId + '\'' +
                 ", timestamp=" + timestamp +
                 ", eventType='" + eventType + '\'' +
+                ", priority=" + priority +
                 '}';
     }
 } 
\ No newline at end of file
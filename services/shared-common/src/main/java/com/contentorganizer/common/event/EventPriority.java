@@ -0,0 +1,20 @@
+package com.contentorganizer.common.event;
+
+import com.fasterxml.jackson.annotation.JsonEnumDefaultValue;
+
+/**
+ * Priority class of an event. Listeners with priority lanes handle every class on its own
+ * threads and queue, so bulk work cannot delay deadline-bound work.
+ */
+public enum EventPriority {
+    
+    /** Work with a deadline, e.g. uploading a video for a scheduled premiere */
+    HIGH,
+    
+    /** Regular pipeline work */
+    @JsonEnumDefaultValue
+    NORMAL,
+    
+    /** Backfills and nightly jobs that may wait */
+    BULK
+}
@@ -0,0 +1,48 @@
+package com.contentorganizer.common.event;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+
+/**
+ * Reads event timestamps written in any format used so far: UTC instants
+ * ({@code 2024-05-01T10:15:30.123Z}), timestamps with an offset, epoch milliseconds, and the
+ * zone-less local date-times of older events ({@code 2024-05-01T10:15:30}), which are taken
+ * to be in the system default zone of the reading host.
+ */
+public class EventTimestampDeserializer extends StdDeserializer<Instant> {
+    
+    public EventTimestampDeserializer() {
+        super(Instant.class);
+    }
+    
+    @Override
+    public Instant deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return Instant.ofEpochMilli(parser.getLongValue());
+        }
+        String text = parser.getValueAsString();
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        try {
+            TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(text.trim(), OffsetDateTime::from, LocalDateTime::from);
+            if (parsed instanceof OffsetDateTime) {
+                return ((OffsetDateTime) parsed).toInstant();
+            }
+            return ((LocalDateTime) parsed).atZone(ZoneId.systemDefault()).toInstant();
+        } catch (DateTimeParseException e) {
+            return (Instant) context.handleWeirdStringValue(Instant.class, text, "Not an event timestamp: %s", e.getMessage());
+        }
+    }
+}
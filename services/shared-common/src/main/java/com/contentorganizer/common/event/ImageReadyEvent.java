@@ -3,13 +3,13 @@ package com.contentorganizer.common.event;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
 import java.util.List;
 
 /**
  * Event triggered when images are ready for video creation
  */
-public class ImageReadyEvent extends BaseEvent {
+public class ImageReadyEvent extends BaseEvent implements ProjectEvent {
     
     @JsonProperty("projectId")
     private final String projectId;
@@ -34,7 +34,7 @@ public class ImageReadyEvent extends BaseEvent {
     @JsonCreator
     public ImageReadyEvent(
             @JsonProperty("eventId") String eventId,
-            @JsonProperty("timestamp") LocalDateTime timestamp,
+            @JsonProperty("timestamp") Instant timestamp,
             @JsonProperty("eventType") String eventType,
             @JsonProperty("projectId") String projectId,
             @JsonProperty("imageIds") List<String> imageIds,
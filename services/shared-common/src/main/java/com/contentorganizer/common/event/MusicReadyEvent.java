@@ -3,12 +3,12 @@ package com.contentorganizer.common.event;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
 
 /**
  * Event triggered when music is ready for video creation
  */
-public class MusicReadyEvent extends BaseEvent {
+public class MusicReadyEvent extends BaseEvent implements ProjectEvent {
     
     @JsonProperty("projectId")
     private final String projectId;
@@ -37,7 +37,7 @@ public class MusicReadyEvent extends BaseEvent {
     @JsonCreator
     public MusicReadyEvent(
             @JsonProperty("eventId") String eventId,
-            @JsonProperty("timestamp") LocalDateTime timestamp,
+            @JsonProperty("timestamp") Instant timestamp,
             @JsonProperty("eventType") String eventType,
             @JsonProperty("projectId") String projectId,
             @JsonProperty("musicId") String musicId,
@@ -0,0 +1,12 @@
+package com.contentorganizer.common.event;
+
+/**
+ * Event that belongs to a single video project
+ */
+public interface ProjectEvent {
+    
+    /**
+     * @return The project the event belongs to
+     */
+    String getProjectId();
+}
@@ -3,13 +3,13 @@ package com.contentorganizer.common.event;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
 import java.util.List;
 
 /**
  * Event triggered when SEO optimization is ready
  */
-public class SEOReadyEvent extends BaseEvent {
+public class SEOReadyEvent extends BaseEvent implements ProjectEvent {
     
     @JsonProperty("projectId")
     private final String projectId;
@@ -43,7 +43,7 @@ public class SEOReadyEvent extends BaseEvent {
     @JsonCreator
     public SEOReadyEvent(
             @JsonProperty("eventId") String eventId,
-            @JsonProperty("timestamp") LocalDateTime timestamp,
+            @JsonProperty("timestamp") Instant timestamp,
             @JsonProperty("eventType") String eventType,
             @JsonProperty("projectId") String projectId,
             @JsonProperty("optimizedTitle") String optimizedTitle,
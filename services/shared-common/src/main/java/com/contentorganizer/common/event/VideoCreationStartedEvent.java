@@ -3,12 +3,12 @@ package com.contentorganizer.common.event;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
 
 /**
  * Event triggered when video creation process starts
  */
-public class VideoCreationStartedEvent extends BaseEvent {
+public class VideoCreationStartedEvent extends BaseEvent implements ProjectEvent {
     
     @JsonProperty("projectId")
     private final String projectId;
@@ -33,7 +33,7 @@ public class VideoCreationStartedEvent extends BaseEvent {
     @JsonCreator
     public VideoCreationStartedEvent(
             @JsonProperty("eventId") String eventId,
-            @JsonProperty("timestamp") LocalDateTime timestamp,
+            @JsonProperty("timestamp") Instant timestamp,
             @JsonProperty("eventType") String eventType,
             @JsonProperty("projectId") String projectId,
             @JsonProperty("title") String title,
@@ -3,12 +3,13 @@ package com.contentorganizer.common.event;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
 
 /**
  * Event triggered when video is published to YouTube
  */
-public class VideoPublishedEvent extends BaseEvent {
+public class VideoPublishedEvent extends BaseEvent implements ProjectEvent {
     
     @JsonProperty("projectId")
     private final String projectId;
@@ -37,7 +38,7 @@ public class VideoPublishedEvent extends BaseEvent {
     @JsonCreator
     public VideoPublishedEvent(
             @JsonProperty("eventId") String eventId,
-            @JsonProperty("timestamp") LocalDateTime timestamp,
+            @JsonProperty("timestamp") Instant timestamp,
             @JsonProperty("eventType") String eventType,
             @JsonProperty("projectId") String projectId,
             @JsonProperty("youtubeVideoId") String youtubeVideoId,
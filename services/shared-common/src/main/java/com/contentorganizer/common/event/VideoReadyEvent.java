@@ -3,12 +3,12 @@ package com.contentorganizer.common.event;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
 
 /**
  * Event triggered when video is ready for publication
  */
-public class VideoReadyEvent extends BaseEvent {
+public class VideoReadyEvent extends BaseEvent implements ProjectEvent {
     
     @JsonProperty("projectId")
     private final String projectId;
@@ -37,7 +37,7 @@ public class VideoReadyEvent extends BaseEvent {
     @JsonCreator
     public VideoReadyEvent(
             @JsonProperty("eventId") String eventId,
-            @JsonProperty("timestamp") LocalDateTime timestamp,
+            @JsonProperty("timestamp") Instant timestamp,
             @JsonProperty("eventType") String eventType,
             @JsonProperty("projectId") String projectId,
             @JsonProperty("videoId") String videoId,
@@ -72,6 +72,14 @@ public class VideoReadyEvent extends BaseEvent {
         return resolution;
     }
     
+    /**
+     * Uploads have deadlines (scheduled premieres), so they go ahead of asset generation
+     */
+    @Override
+    protected EventPriority defaultPriority() {
+        return EventPriority.HIGH;
+    }
+    
     @Override
     public String toString() {
         return "VideoReadyEvent{" +
@@ -0,0 +1,227 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.BaseEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps large event payloads out of the transport (claim-check pattern).
+ * <p>
+ * When a serialized event exceeds the threshold, every top-level field whose JSON is larger
+ * than the threshold is compressed with LZ4, stored once in Redis with a TTL and replaced in the
+ * published event by a reference {@code {"$claim": "<key>", "size": <bytes>}}. Consumers load
+ * the referenced fields with a single MGET when the event is deserialized; events without
+ * references are not touched.
+ */
+public class ClaimCheck {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ClaimCheck.class);
+    
+    static final String REFERENCE_FIELD = "$claim";
+    
+    private static final byte[] REFERENCE_MARKER = REFERENCE_FIELD.getBytes(StandardCharsets.UTF_8);
+    
+    /** Fields every consumer needs without loading anything */
+    private static final Set<String> INLINE_FIELDS = Set.of("eventId", "timestamp", "eventType", "projectId");
+    
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+    
+    private final RedisTemplate<String, String> redisTemplate;
+    private final int threshold;
+    private final Duration ttl;
+    private final String keyPrefix;
+    private final LZ4Compressor compressor = LZ4.fastCompressor();
+    private final LZ4FastDecompressor decompressor = LZ4.fastDecompressor();
+    
+    /**
+     * @param redisTemplate The Redis template
+     * @param threshold Size in bytes above which an event field is offloaded
+     * @param ttl How long offloaded fields are kept; must cover retries and consumer downtime
+     * @param keyPrefix Prefix of the Redis keys holding the offloaded fields
+     */
+    public ClaimCheck(RedisTemplate<String, String> redisTemplate, int threshold, Duration ttl, String keyPrefix) {
+        this.redisTemplate = redisTemplate;
+        this.threshold = threshold;
+        this.ttl = ttl;
+        this.keyPrefix = keyPrefix;
+    }
+    
+    /**
+     * Offload the large fields of a serialized event
+     * 
+     * @param codec The codec the event was serialized with
+     * @param event The event
+     * @param payload The serialized event
+     * @return The payload with references to the offloaded fields, or the given payload if nothing was offloaded
+     */
+    public byte[] offload(EventCodec codec, BaseEvent event, byte[] payload) throws IOException {
+        if (payload.length <= threshold || !(codec instanceof JacksonEventCodec)) {
+            return payload;
+        }
+        ObjectMapper objectMapper = EventCodecs.objectMapper();
+        ObjectNode tree = objectMapper.valueToTree(event);
+        Map<String, byte[]> values = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = tree.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (INLINE_FIELDS.contains(field.getKey()) || !field.getValue().isContainerNode() && !field.getValue().isTextual()) {
+                continue;
+            }
+            byte[] json = objectMapper.writeValueAsBytes(field.getValue());
+            if (json.length <= threshold) {
+                continue;
+            }
+            // the hash tag keeps all fields of an event in one cluster slot, for the MGET
+            String key = keyPrefix + "{" + event.getEventId() + "}:" + field.getKey();
+            values.put(key, compress(json));
+            ObjectNode reference = objectMapper.createObjectNode();
+            reference.put(REFERENCE_FIELD, key);
+            reference.put("size", json.length);
+            field.setValue(reference);
+        }
+        if (values.isEmpty()) {
+            return payload;
+        }
+        
+        Expiration expiration = Expiration.from(ttl);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> connection.stringCommands().set(
+                    key.getBytes(StandardCharsets.UTF_8), value, expiration, SetOption.upsert()));
+            return null;
+        });
+        byte[] reduced = EventCodecs.encode((JacksonEventCodec) codec, event, tree);
+        logger.debug("Offloaded {} field(s) of event {}: {} -> {} bytes", values.size(), event.getEventId(),
+                payload.length, reduced.length);
+        return reduced;
+    }
+    
+    /**
+     * Decode an event, loading its offloaded fields
+     * 
+     * @param envelope The received payload
+     * @param eventClass The event class
+     * @return The complete event
+     */
+    public <T extends BaseEvent> T decode(EventEnvelope envelope, Class<T> eventClass) throws IOException {
+        if (!mayContainReferences(envelope.getPayload())) {
+            return envelope.decode(eventClass);
+        }
+        JsonNode tree = envelope.readTree();
+        resolve(tree);
+        return EventCodecs.objectMapper().treeToValue(tree, eventClass);
+    }
+    
+    /**
+     * Replace the references in an event tree by the offloaded fields, loaded in one round trip
+     * 
+     * @param tree The event content
+     * @throws IllegalStateException if an offloaded field expired
+     */
+    public void resolve(JsonNode tree) throws IOException {
+        List<Map.Entry<String, JsonNode>> references = new ArrayList<>();
+        tree.fields().forEachRemaining(field -> {
+            if (isReference(field.getValue())) {
+                references.add(field);
+            }
+        });
+        if (references.isEmpty()) {
+            return;
+        }
+        byte[][] keys = new byte[references.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = references.get(i).getValue().get(REFERENCE_FIELD).asText().getBytes(StandardCharsets.UTF_8);
+        }
+        List<byte[]> values = redisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.stringCommands().mGet(keys));
+        for (int i = 0; i < keys.length; i++) {
+            byte[] value = values != null ? values.get(i) : null;
+            if (value == null) {
+                throw new IllegalStateException("Offloaded event field expired or missing: "
+                        + new String(keys[i], StandardCharsets.UTF_8));
+            }
+            references.get(i).setValue(EventCodecs.objectMapper().readTree(decompress(value)));
+        }
+    }
+    
+    /**
+     * Replace references by {@code null}, for reading an event's metadata without loading its fields
+     */
+    public static void stripReferences(JsonNode tree) {
+        tree.fields().forEachRemaining(field -> {
+            if (isReference(field.getValue())) {
+                field.setValue(NullNode.getInstance());
+            }
+        });
+    }
+    
+    /**
+     * Whether a field value is a reference to an offloaded field
+     */
+    public static boolean isReference(JsonNode value) {
+        return value != null && value.isObject() && value.has(REFERENCE_FIELD);
+    }
+    
+    /**
+     * Quick scan for the reference marker, so events without references are decoded as usual
+     * 
+     * @return {@code false} if the payload certainly contains no reference
+     */
+    public static boolean mayContainReferences(byte[] payload) {
+        int last = payload.length - REFERENCE_MARKER.length;
+        outer:
+        for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < REFERENCE_MARKER.length; j++) {
+                if (payload[i + j] != REFERENCE_MARKER[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+    
+    public int getThreshold() {
+        return threshold;
+    }
+    
+    /**
+     * LZ4 block prefixed with the uncompressed length
+     */
+    private byte[] compress(byte[] data) {
+        byte[] compressed = new byte[4 + compressor.maxCompressedLength(data.length)];
+        int length = compressor.compress(data, 0, data.length, compressed, 4, compressed.length - 4);
+        ByteBuffer.wrap(compressed).putInt(data.length);
+        byte[] result = new byte[4 + length];
+        System.arraycopy(compressed, 0, result, 0, result.length);
+        return result;
+    }
+    
+    private byte[] decompress(byte[] data) {
+        int length = ByteBuffer.wrap(data).getInt();
+        byte[] result = new byte[length];
+        decompressor.decompress(data, 4, result, 0, length);
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+package com.contentorganizer.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Publishes how far this consumer is behind on each of its channels, so that publishers can
+ * throttle before the backlog grows without bounds (see {@link EventBackpressure}).
+ * <p>
+ * Every {@code interval} the backlog of each subscribed channel is written to the hash
+ * {@code events:backlog:<channel>}, under the field {@code <group>/<consumer>}, as
+ * {@code <backlog>/<maxBacklog>@<epoch millis>}. The backlog is taken from the transport where
+ * it queues events (the consumer group's lag and pending events on streams), otherwise it is the
+ * number of events the listeners received but did not finish handling. {@code maxBacklog} is
+ * this consumer's own limit, so a slow consumer can ask for less than a fast one.
+ */
+public class EventBacklogReporter implements SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EventBacklogReporter.class);
+    
+    private final RedisTemplate<String, String> redisTemplate;
+    private final EventTransport eventTransport;
+    private final ObjectProvider<EventListener> eventListeners;
+    private final String field;
+    private final long maxBacklog;
+    
+    private String keyPrefix = "events:backlog:";
+    private Duration interval = Duration.ofSeconds(1);
+    private volatile Map<String, Long> lastReported = Map.of();
+    
+    private volatile boolean running;
+    private Thread reporterThread;
+    
+    /**
+     * @param redisTemplate The Redis template
+     * @param eventTransport The transport the listeners are subscribed with
+     * @param eventListeners The listeners whose channels are reported
+     * @param group The consumer group, i.e. the service
+     * @param consumer The consumer within the group, i.e. the replica
+     * @param maxBacklog Backlog per channel above which publishers are throttled
+     */
+    public EventBacklogReporter(RedisTemplate<String, String> redisTemplate, EventTransport eventTransport,
+                                ObjectProvider<EventListener> eventListeners, String group, String consumer,
+                                long maxBacklog) {
+        this.redisTemplate = redisTemplate;
+        this.eventTransport = eventTransport;
+        this.eventListeners = eventListeners;
+        this.field = group + "/" + consumer;
+        this.maxBacklog = maxBacklog;
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        reporterThread = new Thread(this::reportLoop, "event-backlog-reporter");
+        reporterThread.setDaemon(true);
+        reporterThread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (reporterThread != null) {
+            reporterThread.interrupt();
+            reporterThread = null;
+        }
+        // a stopped consumer must not keep throttling publishers with its last backlog
+        try {
+            lastReported.keySet().forEach(channel -> redisTemplate.opsForHash().delete(keyPrefix + channel, field));
+        } catch (RuntimeException e) {
+            logger.debug("Could not remove the reported backlog of {}", field, e);
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Measure and publish the backlog of every subscribed channel
+     * 
+     * @return The backlog per channel
+     */
+    public Map<String, Long> report() {
+        Map<String, Long> backlogs = new TreeMap<>();
+        eventListeners.orderedStream().forEach(listener -> listener.getChannels().forEach(channel -> {
+            long inFlight = listener.getInFlight(channel);
+            backlogs.merge(channel, inFlight, Long::sum);
+        }));
+        backlogs.replaceAll((channel, inFlight) -> {
+            long queued = eventTransport.getBacklog(channel);
+            return queued >= 0 ? queued : inFlight;
+        });
+        
+        String reportedAt = "@" + System.currentTimeMillis();
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> redisOperations) {
+                RedisOperations<String, String> operations = (RedisOperations<String, String>) redisOperations;
+                backlogs.forEach((channel, backlog) -> {
+                    String key = keyPrefix + channel;
+                    operations.opsForHash().put(key, field, backlog + "/" + maxBacklog + reportedAt);
+                    // channels nobody consumes any more disappear on their own
+                    operations.expire(key, interval.multipliedBy(60));
+                });
+                return null;
+            }
+        });
+        lastReported = backlogs;
+        return backlogs;
+    }
+    
+    /**
+     * The backlog per channel as of the last report
+     */
+    public Map<String, Long> getLastReported() {
+        return lastReported;
+    }
+    
+    public long getMaxBacklog() {
+        return maxBacklog;
+    }
+    
+    private void reportLoop() {
+        while (running) {
+            try {
+                report();
+                Thread.sleep(interval.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.warn("Failed to report the event backlog, retrying in {}", interval, e);
+                sleepQuietly(interval);
+            }
+        }
+    }
+    
+    private static void sleepQuietly(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+    
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+}
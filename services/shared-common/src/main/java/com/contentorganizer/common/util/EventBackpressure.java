@@ -0,0 +1,206 @@
+package com.contentorganizer.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Throttles publishing to channels whose consumers fall behind.
+ * <p>
+ * Consumers publish their backlog and their limit per channel through {@link EventBacklogReporter}.
+ * Before an event is published, the reported backlogs of its channel are checked (read from Redis
+ * at most once per {@code refreshInterval}); when any consumer is above its limit the publisher
+ * either waits until the backlog drops ({@link Mode#WAIT}, for at most {@code maxWait}) or fails
+ * at once ({@link Mode#REJECT}) with an {@link EventBackpressureException}. This keeps the queue
+ * of every stage bounded instead of letting it grow until a consumer runs out of memory.
+ * Reports older than {@code staleAfter} are ignored, so a crashed consumer does not block
+ * publishers forever.
+ */
+public class EventBackpressure {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EventBackpressure.class);
+    
+    /**
+     * What a publisher does when downstream consumers are over their limit
+     */
+    public enum Mode {
+        /** Block the publishing thread until the backlog drops, then fail after {@code maxWait} */
+        WAIT,
+        /** Fail immediately, e.g. so that a REST caller gets an error it can retry */
+        REJECT
+    }
+    
+    private final RedisTemplate<String, String> redisTemplate;
+    private final Map<String, ChannelPressure> channels = new ConcurrentHashMap<>();
+    
+    private Mode mode = Mode.WAIT;
+    private String keyPrefix = "events:backlog:";
+    private Duration maxWait = Duration.ofSeconds(30);
+    private Duration refreshInterval = Duration.ofMillis(500);
+    private Duration staleAfter = Duration.ofSeconds(5);
+    
+    public EventBackpressure(RedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+    
+    /**
+     * Wait until the consumers of a channel have room for another event
+     * 
+     * @param channelName The channel about to be published to
+     * @throws EventBackpressureException if the consumers are still over their limit (at once in
+     *         {@link Mode#REJECT}, after {@code maxWait} in {@link Mode#WAIT})
+     */
+    public void acquire(String channelName) {
+        ChannelPressure pressure = pressure(channelName);
+        if (!pressure.isThrottled()) {
+            return;
+        }
+        if (mode == Mode.REJECT) {
+            throw new EventBackpressureException(channelName, pressure.backlog, pressure.maxBacklog);
+        }
+        
+        logger.debug("Waiting for the consumers of '{}' to catch up: backlog {} > {}", channelName,
+                pressure.backlog, pressure.maxBacklog);
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        while (pressure.isThrottled()) {
+            if (System.nanoTime() - deadline >= 0) {
+                throw new EventBackpressureException(channelName, pressure.backlog, pressure.maxBacklog);
+            }
+            try {
+                Thread.sleep(refreshInterval.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EventBackpressureException(channelName, pressure.backlog, pressure.maxBacklog);
+            }
+            pressure = pressure(channelName);
+        }
+    }
+    
+    /**
+     * Whether publishing to a channel is currently throttled
+     * 
+     * @param channelName The channel name
+     */
+    public boolean isThrottled(String channelName) {
+        return pressure(channelName).isThrottled();
+    }
+    
+    /**
+     * State of every channel published to so far, as last read: the backlog of the consumer
+     * furthest over its limit, that limit and whether publishing is throttled
+     * 
+     * @return Channel name to its state
+     */
+    public Map<String, Map<String, Object>> getChannels() {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        channels.forEach((channel, pressure) -> {
+            Map<String, Object> state = new LinkedHashMap<>();
+            state.put("backlog", pressure.backlog);
+            state.put("maxBacklog", pressure.maxBacklog);
+            state.put("throttled", pressure.isThrottled());
+            result.put(channel, state);
+        });
+        return result;
+    }
+    
+    private ChannelPressure pressure(String channelName) {
+        ChannelPressure pressure = channels.get(channelName);
+        long now = System.currentTimeMillis();
+        if (pressure != null && now - pressure.readAt < refreshInterval.toMillis()) {
+            return pressure;
+        }
+        pressure = read(channelName, now);
+        channels.put(channelName, pressure);
+        return pressure;
+    }
+    
+    /**
+     * Read the consumer reports of a channel and keep the one furthest over its limit
+     */
+    private ChannelPressure read(String channelName, long now) {
+        Map<Object, Object> reports;
+        try {
+            reports = redisTemplate.opsForHash().entries(keyPrefix + channelName);
+        } catch (RuntimeException e) {
+            // without reports nothing is throttled; publishing itself will fail if Redis is down
+            logger.debug("Could not read the backlog of channel '{}'", channelName, e);
+            return new ChannelPressure(0, 0, now);
+        }
+        long backlog = 0;
+        long maxBacklog = 0;
+        for (Map.Entry<Object, Object> report : reports.entrySet()) {
+            String value = String.valueOf(report.getValue());
+            int slash = value.indexOf('/');
+            int at = value.indexOf('@');
+            if (slash < 0 || at < slash) {
+                continue;
+            }
+            try {
+                long reportedAt = Long.parseLong(value.substring(at + 1));
+                if (now - reportedAt > staleAfter.toMillis()) {
+                    continue;
+                }
+                long reportedBacklog = Long.parseLong(value.substring(0, slash));
+                long reportedMax = Long.parseLong(value.substring(slash + 1, at));
+                if (reportedMax <= 0) {
+                    continue;
+                }
+                // compare fill ratios, since consumers may have different limits
+                if (maxBacklog == 0 || reportedBacklog * maxBacklog > backlog * reportedMax) {
+                    backlog = reportedBacklog;
+                    maxBacklog = reportedMax;
+                }
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring malformed backlog report '{}' of {}", value, report.getKey());
+            }
+        }
+        return new ChannelPressure(backlog, maxBacklog, now);
+    }
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+    
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+    
+    public void setMaxWait(Duration maxWait) {
+        this.maxWait = maxWait;
+    }
+    
+    public void setRefreshInterval(Duration refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+    
+    public void setStaleAfter(Duration staleAfter) {
+        this.staleAfter = staleAfter;
+    }
+    
+    private static final class ChannelPressure {
+        
+        final long backlog;
+        final long maxBacklog;
+        final long readAt;
+        
+        ChannelPressure(long backlog, long maxBacklog, long readAt) {
+            this.backlog = backlog;
+            this.maxBacklog = maxBacklog;
+            this.readAt = readAt;
+        }
+        
+        boolean isThrottled() {
+            return maxBacklog > 0 && backlog > maxBacklog;
+        }
+    }
+}
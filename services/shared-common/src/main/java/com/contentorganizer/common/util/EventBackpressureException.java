@@ -0,0 +1,31 @@
+package com.contentorganizer.common.util;
+
+/**
+ * Thrown by {@link EventPublisher} when the consumers of a channel are too far behind to accept
+ * another event. Nothing was published; the caller may retry later or report the overload.
+ */
+public class EventBackpressureException extends RuntimeException {
+    
+    private final String channelName;
+    private final long backlog;
+    private final long maxBacklog;
+    
+    public EventBackpressureException(String channelName, long backlog, long maxBacklog) {
+        super("Consumers of channel '" + channelName + "' are behind: backlog " + backlog + " exceeds " + maxBacklog);
+        this.channelName = channelName;
+        this.backlog = backlog;
+        this.maxBacklog = maxBacklog;
+    }
+    
+    public String getChannelName() {
+        return channelName;
+    }
+    
+    public long getBacklog() {
+        return backlog;
+    }
+    
+    public long getMaxBacklog() {
+        return maxBacklog;
+    }
+}
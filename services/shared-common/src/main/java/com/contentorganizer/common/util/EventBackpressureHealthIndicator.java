@@ -0,0 +1,40 @@
+package com.contentorganizer.common.util;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+
+import java.util.Map;
+
+/**
+ * Health of the event pipeline around this service: the backlog this service reports as a
+ * consumer and the backlog of the channels it publishes to.
+ * <p>
+ * The status is {@code THROTTLED} while publishing to any channel is throttled. It is not part of
+ * the default status order, so the overall health stays {@code UP}; add it to
+ * {@code management.endpoint.health.status.order} to take throttled instances out of rotation.
+ */
+public class EventBackpressureHealthIndicator implements HealthIndicator {
+    
+    public static final Status THROTTLED = new Status("THROTTLED", "Consumers of a published channel are behind");
+    
+    private final EventBackpressure backpressure;
+    private final EventBacklogReporter backlogReporter;
+    
+    public EventBackpressureHealthIndicator(EventBackpressure backpressure, EventBacklogReporter backlogReporter) {
+        this.backpressure = backpressure;
+        this.backlogReporter = backlogReporter;
+    }
+    
+    @Override
+    public Health health() {
+        Map<String, Map<String, Object>> published = backpressure.getChannels();
+        boolean throttled = published.values().stream().anyMatch(state -> Boolean.TRUE.equals(state.get("throttled")));
+        return Health.status(throttled ? THROTTLED : Status.UP)
+                .withDetail("mode", backpressure.getMode())
+                .withDetail("published", published)
+                .withDetail("consumed", backlogReporter.getLastReported())
+                .withDetail("maxBacklog", backlogReporter.getMaxBacklog())
+                .build();
+    }
+}
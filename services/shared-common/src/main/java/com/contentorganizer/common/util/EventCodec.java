@@ -0,0 +1,55 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.BaseEvent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serialization format for events on the wire.
+ * Codecs are registered in {@link EventCodecs} and identified in the payload header by {@link #getId()}.
+ */
+public interface EventCodec {
+    
+    /**
+     * Identifier written to the payload header, unique per codec
+     * 
+     * @return The codec identifier
+     */
+    byte getId();
+    
+    /**
+     * Name used to select the codec in configuration (events.codec)
+     * 
+     * @return The codec name
+     */
+    String getName();
+    
+    /**
+     * Serialize an event body
+     * 
+     * @param event The event to serialize
+     * @param out The stream the body is written to
+     */
+    void encode(BaseEvent event, OutputStream out) throws IOException;
+    
+    /**
+     * Deserialize an event body
+     * 
+     * @param data The buffer holding the body
+     * @param offset Start of the body in the buffer
+     * @param length Length of the body
+     * @param eventClass The event class type
+     * @return The deserialized event object
+     */
+    <T extends BaseEvent> T decode(byte[] data, int offset, int length, Class<T> eventClass) throws IOException;
+    
+    /**
+     * Prepare decoding of an event class ahead of the first event, e.g. by building
+     * and caching a reader for it
+     * 
+     * @param eventClass The event class type
+     */
+    default void prepare(Class<? extends BaseEvent> eventClass) {
+    }
+}
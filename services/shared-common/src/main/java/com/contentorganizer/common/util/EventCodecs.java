@@ -0,0 +1,154 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.BaseEvent;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of event codecs and writer of the event payload format.
+ * <p>
+ * JSON payloads are written as plain JSON, exactly as before codecs existed, so they stay
+ * readable by older listeners and Redis tools. Every other codec prefixes the body with a
+ * small header that listeners use to pick the codec and the event class:
+ * <pre>
+ * [0xC0 magic][codec id][schema version][type length][event type (UTF-8)][body]
+ * </pre>
+ * The magic byte can never start a JSON document, which makes headerless JSON the fallback.
+ */
+public final class EventCodecs {
+    
+    public static final byte HEADER_MAGIC = (byte) 0xC0;
+    
+    public static final JacksonEventCodec JSON = new JacksonEventCodec((byte) 1, "json", configure(new ObjectMapper()));
+    
+    public static final JacksonEventCodec SMILE = new JacksonEventCodec((byte) 2, "smile", configure(new ObjectMapper(
+            SmileFactory.builder()
+                    .disable(SmileGenerator.Feature.WRITE_HEADER)
+                    .disable(SmileParser.Feature.REQUIRE_HEADER)
+                    .build())));
+    
+    private static final Map<Byte, EventCodec> BY_ID = new ConcurrentHashMap<>();
+    private static final Map<String, EventCodec> BY_NAME = new ConcurrentHashMap<>();
+    
+    static {
+        register(JSON);
+        register(SMILE);
+    }
+    
+    private EventCodecs() {
+    }
+    
+    /**
+     * Register an additional codec
+     * 
+     * @param codec The codec to register
+     */
+    public static void register(EventCodec codec) {
+        BY_ID.put(codec.getId(), codec);
+        BY_NAME.put(codec.getName().toLowerCase(), codec);
+    }
+    
+    /**
+     * Look up a codec by its configuration name
+     * 
+     * @param name The codec name
+     * @return The codec
+     * @throws IllegalArgumentException if no codec is registered under that name
+     */
+    public static EventCodec forName(String name) {
+        EventCodec codec = BY_NAME.get(name.toLowerCase());
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown event codec: " + name);
+        }
+        return codec;
+    }
+    
+    /**
+     * Shared JSON mapper for events, configured once for all publishers and listeners
+     * 
+     * @return The object mapper
+     */
+    public static ObjectMapper objectMapper() {
+        return JSON.getObjectMapper();
+    }
+    
+    /**
+     * Prepare every registered codec for decoding the given event class
+     * 
+     * @param eventClass The event class type
+     */
+    public static void prepare(Class<? extends BaseEvent> eventClass) {
+        BY_ID.values().forEach(codec -> codec.prepare(eventClass));
+    }
+    
+    static EventCodec forId(byte id) {
+        EventCodec codec = BY_ID.get(id);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown event codec id: " + id);
+        }
+        return codec;
+    }
+    
+    /**
+     * Serialize an event into a payload, with a header unless the codec is JSON
+     * 
+     * @param codec The codec to use
+     * @param event The event to serialize
+     * @return The payload
+     */
+    public static byte[] encode(EventCodec codec, BaseEvent event) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        writeHeader(out, codec, event);
+        codec.encode(event, out);
+        return out.toByteArray();
+    }
+    
+    /**
+     * Serialize an event that was converted to a JSON tree and modified, e.g. by {@link ClaimCheck}
+     * 
+     * @param codec The codec to use
+     * @param event The original event, for the header
+     * @param tree The event content to write
+     * @return The payload
+     */
+    static byte[] encode(JacksonEventCodec codec, BaseEvent event, JsonNode tree) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        writeHeader(out, codec, event);
+        codec.getObjectMapper().writeValue(out, tree);
+        return out.toByteArray();
+    }
+    
+    private static void writeHeader(ByteArrayOutputStream out, EventCodec codec, BaseEvent event) throws IOException {
+        if (codec == JSON) {
+            return;
+        }
+        byte[] eventType = event.getEventType().getBytes(StandardCharsets.UTF_8);
+        if (eventType.length > 255) {
+            throw new IllegalArgumentException("Event type too long for payload header: " + event.getEventType());
+        }
+        out.write(HEADER_MAGIC);
+        out.write(codec.getId());
+        out.write(event.getSchemaVersion());
+        out.write(eventType.length);
+        out.write(eventType);
+    }
+    
+    private static ObjectMapper configure(ObjectMapper objectMapper) {
+        objectMapper.registerModule(new JavaTimeModule());
+        // newer schema versions may add fields that older listeners do not know yet
+        objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        objectMapper.enable(DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_USING_DEFAULT_VALUE);
+        return objectMapper;
+    }
+}
@@ -0,0 +1,90 @@
+package com.contentorganizer.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint ({@code /actuator/eventdlq}) to inspect, replay and remove dead-lettered events
+ */
+@Endpoint(id = "eventdlq")
+public class EventDeadLetterEndpoint {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EventDeadLetterEndpoint.class);
+    
+    private final EventRetryScheduler retryScheduler;
+    
+    public EventDeadLetterEndpoint(EventRetryScheduler retryScheduler) {
+        this.retryScheduler = retryScheduler;
+    }
+    
+    /**
+     * Number of dead-lettered events per channel
+     */
+    @ReadOperation
+    public Map<String, Long> deadLetterCounts() {
+        return retryScheduler.getDeadLetterCounts();
+    }
+    
+    /**
+     * Dead-lettered events of a channel, oldest first
+     */
+    @ReadOperation
+    public List<Map<String, Object>> deadLetters(@Selector String channel, @Nullable Integer count) {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (FailedEvent failedEvent : retryScheduler.getDeadLetters(channel, count != null ? count : 20)) {
+            entries.add(describe(failedEvent));
+        }
+        return entries;
+    }
+    
+    /**
+     * Replay one dead-lettered event, or the oldest batch of a channel when no id is given
+     */
+    @WriteOperation
+    public Map<String, Object> replay(@Selector String channel, @Nullable String id) {
+        return Collections.singletonMap("replayed", retryScheduler.replay(channel, id));
+    }
+    
+    /**
+     * Remove one dead-lettered event, or all of a channel when no id is given
+     */
+    @DeleteOperation
+    public Map<String, Object> delete(@Selector String channel, @Nullable String id) {
+        return Collections.singletonMap("deleted", retryScheduler.delete(channel, id));
+    }
+    
+    private static Map<String, Object> describe(FailedEvent failedEvent) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("id", failedEvent.getId());
+        entry.put("listener", failedEvent.getListener());
+        entry.put("attempts", failedEvent.getAttempts());
+        entry.put("error", failedEvent.getError());
+        entry.put("failedAt", Instant.ofEpochMilli(failedEvent.getFailedAt()).toString());
+        if (failedEvent.getPayload() == null) {
+            return entry;
+        }
+        EventEnvelope envelope = EventEnvelope.read(failedEvent.getPayload());
+        entry.put("codec", envelope.getCodec().getName());
+        try {
+            // offloaded fields are shown as their claim-check references
+            entry.put("event", envelope.readTree());
+        } catch (Exception e) {
+            logger.debug("Could not decode dead letter {}", failedEvent.getId(), e);
+            entry.put("payloadSize", failedEvent.getPayload().length);
+        }
+        return entry;
+    }
+}
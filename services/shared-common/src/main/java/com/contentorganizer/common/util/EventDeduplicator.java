@@ -0,0 +1,240 @@
+package com.contentorganizer.common.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes event handling idempotent by {@link com.contentorganizer.common.event.BaseEvent#getEventId() eventId}.
+ * <p>
+ * Handled ids are remembered in a bounded local LRU with a TTL. Optionally a Redis key per
+ * (consumer group, eventId) set with SET NX and an expiry backs the local cache up, so replicas
+ * of a service do not handle the same event twice. While a handler runs the key is marked as
+ * processing with a short lease; it is marked done when the handler succeeds and removed when it
+ * fails, so a redelivery can try again. The lease is renewed every third of its length while the
+ * handler runs, so long handlers (renders, uploads) keep it; it only expires when the replica
+ * handling the event died or stalls for longer than the lease.
+ */
+public class EventDeduplicator {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EventDeduplicator.class);
+    
+    private static final String PROCESSING = "processing";
+    private static final String DONE = "done";
+    
+    // extends the lease only while the key still marks the event as processing
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end return 0",
+            Long.class);
+    
+    private final Map<String, Entry> seen;
+    private final Duration ttl;
+    private final Duration processingLease;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final String keyPrefix;
+    private final MeterRegistry meterRegistry;
+    private final AtomicLong duplicatesDropped = new AtomicLong();
+    // events whose handler runs on this replica, their leases are renewed
+    private final Set<String> processing = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService leaseRenewer;
+    
+    /**
+     * @param maxEntries Maximum number of event ids remembered locally
+     * @param ttl How long handled event ids are remembered
+     * @param processingLease How long an event may be marked as processing before another consumer may take it over
+     * @param redisTemplate Template for the shared Redis backstop, or {@code null} for local deduplication only
+     * @param keyPrefix Prefix of the Redis keys, should contain the consumer group
+     * @param meterRegistry Registry for the duplicate counter, or {@code null}
+     */
+    public EventDeduplicator(int maxEntries, Duration ttl, Duration processingLease,
+                             RedisTemplate<String, String> redisTemplate, String keyPrefix,
+                             MeterRegistry meterRegistry) {
+        this.seen = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.ttl = ttl;
+        this.processingLease = processingLease;
+        this.redisTemplate = redisTemplate;
+        this.keyPrefix = keyPrefix;
+        this.meterRegistry = meterRegistry;
+        long renewMillis = Math.max(1, processingLease.toMillis() / 3);
+        this.leaseRenewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-dedup-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.leaseRenewer.scheduleWithFixedDelay(this::renewLeases, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Run a handler unless the event was already handled
+     * 
+     * @param channelName The channel the event was received on
+     * @param eventId The event id
+     * @param handler The handler
+     * @throws IllegalStateException if another consumer is handling the same event right now
+     */
+    public void handleOnce(String channelName, String eventId, Runnable handler) {
+        String state = acquire(eventId);
+        if (DONE.equals(state)) {
+            duplicatesDropped.incrementAndGet();
+            if (meterRegistry != null) {
+                Counter.builder("events.duplicates.dropped")
+                        .description("Events dropped because their eventId was already handled")
+                        .tag("channel", channelName)
+                        .register(meterRegistry)
+                        .increment();
+            }
+            logger.debug("Dropping duplicate event {} from channel '{}'", eventId, channelName);
+            return;
+        }
+        if (PROCESSING.equals(state)) {
+            throw new IllegalStateException("Event " + eventId + " is being handled by another consumer");
+        }
+        
+        processing.add(eventId);
+        boolean handled = false;
+        try {
+            handler.run();
+            handled = true;
+        } finally {
+            processing.remove(eventId);
+            // also after an Error, so the lease is neither renewed nor left to expire
+            if (!handled) {
+                release(eventId);
+            }
+        }
+        complete(eventId);
+    }
+    
+    public long getDuplicatesDropped() {
+        return duplicatesDropped.get();
+    }
+    
+    /**
+     * Stop renewing leases
+     */
+    public void close() {
+        leaseRenewer.shutdownNow();
+    }
+    
+    /**
+     * Extend the processing lease of every event whose handler still runs
+     */
+    private void renewLeases() {
+        if (processing.isEmpty()) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + processingLease.toMillis();
+        String leaseMillis = String.valueOf(processingLease.toMillis());
+        for (String eventId : processing) {
+            synchronized (seen) {
+                Entry entry = seen.get(eventId);
+                if (entry != null && PROCESSING.equals(entry.state)) {
+                    seen.put(eventId, new Entry(PROCESSING, expiresAt));
+                }
+            }
+            if (redisTemplate == null) {
+                continue;
+            }
+            try {
+                Long renewed = redisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(keyPrefix + eventId),
+                        PROCESSING, leaseMillis);
+                if (renewed == null || renewed == 0) {
+                    logger.warn("Lost the processing lease of event {}, another consumer may handle it too", eventId);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to renew the processing lease of event {}", eventId, e);
+            }
+        }
+    }
+    
+    /**
+     * Mark an event as processing
+     * 
+     * @return {@code null} if the caller may handle the event, otherwise the state found
+     */
+    private String acquire(String eventId) {
+        long now = System.currentTimeMillis();
+        synchronized (seen) {
+            Entry entry = seen.get(eventId);
+            if (entry != null && entry.expiresAt > now) {
+                return entry.state;
+            }
+            seen.put(eventId, new Entry(PROCESSING, now + processingLease.toMillis()));
+        }
+        
+        if (redisTemplate == null) {
+            return null;
+        }
+        String key = keyPrefix + eventId;
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(key, PROCESSING, processingLease);
+        if (Boolean.TRUE.equals(acquired)) {
+            return null;
+        }
+        String state = redisTemplate.opsForValue().get(key);
+        if (state == null) {
+            // expired between SET NX and GET, try once more
+            return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, PROCESSING, processingLease)) ? null : PROCESSING;
+        }
+        synchronized (seen) {
+            if (DONE.equals(state)) {
+                seen.put(eventId, new Entry(DONE, now + ttl.toMillis()));
+            } else {
+                seen.remove(eventId);
+            }
+        }
+        return state;
+    }
+    
+    private void complete(String eventId) {
+        synchronized (seen) {
+            seen.put(eventId, new Entry(DONE, System.currentTimeMillis() + ttl.toMillis()));
+        }
+        if (redisTemplate != null) {
+            redisTemplate.opsForValue().set(keyPrefix + eventId, DONE, ttl);
+        }
+    }
+    
+    private void release(String eventId) {
+        synchronized (seen) {
+            seen.remove(eventId);
+        }
+        if (redisTemplate != null) {
+            try {
+                redisTemplate.delete(keyPrefix + eventId);
+            } catch (Exception e) {
+                logger.warn("Failed to release processing mark of event {}, it expires after {}", eventId, processingLease, e);
+            }
+        }
+    }
+    
+    private static final class Entry {
+        
+        private final String state;
+        private final long expiresAt;
+        
+        private Entry(String state, long expiresAt) {
+            this.state = state;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
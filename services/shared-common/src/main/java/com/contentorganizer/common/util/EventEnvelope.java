@@ -0,0 +1,94 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.BaseEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only view of a received event payload: the codec and event type taken from the
+ * header written by {@link EventCodecs#encode}, and the position of the body.
+ * Payloads without a header are plain JSON.
+ */
+public final class EventEnvelope {
+    
+    private final byte[] payload;
+    private final EventCodec codec;
+    private final String eventType;
+    private final int schemaVersion;
+    private final int bodyOffset;
+    
+    private EventEnvelope(byte[] payload, EventCodec codec, String eventType, int schemaVersion, int bodyOffset) {
+        this.payload = payload;
+        this.codec = codec;
+        this.eventType = eventType;
+        this.schemaVersion = schemaVersion;
+        this.bodyOffset = bodyOffset;
+    }
+    
+    /**
+     * Parse the header of a payload without decoding the body
+     * 
+     * @param payload The received payload
+     * @return The envelope
+     */
+    public static EventEnvelope read(byte[] payload) {
+        if (payload.length < 4 || payload[0] != EventCodecs.HEADER_MAGIC) {
+            return new EventEnvelope(payload, EventCodecs.JSON, null, 0, 0);
+        }
+        EventCodec codec = EventCodecs.forId(payload[1]);
+        int schemaVersion = payload[2] & 0xFF;
+        int typeLength = payload[3] & 0xFF;
+        String eventType = new String(payload, 4, typeLength, StandardCharsets.UTF_8);
+        return new EventEnvelope(payload, codec, eventType, schemaVersion, 4 + typeLength);
+    }
+    
+    /**
+     * Decode the body into the given event class
+     * 
+     * @param eventClass The event class type
+     * @return The deserialized event object
+     */
+    public <T extends BaseEvent> T decode(Class<T> eventClass) throws IOException {
+        return codec.decode(payload, bodyOffset, payload.length - bodyOffset, eventClass);
+    }
+    
+    /**
+     * Read the body as a JSON tree, without binding it to an event class
+     * 
+     * @return The event content
+     */
+    public JsonNode readTree() throws IOException {
+        if (codec instanceof JacksonEventCodec) {
+            return ((JacksonEventCodec) codec).getObjectMapper().readTree(payload, bodyOffset, payload.length - bodyOffset);
+        }
+        return EventCodecs.objectMapper().valueToTree(decode(EventTypes.forName(eventType)));
+    }
+    
+    /**
+     * Whether the payload is headerless JSON
+     */
+    public boolean isPlainJson() {
+        return eventType == null;
+    }
+    
+    public EventCodec getCodec() {
+        return codec;
+    }
+    
+    /**
+     * Event type from the header, {@code null} for plain JSON payloads
+     */
+    public String getEventType() {
+        return eventType;
+    }
+    
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+    
+    public byte[] getPayload() {
+        return payload;
+    }
+}
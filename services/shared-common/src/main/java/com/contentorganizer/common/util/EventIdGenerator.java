@@ -0,0 +1,15 @@
+package com.contentorganizer.common.util;
+
+/**
+ * Generates event ids
+ */
+public interface EventIdGenerator {
+    
+    /**
+     * Generate a new id
+     * 
+     * @param epochMillis The event timestamp; time-ordered generators embed it in the id
+     * @return The id
+     */
+    String generate(long epochMillis);
+}
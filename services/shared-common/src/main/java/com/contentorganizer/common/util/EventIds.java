@@ -0,0 +1,187 @@
+package com.contentorganizer.common.util;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Registry of event id generators and the one used for new events.
+ * <p>
+ * The time-ordered generators ({@link #UUID_V7}, {@link #ULID}) put the timestamp in the most
+ * significant bits, so ids sort by creation time, and are monotonic per thread: ids generated by
+ * one thread within the same millisecond count up instead of being random. Every thread keeps
+ * its own counter and uses {@link ThreadLocalRandom}, so generating an id takes no shared lock
+ * and does not touch the {@code SecureRandom} behind {@link UUID#randomUUID()}.
+ */
+public final class EventIds {
+    
+    /**
+     * RFC 9562 UUID version 7: 48-bit millisecond timestamp, 12-bit per-thread counter, 62 random bits
+     */
+    public static final EventIdGenerator UUID_V7 = new UuidV7Generator();
+    
+    /**
+     * ULID: 48-bit millisecond timestamp and 80 random bits in 26 Crockford base32 characters
+     */
+    public static final EventIdGenerator ULID = new UlidGenerator();
+    
+    /**
+     * Random UUID (version 4), as generated before time-ordered ids were introduced
+     */
+    public static final EventIdGenerator RANDOM_UUID = epochMillis -> UUID.randomUUID().toString();
+    
+    private static final char[] CROCKFORD = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    
+    private static final Map<String, EventIdGenerator> BY_NAME = new ConcurrentHashMap<>();
+    
+    private static volatile EventIdGenerator generator = UUID_V7;
+    
+    static {
+        register("uuidv7", UUID_V7);
+        register("ulid", ULID);
+        register("random", RANDOM_UUID);
+    }
+    
+    private EventIds() {
+    }
+    
+    /**
+     * Register an additional generator
+     * 
+     * @param name The configuration name
+     * @param idGenerator The generator
+     */
+    public static void register(String name, EventIdGenerator idGenerator) {
+        BY_NAME.put(name.toLowerCase(), idGenerator);
+    }
+    
+    /**
+     * Select the generator used for new events
+     * 
+     * @param name The configuration name, e.g. "uuidv7", "ulid" or "random"
+     * @throws IllegalArgumentException if no generator is registered under that name
+     */
+    public static void use(String name) {
+        EventIdGenerator idGenerator = BY_NAME.get(name.toLowerCase());
+        if (idGenerator == null) {
+            throw new IllegalArgumentException("Unknown event id generator: " + name);
+        }
+        generator = idGenerator;
+    }
+    
+    /**
+     * Generate an id for a new event
+     * 
+     * @param epochMillis The event timestamp
+     * @return The id
+     */
+    public static String next(long epochMillis) {
+        return generator.generate(epochMillis);
+    }
+    
+    /**
+     * Read the timestamp embedded in a time-ordered id
+     * 
+     * @param id A UUIDv7 or ULID
+     * @return The timestamp in epoch milliseconds, or -1 if the id carries none
+     */
+    public static long timestampOf(String id) {
+        if (id == null) {
+            return -1;
+        }
+        if (id.length() == 36 && id.charAt(14) == '7') {
+            return Long.parseLong(id.substring(0, 8) + id.substring(9, 13), 16);
+        }
+        if (id.length() == 26) {
+            long millis = 0;
+            for (int i = 0; i < 10; i++) {
+                int value = crockfordValue(id.charAt(i));
+                if (value < 0) {
+                    return -1;
+                }
+                millis = (millis << 5) | value;
+            }
+            return millis;
+        }
+        return -1;
+    }
+    
+    private static int crockfordValue(char c) {
+        char upper = Character.toUpperCase(c);
+        for (int i = 0; i < CROCKFORD.length; i++) {
+            if (CROCKFORD[i] == upper) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static final class UuidV7Generator implements EventIdGenerator {
+        
+        /** Per thread: last timestamp used and the counter within it */
+        private final ThreadLocal<long[]> state = ThreadLocal.withInitial(() -> new long[2]);
+        
+        @Override
+        public String generate(long epochMillis) {
+            long[] last = state.get();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long millis;
+            long counter;
+            if (epochMillis > last[0]) {
+                millis = epochMillis;
+                // random start with the top bit clear leaves at least 2048 increments per millisecond
+                counter = random.nextInt(1 << 11);
+            } else {
+                millis = last[0];
+                counter = last[1] + 1;
+                if (counter > 0xFFF) {
+                    // counter exhausted: borrow the next millisecond to stay monotonic
+                    millis++;
+                    counter = 0;
+                }
+            }
+            last[0] = millis;
+            last[1] = counter;
+            
+            long mostSignificant = (millis << 16) | 0x7000L | counter;
+            long leastSignificant = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+            return new UUID(mostSignificant, leastSignificant).toString();
+        }
+    }
+    
+    private static final class UlidGenerator implements EventIdGenerator {
+        
+        /** Per thread: last timestamp used and the 80 random bits (16 high, 64 low) */
+        private final ThreadLocal<long[]> state = ThreadLocal.withInitial(() -> new long[3]);
+        
+        @Override
+        public String generate(long epochMillis) {
+            long[] last = state.get();
+            if (epochMillis > last[0]) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                last[0] = epochMillis;
+                last[1] = random.nextInt(1 << 16);
+                last[2] = random.nextLong();
+            } else if (++last[2] == 0) {
+                last[1] = (last[1] + 1) & 0xFFFF;
+                if (last[1] == 0) {
+                    last[0]++;
+                }
+            }
+            
+            char[] chars = new char[26];
+            encode(last[0], chars, 0, 10);
+            encode((last[1] << 24) | (last[2] >>> 40), chars, 10, 8);
+            encode(last[2] & 0xFFFFFFFFFFL, chars, 18, 8);
+            return new String(chars);
+        }
+        
+        private static void encode(long value, char[] chars, int offset, int length) {
+            for (int i = offset + length - 1; i >= offset; i--) {
+                chars[i] = CROCKFORD[(int) (value & 31)];
+                value >>>= 5;
+            }
+        }
+    }
+}
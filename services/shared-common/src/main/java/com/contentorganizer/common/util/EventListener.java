@@ -1,52 +1,427 @@
 package com.contentorganizer.common.util;
 
 import com.contentorganizer.common.event.BaseEvent;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.contentorganizer.common.event.EventPriority;
+import com.contentorganizer.common.event.ProjectEvent;
+import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
 /**
- * Base class for event listeners
+ * Base class for event listeners.
+ * <p>
+ * Subclasses register typed handlers per channel with {@link #on(String, Class, Consumer)}; those
+ * events are decoded straight from the received bytes with a reader prepared for the event class.
+ * Channels without a typed handler are passed as JSON to {@link #handleEvent(String, String)}.
+ * <p>
+ * Handlers run on the receiving thread unless a {@link StripedExecutor} is set, in which case
+ * events of one project are handled in order on one lane and different projects in parallel.
+ * With {@link PriorityLanes} set, every {@link EventPriority} class has lanes of its own.
+ * <p>
+ * With an {@link EventDeduplicator} set, an event whose eventId was already handled is dropped.
+ * With an {@link EventRetryScheduler} set, failed events are retried later instead of being dropped.
+ * With a {@link ClaimCheck} set, fields offloaded by the publisher are loaded when the event is
+ * decoded; untyped handlers receive the references and load them in {@link #deserializeEvent}.
+ * With {@link ProjectPartitions} set, events of projects owned by another replica are skipped.
  */
 public abstract class EventListener implements MessageListener {
     
     private static final Logger logger = LoggerFactory.getLogger(EventListener.class);
     
-    private final ObjectMapper objectMapper;
+    private final Map<String, TypedHandler<?>> handlers = new ConcurrentHashMap<>();
     
-    protected EventListener() {
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule());
-    }
+    private final Map<String, AtomicLong> inFlight = new ConcurrentHashMap<>();
+    
+    private StripedExecutor dispatchExecutor;
+    
+    private PriorityLanes priorityLanes;
+    
+    private EventDeduplicator deduplicator;
+    
+    private EventRetryScheduler retryScheduler;
+    
+    private EventMetrics metrics;
+    
+    private ClaimCheck claimCheck;
+    
+    private ProjectPartitions partitions;
     
     @Override
     public void onMessage(Message message, byte[] pattern) {
+        String channelName = new String(message.getChannel(), StandardCharsets.UTF_8);
         try {
-            String eventJson = message.toString();
-            String channelName = new String(message.getChannel());
+            processEvent(channelName, message.getBody()).whenComplete((result, e) -> {
+                if (e != null) {
+                    logger.error("Failed to process event from channel: {}", channelName, e);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("Failed to process event from channel: {}", channelName, e);
+        }
+    }
+    
+    /**
+     * Run handlers on the lanes of a striped executor, keyed by projectId
+     * 
+     * @param dispatchExecutor The executor, or {@code null} to handle events on the receiving thread
+     */
+    public void setDispatchExecutor(StripedExecutor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
+    
+    /**
+     * Run handlers on the lanes of their event's priority class, keyed by projectId. Takes
+     * precedence over the dispatch executor.
+     * 
+     * @param priorityLanes The lanes, or {@code null} to handle all priorities alike
+     */
+    public void setPriorityLanes(PriorityLanes priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+    
+    /**
+     * Drop events whose eventId was already handled
+     * 
+     * @param deduplicator The deduplicator, or {@code null} to handle every delivery
+     */
+    public void setDeduplicator(EventDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+    
+    /**
+     * Retry failed events with backoff and dead-letter them after the last attempt
+     * 
+     * @param retryScheduler The retry scheduler, or {@code null} to only log failures
+     */
+    public void setRetryScheduler(EventRetryScheduler retryScheduler) {
+        this.retryScheduler = retryScheduler;
+    }
+    
+    /**
+     * Record lag, handler duration and failures of handled events
+     * 
+     * @param metrics The metrics, or {@code null} to disable them
+     */
+    public void setMetrics(EventMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Load event fields offloaded by the publisher
+     * 
+     * @param claimCheck The claim check, or {@code null} if events are published whole
+     */
+    public void setClaimCheck(ClaimCheck claimCheck) {
+        this.claimCheck = claimCheck;
+    }
+    
+    /**
+     * Only handle the events of projects in partitions this replica owns
+     * 
+     * @param partitions The partitions, or {@code null} to handle the events of all projects
+     */
+    public void setPartitions(ProjectPartitions partitions) {
+        this.partitions = partitions;
+    }
+    
+    /**
+     * Channels this listener is subscribed to on the configured {@link EventTransport}.
+     * Defaults to the channels with a registered typed handler.
+     * 
+     * @return The channel names
+     */
+    public Collection<String> getChannels() {
+        return Collections.unmodifiableSet(handlers.keySet());
+    }
+    
+    /**
+     * Number of events received on a channel whose handling has not finished, including events
+     * waiting in the lanes
+     * 
+     * @param channelName The channel name
+     */
+    public long getInFlight(String channelName) {
+        AtomicLong count = inFlight.get(channelName);
+        return count != null ? count.get() : 0;
+    }
+    
+    /**
+     * Register a typed handler for a channel
+     * 
+     * @param channelName The channel name
+     * @param eventClass The event class published on the channel
+     * @param handler The handler receiving decoded events
+     */
+    protected <T extends BaseEvent> void on(String channelName, Class<T> eventClass, Consumer<? super T> handler) {
+        EventCodecs.prepare(eventClass);
+        handlers.put(channelName, new TypedHandler<>(eventClass, handler));
+    }
+    
+    /**
+     * Register a typed handler for the channel named after the event class
+     * 
+     * @param eventClass The event class type
+     * @param handler The handler receiving decoded events
+     */
+    protected <T extends BaseEvent> void on(Class<T> eventClass, Consumer<? super T> handler) {
+        on(eventClass.getSimpleName(), eventClass, handler);
+    }
+    
+    /**
+     * Process a raw event received from a transport. Failures are reported through the returned
+     * future (or thrown directly) so that transports with delivery guarantees only acknowledge
+     * events that were handled.
+     * 
+     * @param channelName The channel name
+     * @param body The serialized event
+     * @return A future completed once the event was handled
+     */
+    CompletableFuture<Void> processEvent(String channelName, byte[] body) {
+        return processEvent(channelName, body, 0);
+    }
+    
+    /**
+     * Process an event that already failed {@code attempts} times. With a retry scheduler a
+     * failure schedules the next attempt and the future completes normally, so transports
+     * acknowledge the delivery; it only fails when the retry could not be scheduled.
+     */
+    CompletableFuture<Void> processEvent(String channelName, byte[] body, int attempts) {
+        if (retryScheduler == null) {
+            return track(channelName, () -> handle(channelName, body));
+        }
+        CompletableFuture<Void> result;
+        try {
+            result = track(channelName, () -> handle(channelName, body));
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return retryOnFailure(result, channelName, () -> body, attempts);
+    }
+    
+    /**
+     * Process an event object handed over by an in-process transport, without decoding.
+     * The event is only serialized when a failed attempt has to be scheduled for retry.
+     * 
+     * @param channelName The channel name
+     * @param event The event
+     * @return A future completed once the event was handled
+     */
+    CompletableFuture<Void> processEvent(String channelName, BaseEvent event) {
+        if (retryScheduler == null) {
+            return track(channelName, () -> handle(channelName, event));
+        }
+        CompletableFuture<Void> result;
+        try {
+            result = track(channelName, () -> handle(channelName, event));
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return retryOnFailure(result, channelName, () -> {
+            try {
+                return EventCodecs.encode(EventCodecs.JSON, event);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to serialize event for retry", e);
+            }
+        }, 0);
+    }
+    
+    /**
+     * Count the event as in flight until its handling completes
+     */
+    private CompletableFuture<Void> track(String channelName, Supplier<CompletableFuture<Void>> processing) {
+        AtomicLong count = inFlight.computeIfAbsent(channelName, channel -> new AtomicLong());
+        count.incrementAndGet();
+        CompletableFuture<Void> result;
+        try {
+            result = processing.get();
+        } catch (RuntimeException e) {
+            count.decrementAndGet();
+            throw e;
+        }
+        result.whenComplete((ignored, e) -> count.decrementAndGet());
+        return result;
+    }
+    
+    private CompletableFuture<Void> retryOnFailure(CompletableFuture<Void> result, String channelName,
+                                                   Supplier<byte[]> payload, int attempts) {
+        return result.exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            retryScheduler.retryLater(this, channelName, payload.get(), attempts + 1, cause);
+            return null;
+        });
+    }
+    
+    private CompletableFuture<Void> handle(String channelName, BaseEvent event) {
+        TypedHandler<?> handler = handlers.get(channelName);
+        if (handler != null) {
+            return handler.dispatch(channelName, event);
+        }
+        String eventJson;
+        try {
+            eventJson = EventCodecs.objectMapper().writeValueAsString(event);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize event", e);
+        }
+        return dispatch(channelName, event, event.getEventType(), laneKey(channelName, event),
+                () -> handleEvent(channelName, eventJson));
+    }
+    
+    private CompletableFuture<Void> handle(String channelName, byte[] body) {
+        EventEnvelope envelope = EventEnvelope.read(body);
+        TypedHandler<?> handler = handlers.get(channelName);
+        if (handler != null) {
+            logger.debug("Received {} event from channel '{}' ({} bytes)", envelope.getCodec().getName(), channelName, body.length);
+            return handler.dispatch(channelName, envelope);
+        }
+        
+        if (envelope.isPlainJson()) {
+            String eventJson = new String(body, StandardCharsets.UTF_8);
             
             logger.info("Received event from channel '{}': {}", channelName, eventJson);
             
-            handleEvent(channelName, eventJson);
-            
-        } catch (Exception e) {
-            logger.error("Failed to process event from channel: {}", new String(message.getChannel()), e);
+            BaseEvent event = peekEvent(envelope);
+            return dispatch(channelName, event, event != null ? event.getEventType() : null, laneKey(channelName, event),
+                    () -> handleEvent(channelName, eventJson));
         }
+        
+        logger.info("Received {} event from channel '{}' ({} v{}, {} bytes)", envelope.getCodec().getName(),
+                channelName, envelope.getEventType(), envelope.getSchemaVersion(), body.length);
+        
+        BaseEvent event = peekEvent(envelope);
+        return dispatch(channelName, event, envelope.getEventType(), laneKey(channelName, event),
+                () -> handleEvent(channelName, envelope));
     }
     
     /**
-     * Handle the received event
+     * The lane key of an event: its projectId, or the channel for events without one
+     */
+    private static Object laneKey(String channelName, BaseEvent event) {
+        String projectId = event instanceof ProjectEvent ? ((ProjectEvent) event).getProjectId() : null;
+        return projectId != null ? projectId : channelName;
+    }
+    
+    /**
+     * Run a handler inline, or on the lane of the given key when a dispatch executor or priority
+     * lanes are set. Events without a projectId are ordered per channel. The deduplication check
+     * runs on the lane as well, so redeliveries of one project's events are checked in order.
+     * 
+     * Events of projects in partitions this replica does not own are deferred until it is known
+     * whether their owner handled them, and handled here if this replica acquires the partition.
+     * 
+     * @param event The decoded event if known, used for partitioning, deduplication, lag and priority
+     */
+    private CompletableFuture<Void> dispatch(String channelName, BaseEvent event, String eventType, Object key, Runnable handler) {
+        if (partitions != null && event instanceof ProjectEvent) {
+            String projectId = ((ProjectEvent) event).getProjectId();
+            if (projectId != null && !partitions.owns(projectId)
+                    && partitions.defer(projectId, () -> replay(channelName, event, eventType, key, handler))) {
+                logger.debug("Deferring {} of project {} owned by another replica", eventType, projectId);
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        return submit(channelName, event, eventType, key, handler);
+    }
+    
+    /**
+     * Handle an event deferred by the partitions once this replica acquired its partition
+     */
+    private void replay(String channelName, BaseEvent event, String eventType, Object key, Runnable handler) {
+        logger.debug("Handling deferred {} {} of channel '{}'", eventType, event.getEventId(), channelName);
+        submit(channelName, event, eventType, key, handler).whenComplete((result, e) -> {
+            if (e != null) {
+                logger.error("Failed to handle deferred {} from channel '{}'", eventType, channelName, e);
+            }
+        });
+    }
+    
+    private CompletableFuture<Void> submit(String channelName, BaseEvent event, String eventType, Object key, Runnable handler) {
+        Runnable deduplicated = deduplicator == null || event == null || event.getEventId() == null
+                ? handler
+                : () -> deduplicator.handleOnce(channelName, event.getEventId(), handler);
+        Runnable task = metrics == null
+                ? deduplicated
+                : () -> {
+                    metrics.recordLag(channelName, eventType, event != null ? event.getTimestamp() : null);
+                    metrics.timeHandler(channelName, eventType, deduplicated);
+                };
+        if (priorityLanes != null) {
+            return priorityLanes.submit(event != null ? event.getPriority() : null, key, task);
+        }
+        if (dispatchExecutor == null) {
+            task.run();
+            return CompletableFuture.completedFuture(null);
+        }
+        return dispatchExecutor.submit(key, task);
+    }
+    
+    /**
+     * Decode an event going to an untyped handler for its projectId, eventId, timestamp and
+     * priority; only done when partitioning, deduplicating, recording metrics or dispatching on lanes
+     */
+    private BaseEvent peekEvent(EventEnvelope envelope) {
+        if (partitions == null && deduplicator == null && metrics == null && priorityLanes == null
+                && dispatchExecutor == null) {
+            return null;
+        }
+        try {
+            if (envelope.isPlainJson() || ClaimCheck.mayContainReferences(envelope.getPayload())) {
+                JsonNode tree = envelope.readTree();
+                // offloaded fields are not needed for the eventId and timestamp
+                ClaimCheck.stripReferences(tree);
+                String eventType = envelope.isPlainJson() ? tree.path("eventType").asText() : envelope.getEventType();
+                return EventCodecs.objectMapper().treeToValue(tree, EventTypes.forName(eventType));
+            }
+            return envelope.decode(EventTypes.forName(envelope.getEventType()));
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Could not decode {} event, handling it without deduplication and lag",
+                    envelope.getEventType() != null ? envelope.getEventType() : "JSON", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Handle an event received in a binary codec on a channel without a typed handler.
+     * The default implementation converts the event to JSON and calls {@link #handleEvent(String, String)};
+     * offloaded fields stay references until {@link #deserializeEvent} is called.
+     * 
+     * @param channelName The channel name
+     * @param envelope The received payload
+     */
+    protected void handleEvent(String channelName, EventEnvelope envelope) {
+        try {
+            handleEvent(channelName, EventCodecs.objectMapper().writeValueAsString(envelope.readTree()));
+        } catch (IOException e) {
+            logger.error("Failed to decode {} event from channel '{}'", envelope.getEventType(), channelName, e);
+            throw new RuntimeException("Failed to deserialize event", e);
+        }
+    }
+    
+    /**
+     * Handle the received event on a channel without a typed handler
      * 
      * @param channelName The channel name
      * @param eventJson The event JSON string
      */
-    protected abstract void handleEvent(String channelName, String eventJson);
+    protected void handleEvent(String channelName, String eventJson) {
+        logger.warn("No handler registered for channel '{}', dropping event", channelName);
+    }
     
     /**
-     * Deserialize event JSON to event object
+     * Deserialize event JSON to event object, loading offloaded fields
      * 
      * @param eventJson The event JSON string
      * @param eventClass The event class type
@@ -54,10 +429,50 @@ public abstract class EventListener implements MessageListener {
      */
     protected <T extends BaseEvent> T deserializeEvent(String eventJson, Class<T> eventClass) {
         try {
-            return objectMapper.readValue(eventJson, eventClass);
+            if (claimCheck != null && eventJson.contains(ClaimCheck.REFERENCE_FIELD)) {
+                JsonNode tree = EventCodecs.objectMapper().readTree(eventJson);
+                claimCheck.resolve(tree);
+                return EventCodecs.objectMapper().treeToValue(tree, eventClass);
+            }
+            return EventCodecs.objectMapper().readValue(eventJson, eventClass);
         } catch (Exception e) {
             logger.error("Failed to deserialize event: {}", eventJson, e);
             throw new RuntimeException("Failed to deserialize event", e);
         }
     }
-} 
\ No newline at end of file
+    
+    private final class TypedHandler<T extends BaseEvent> {
+        
+        private final Class<T> eventClass;
+        private final Consumer<? super T> handler;
+        
+        private TypedHandler(Class<T> eventClass, Consumer<? super T> handler) {
+            this.eventClass = eventClass;
+            this.handler = handler;
+        }
+        
+        private CompletableFuture<Void> dispatch(String channelName, EventEnvelope envelope) {
+            T event;
+            try {
+                event = claimCheck != null ? claimCheck.decode(envelope, eventClass) : envelope.decode(eventClass);
+            } catch (IOException e) {
+                logger.error("Failed to decode {} from channel '{}'", eventClass.getSimpleName(), channelName, e);
+                throw new RuntimeException("Failed to deserialize event", e);
+            }
+            return dispatchDecoded(channelName, event);
+        }
+        
+        private CompletableFuture<Void> dispatch(String channelName, BaseEvent event) {
+            if (eventClass.isInstance(event)) {
+                return dispatchDecoded(channelName, eventClass.cast(event));
+            }
+            // another class was published on this channel; convert it like a serialized event would be
+            return dispatchDecoded(channelName, EventCodecs.objectMapper().convertValue(event, eventClass));
+        }
+        
+        private CompletableFuture<Void> dispatchDecoded(String channelName, T event) {
+            return EventListener.this.dispatch(channelName, event, event.getEventType(),
+                    laneKey(channelName, event), () -> handler.accept(event));
+        }
+    }
+}
\ No newline at end of file
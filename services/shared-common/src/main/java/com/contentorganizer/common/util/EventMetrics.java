@@ -0,0 +1,184 @@
+package com.contentorganizer.common.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer instrumentation of event publishing and handling, tagged by channel and event type:
+ * <ul>
+ *   <li>{@code events.published} - events handed to the publisher</li>
+ *   <li>{@code events.payload.size} - serialized size in bytes</li>
+ *   <li>{@code events.publish.failures} - events whose sending to Redis failed, per attempt</li>
+ *   <li>{@code events.publish.dropped} - auto-batched events given up on shutdown</li>
+ *   <li>{@code events.lag} - time from the event timestamp until its handler starts</li>
+ *   <li>{@code events.handler.duration} - handler run time</li>
+ *   <li>{@code events.handler.failures} - failed handler runs, also tagged by exception</li>
+ * </ul>
+ * A high lag with short handler durations means events queue in Redis or in the listener lanes;
+ * long handler durations point at the handler itself.
+ */
+public class EventMetrics {
+    
+    private static final String UNKNOWN_TYPE = "unknown";
+    
+    private final MeterRegistry registry;
+    private final Map<String, Map<String, PublishMeters>> publishMeters = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, HandlerMeters>> handlerMeters = new ConcurrentHashMap<>();
+    
+    public EventMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+    
+    /**
+     * Record a published event
+     * 
+     * @param channelName The channel the event is published to
+     * @param eventType The event type
+     * @param size The serialized size in bytes
+     */
+    public void recordPublished(String channelName, String eventType, int size) {
+        PublishMeters meters = metersFor(publishMeters, channelName, eventType, PublishMeters::new);
+        meters.published.increment();
+        meters.payloadSize.record(size);
+    }
+    
+    /**
+     * Record an event published without serialization
+     * 
+     * @param channelName The channel the event is published to
+     * @param eventType The event type
+     */
+    public void recordPublished(String channelName, String eventType) {
+        metersFor(publishMeters, channelName, eventType, PublishMeters::new).published.increment();
+    }
+    
+    /**
+     * Record a failed attempt to send an event to Redis
+     * 
+     * @param channelName The channel the event is published to
+     */
+    public void recordPublishFailed(String channelName) {
+        Counter.builder("events.publish.failures")
+                .description("Events whose sending to Redis failed, per attempt")
+                .tag("channel", channelName)
+                .register(registry)
+                .increment();
+    }
+    
+    /**
+     * Record an auto-batched event that was given up without being sent
+     * 
+     * @param channelName The channel the event is published to
+     */
+    public void recordPublishDropped(String channelName) {
+        Counter.builder("events.publish.dropped")
+                .description("Auto-batched events given up on shutdown while Redis was unavailable")
+                .tag("channel", channelName)
+                .register(registry)
+                .increment();
+    }
+    
+    /**
+     * Record the time from an event's timestamp until now
+     * 
+     * @param channelName The channel the event was received on
+     * @param eventType The event type
+     * @param timestamp The event timestamp
+     */
+    public void recordLag(String channelName, String eventType, Instant timestamp) {
+        if (timestamp == null) {
+            return;
+        }
+        long lag = Duration.between(timestamp, Instant.now()).toMillis();
+        metersFor(handlerMeters, channelName, eventType, HandlerMeters::new).lag.record(Math.max(0, lag), TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Run a handler and record its duration and failure
+     * 
+     * @param channelName The channel the event was received on
+     * @param eventType The event type
+     * @param handler The handler
+     */
+    public void timeHandler(String channelName, String eventType, Runnable handler) {
+        HandlerMeters meters = metersFor(handlerMeters, channelName, eventType, HandlerMeters::new);
+        long start = System.nanoTime();
+        try {
+            handler.run();
+        } catch (RuntimeException e) {
+            Counter.builder("events.handler.failures")
+                    .description("Failed event handler runs")
+                    .tag("channel", channelName)
+                    .tag("eventType", eventType != null ? eventType : UNKNOWN_TYPE)
+                    .tag("exception", e.getClass().getSimpleName())
+                    .register(registry)
+                    .increment();
+            throw e;
+        } finally {
+            meters.handlerDuration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    /**
+     * Meters of a channel and event type, cached to skip the registry lookup per event
+     */
+    private <M> M metersFor(Map<String, Map<String, M>> cache, String channelName, String eventType, MeterFactory<M> factory) {
+        String type = eventType != null ? eventType : UNKNOWN_TYPE;
+        return cache.computeIfAbsent(channelName, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(type, k -> factory.create(registry, channelName, type));
+    }
+    
+    private interface MeterFactory<M> {
+        M create(MeterRegistry registry, String channelName, String eventType);
+    }
+    
+    private static final class PublishMeters {
+        
+        private final Counter published;
+        private final DistributionSummary payloadSize;
+        
+        private PublishMeters(MeterRegistry registry, String channelName, String eventType) {
+            this.published = Counter.builder("events.published")
+                    .description("Events handed to the publisher")
+                    .tag("channel", channelName)
+                    .tag("eventType", eventType)
+                    .register(registry);
+            this.payloadSize = DistributionSummary.builder("events.payload.size")
+                    .description("Serialized event size")
+                    .baseUnit("bytes")
+                    .tag("channel", channelName)
+                    .tag("eventType", eventType)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+    }
+    
+    private static final class HandlerMeters {
+        
+        private final Timer lag;
+        private final Timer handlerDuration;
+        
+        private HandlerMeters(MeterRegistry registry, String channelName, String eventType) {
+            this.lag = Timer.builder("events.lag")
+                    .description("Time from the event timestamp until its handler starts")
+                    .tag("channel", channelName)
+                    .tag("eventType", eventType)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            this.handlerDuration = Timer.builder("events.handler.duration")
+                    .description("Event handler run time")
+                    .tag("channel", channelName)
+                    .tag("eventType", eventType)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+    }
+}
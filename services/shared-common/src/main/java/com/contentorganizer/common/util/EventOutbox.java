@@ -0,0 +1,198 @@
+package com.contentorganizer.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Transactional outbox for events, stored in MongoDB.
+ * <p>
+ * {@link #append} inserts serialized events into the {@code event_outbox} collection through the
+ * {@link MongoTemplate}. Called within a transaction of the {@code MongoTransactionManager} that
+ * {@link com.contentorganizer.common.config.EventOutboxConfig} registers ({@code @Transactional}
+ * or a {@code TransactionTemplate}; MongoDB must run as a replica set), the events are committed
+ * together with the business data written in it, and the relay only sees them after the commit.
+ * Outside of a transaction each append is committed on its own.
+ * <p>
+ * A relay thread claims the oldest events in batches (a lease per relay, so replicas do not send
+ * the same event twice while they are alive), sends them with one
+ * {@link EventTransport#sendBatch} call and removes them. Events are delivered at least once:
+ * a relay crashing between sending and removing leaves its batch to be sent again after the
+ * lease expired.
+ */
+public class EventOutbox implements SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EventOutbox.class);
+    
+    private final MongoTemplate mongoTemplate;
+    private final EventTransport eventTransport;
+    private final String relayId = UUID.randomUUID().toString();
+    private final Semaphore wakeUp = new Semaphore(0);
+    
+    private int batchSize = 100;
+    private Duration pollInterval = Duration.ofSeconds(1);
+    private Duration lease = Duration.ofSeconds(30);
+    
+    private volatile boolean running;
+    private Thread relayThread;
+    
+    public EventOutbox(MongoTemplate mongoTemplate, EventTransport eventTransport) {
+        this.mongoTemplate = mongoTemplate;
+        this.eventTransport = eventTransport;
+    }
+    
+    /**
+     * Store an event for relaying
+     * 
+     * @param event The serialized event
+     */
+    public void append(SerializedEvent event) {
+        mongoTemplate.insert(new OutboxEvent(event));
+        wakeUp.release();
+    }
+    
+    /**
+     * Store several events for relaying, in order
+     * 
+     * @param events The serialized events
+     */
+    public void appendAll(List<SerializedEvent> events) {
+        List<OutboxEvent> outboxEvents = new ArrayList<>(events.size());
+        for (SerializedEvent event : events) {
+            outboxEvents.add(new OutboxEvent(event));
+        }
+        mongoTemplate.insert(outboxEvents, OutboxEvent.class);
+        wakeUp.release();
+    }
+    
+    /**
+     * Number of events waiting in the outbox
+     */
+    public long getBacklog() {
+        return mongoTemplate.count(new Query(), OutboxEvent.class);
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        mongoTemplate.indexOps(OutboxEvent.class).ensureIndex(new Index()
+                .on("lockedUntil", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("lockedUntil_id"));
+        running = true;
+        relayThread = new Thread(this::relayLoop, "event-outbox-relay");
+        relayThread.setDaemon(true);
+        relayThread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (relayThread != null) {
+            relayThread.interrupt();
+            relayThread = null;
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    private void relayLoop() {
+        while (running) {
+            try {
+                if (relayBatch() < batchSize) {
+                    // woken up early by local appends; events of other replicas are picked up by polling
+                    wakeUp.tryAcquire(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+                    wakeUp.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Failed to relay events from the outbox, retrying in {}", pollInterval, e);
+                sleepQuietly(pollInterval);
+            }
+        }
+    }
+    
+    /**
+     * Claim, send and remove the oldest unclaimed events
+     * 
+     * @return Number of relayed events
+     */
+    private int relayBatch() {
+        Date now = new Date();
+        Query pending = new Query(where("lockedUntil").lt(now)).with(Sort.by("_id")).limit(batchSize);
+        pending.fields().include("_id");
+        List<String> ids = new ArrayList<>();
+        for (OutboxEvent event : mongoTemplate.find(pending, OutboxEvent.class)) {
+            ids.add(event.getId());
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        
+        Date lockedUntil = new Date(now.getTime() + lease.toMillis());
+        mongoTemplate.updateMulti(new Query(where("_id").in(ids).and("lockedUntil").lt(now)),
+                Update.update("lockedBy", relayId).set("lockedUntil", lockedUntil), OutboxEvent.class);
+        List<OutboxEvent> claimed = mongoTemplate.find(
+                new Query(where("_id").in(ids).and("lockedBy").is(relayId).and("lockedUntil").is(lockedUntil)).with(Sort.by("_id")),
+                OutboxEvent.class);
+        if (claimed.isEmpty()) {
+            return 0;
+        }
+        
+        List<SerializedEvent> batch = new ArrayList<>(claimed.size());
+        List<String> claimedIds = new ArrayList<>(claimed.size());
+        for (OutboxEvent event : claimed) {
+            batch.add(event.toSerializedEvent());
+            claimedIds.add(event.getId());
+        }
+        eventTransport.sendBatch(batch);
+        mongoTemplate.remove(new Query(where("_id").in(claimedIds)), OutboxEvent.class);
+        logger.debug("Relayed {} events from the outbox", batch.size());
+        return batch.size();
+    }
+    
+    private static void sleepQuietly(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+    
+    public void setPollInterval(Duration pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+    
+    public void setLease(Duration lease) {
+        this.lease = lease;
+    }
+}
@@ -1,78 +1,408 @@
 package com.contentorganizer.common.util;
 
 import com.contentorganizer.common.event.BaseEvent;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.contentorganizer.common.event.ProjectEvent;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
- * Utility class for publishing events to Redis
+ * Utility class for publishing events to Redis through the configured {@link EventTransport}.
+ * When an {@link EventOutbox} is configured, events are written to the outbox instead and
+ * relayed to Redis in the background. With a {@link ClaimCheck} large event fields are stored
+ * separately and only referenced in the published payload. With {@link EventBackpressure}
+ * publishing waits, or fails with an {@link EventBackpressureException}, while the consumers
+ * of the channel are over their backlog limit.
  */
 @Component
 public class EventPublisher {
     
     private static final Logger logger = LoggerFactory.getLogger(EventPublisher.class);
     
-    private final RedisTemplate<String, String> redisTemplate;
-    private final ObjectMapper objectMapper;
+    // backoff between attempts to send an auto-batched batch
+    private static final long RETRY_INITIAL_BACKOFF_MILLIS = 100;
+    private static final long RETRY_MAX_BACKOFF_MILLIS = 10_000;
+    // attempts left for a batch once the publisher is closed
+    private static final int SHUTDOWN_ATTEMPTS = 3;
+    
+    private final EventTransport eventTransport;
+    private final Duration linger;
+    private final int maxBatchSize;
+    private final BlockingQueue<SerializedEvent> pendingEvents;
+    private final Thread batchingThread;
+    // shared while queueing, exclusive in close: nothing is queued after the batching thread
+    // saw the publisher closed and drained the queue
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
     
+    private EventCodec codec = EventCodecs.JSON;
+    private EventOutbox outbox;
+    private EventMetrics metrics;
+    private ClaimCheck claimCheck;
+    private EventBackpressure backpressure;
+    private volatile boolean running = true;
+    
+    public EventPublisher(EventTransport eventTransport) {
+        this(eventTransport, Duration.ZERO, 100);
+    }
+    
+    /**
+     * @param eventTransport The transport events are sent with
+     * @param linger How long single publishes may wait to be sent together; zero disables auto-batching
+     * @param maxBatchSize Maximum number of events sent in one round trip
+     */
     @Autowired
-    public EventPublisher(RedisTemplate<String, String> redisTemplate) {
-        this.redisTemplate = redisTemplate;
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule());
+    public EventPublisher(EventTransport eventTransport,
+                          @Value("${events.publisher.linger:0ms}") Duration linger,
+                          @Value("${events.publisher.max-batch-size:100}") int maxBatchSize) {
+        this.eventTransport = eventTransport;
+        this.linger = linger;
+        this.maxBatchSize = maxBatchSize;
+        if (linger.isZero() || linger.isNegative()) {
+            this.pendingEvents = null;
+            this.batchingThread = null;
+        } else {
+            this.pendingEvents = new LinkedBlockingQueue<>(maxBatchSize * 10);
+            this.batchingThread = new Thread(this::batchingLoop, "event-publisher-batching");
+            this.batchingThread.setDaemon(true);
+            this.batchingThread.start();
+            logger.info("Auto-batching enabled: linger={}, maxBatchSize={}", linger, maxBatchSize);
+        }
+    }
+    
+    /**
+     * Select the codec events are published with
+     * 
+     * @param codecName The codec name registered in {@link EventCodecs}, e.g. "json" or "smile"
+     */
+    @Value("${events.codec:json}")
+    public void setCodec(String codecName) {
+        this.codec = EventCodecs.forName(codecName);
+    }
+    
+    /**
+     * Write events to a transactional outbox instead of sending them directly
+     * 
+     * @param outbox The outbox, or {@code null} to send directly
+     */
+    @Autowired(required = false)
+    public void setOutbox(EventOutbox outbox) {
+        this.outbox = outbox;
+    }
+    
+    /**
+     * Record publish rate and serialized size per channel and event type
+     * 
+     * @param metrics The metrics, or {@code null} to disable them
+     */
+    @Autowired(required = false)
+    public void setMetrics(EventMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Offload large event fields to Redis and publish references to them instead
+     * 
+     * @param claimCheck The claim check, or {@code null} to publish events whole
+     */
+    @Autowired(required = false)
+    public void setClaimCheck(ClaimCheck claimCheck) {
+        this.claimCheck = claimCheck;
     }
     
     /**
-     * Publishes an event to Redis pub/sub channel
+     * Throttle publishing to channels whose consumers report a backlog above their limit
+     * 
+     * @param backpressure The backpressure check, or {@code null} to publish regardless of consumers
+     */
+    @Autowired(required = false)
+    public void setBackpressure(EventBackpressure backpressure) {
+        this.backpressure = backpressure;
+    }
+    
+    /**
+     * Publishes an event to the channel named after its event type
      * 
      * @param event The event to publish
      */
     public void publishEvent(BaseEvent event) {
+        publishEvent(event.getEventType(), event);
+    }
+    
+    /**
+     * Publishes an event to a specific channel. With an outbox the event is stored in the
+     * current unit of work; with auto-batching enabled it is queued and sent together with
+     * other events published within the linger time. A queued batch that fails to send is
+     * retried with backoff until Redis is back; publishers block meanwhile once the queue is full.
+     * Once the publisher is closed, events are sent right away instead.
+     * 
+     * @param channelName The channel name to publish to
+     * @param event The event to publish
+     * @throws EventBackpressureException if the channel's consumers are too far behind
+     */
+    public void publishEvent(String channelName, BaseEvent event) {
+        if (backpressure != null) {
+            backpressure.acquire(channelName);
+        }
+        publishAcquired(channelName, event);
+    }
+    
+    /**
+     * Apply the backpressure of several channels at once, for callers that publish to them while
+     * holding a lock or a transaction and must not wait there
+     * 
+     * @param channelNames The channels about to be published to with {@link #publishAcquired}
+     * @throws EventBackpressureException if the consumers of one of the channels are too far behind
+     */
+    public void acquire(Collection<String> channelNames) {
+        if (backpressure != null) {
+            new LinkedHashSet<>(channelNames).forEach(backpressure::acquire);
+        }
+    }
+    
+    /**
+     * Publishes an event like {@link #publishEvent(String, BaseEvent)}, but without waiting for
+     * backpressure, which the caller applied beforehand with {@link #acquire}
+     * 
+     * @param channelName The channel name to publish to
+     * @param event The event to publish
+     */
+    public void publishAcquired(String channelName, BaseEvent event) {
+        if (outbox == null && eventTransport.supportsEventObjects()) {
+            sendEvent(channelName, event);
+            return;
+        }
+        
+        SerializedEvent serializedEvent = serialize(channelName, event);
+        
+        if (outbox != null) {
+            outbox.append(serializedEvent);
+            logger.debug("Stored event {} for channel '{}' in the outbox", event.getEventId(), channelName);
+            return;
+        }
+        
+        if (pendingEvents != null && enqueue(serializedEvent)) {
+            return;
+        }
+        
         try {
-            String eventJson = objectMapper.writeValueAsString(event);
-            String channelName = event.getEventType();
-            
-            logger.info("Publishing event to channel '{}': {}", channelName, event);
-            
-            redisTemplate.convertAndSend(channelName, eventJson);
-            
-            logger.info("Event published successfully to channel '{}'", channelName);
-        } catch (JsonProcessingException e) {
-            logger.error("Failed to serialize event: {}", event, e);
-            throw new RuntimeException("Failed to publish event", e);
+            eventTransport.send(serializedEvent);
+            logger.debug("Published event {} to channel '{}'", event.getEventId(), channelName);
         } catch (Exception e) {
+            if (metrics != null) {
+                metrics.recordPublishFailed(channelName);
+            }
             logger.error("Failed to publish event to Redis: {}", event, e);
             throw new RuntimeException("Failed to publish event to Redis", e);
         }
     }
     
     /**
-     * Publishes an event to a specific channel
+     * Publishes several events, each to the channel named after its event type, using one
+     * pipelined round trip per {@code maxBatchSize} events
      * 
-     * @param channelName The channel name to publish to
-     * @param event The event to publish
+     * @param events The events to publish, in order
+     * @throws EventBackpressureException if the consumers of one of the channels are too far behind;
+     *         none of the events was published then
      */
-    public void publishEvent(String channelName, BaseEvent event) {
+    public void publishBatch(Collection<? extends BaseEvent> events) {
+        if (backpressure != null) {
+            Set<String> channelNames = new LinkedHashSet<>();
+            events.forEach(event -> channelNames.add(event.getEventType()));
+            channelNames.forEach(backpressure::acquire);
+        }
+        
+        if (outbox != null) {
+            List<SerializedEvent> serializedEvents = new ArrayList<>(events.size());
+            for (BaseEvent event : events) {
+                serializedEvents.add(serialize(event.getEventType(), event));
+            }
+            outbox.appendAll(serializedEvents);
+            return;
+        }
+        
+        if (eventTransport.supportsEventObjects()) {
+            for (BaseEvent event : events) {
+                sendEvent(event.getEventType(), event);
+            }
+            return;
+        }
+        
+        List<SerializedEvent> batch = new ArrayList<>(Math.min(events.size(), maxBatchSize));
+        for (BaseEvent event : events) {
+            batch.add(serialize(event.getEventType(), event));
+            if (batch.size() == maxBatchSize) {
+                sendBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            sendBatch(batch);
+        }
+    }
+    
+    /**
+     * Sends the events that are still queued for auto-batching
+     */
+    @PreDestroy
+    public void close() {
+        closeLock.writeLock().lock();
         try {
-            String eventJson = objectMapper.writeValueAsString(event);
-            
-            logger.info("Publishing event to channel '{}': {}", channelName, event);
-            
-            redisTemplate.convertAndSend(channelName, eventJson);
-            
-            logger.info("Event published successfully to channel '{}'", channelName);
-        } catch (JsonProcessingException e) {
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        if (batchingThread != null) {
+            try {
+                batchingThread.join(linger.toMillis() + 5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private SerializedEvent serialize(String channelName, BaseEvent event) {
+        try {
+            byte[] payload = EventCodecs.encode(codec, event);
+            if (claimCheck != null) {
+                payload = claimCheck.offload(codec, event, payload);
+            }
+            String shardKey = event instanceof ProjectEvent ? ((ProjectEvent) event).getProjectId() : null;
+            SerializedEvent serializedEvent = new SerializedEvent(channelName, payload, shardKey);
+            if (metrics != null) {
+                metrics.recordPublished(channelName, event.getEventType(), serializedEvent.getPayload().length);
+            }
+            return serializedEvent;
+        } catch (IOException e) {
             logger.error("Failed to serialize event: {}", event, e);
             throw new RuntimeException("Failed to publish event", e);
+        }
+    }
+    
+    /**
+     * Hand the event object to an in-process transport, skipping serialization
+     */
+    private void sendEvent(String channelName, BaseEvent event) {
+        if (metrics != null) {
+            metrics.recordPublished(channelName, event.getEventType());
+        }
+        try {
+            eventTransport.sendEvent(channelName, event);
+            logger.debug("Published event {} to channel '{}'", event.getEventId(), channelName);
+        } catch (Exception e) {
+            logger.error("Failed to publish event: {}", event, e);
+            throw new RuntimeException("Failed to publish event", e);
+        }
+    }
+    
+    private void sendBatch(List<SerializedEvent> batch) {
+        try {
+            eventTransport.sendBatch(batch);
+            logger.debug("Published batch of {} events", batch.size());
         } catch (Exception e) {
-            logger.error("Failed to publish event to Redis: {}", event, e);
-            throw new RuntimeException("Failed to publish event to Redis", e);
+            if (metrics != null) {
+                batch.forEach(event -> metrics.recordPublishFailed(event.getChannelName()));
+            }
+            logger.error("Failed to publish batch of {} events to Redis", batch.size(), e);
+            throw new RuntimeException("Failed to publish event batch to Redis", e);
+        }
+    }
+    
+    /**
+     * @return {@code false} if the publisher is closed and the event has to be sent right away
+     */
+    private boolean enqueue(SerializedEvent serializedEvent) {
+        closeLock.readLock().lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            pendingEvents.put(serializedEvent);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queueing event for publishing", e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Collects queued events until {@code maxBatchSize} is reached or {@code linger} has
+     * passed since the first one, then sends them in one round trip
+     */
+    private void batchingLoop() {
+        List<SerializedEvent> batch = new ArrayList<>(maxBatchSize);
+        while (running || !pendingEvents.isEmpty()) {
+            try {
+                SerializedEvent first = pendingEvents.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + linger.toNanos();
+                while (batch.size() < maxBatchSize) {
+                    if (pendingEvents.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    SerializedEvent next = remaining > 0 ? pendingEvents.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                sendUntilSent(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+    
+    /**
+     * Send an auto-batched batch, retrying with exponential backoff until it is sent, since its
+     * publishers were already told the events are published. New events queue up meanwhile, and
+     * publishers block once the queue is full. After {@link #close()} the batch is given up
+     * after a few more attempts.
+     */
+    private void sendUntilSent(List<SerializedEvent> batch) throws InterruptedException {
+        long backoff = RETRY_INITIAL_BACKOFF_MILLIS;
+        int shutdownAttempts = 0;
+        while (true) {
+            try {
+                sendBatch(batch);
+                return;
+            } catch (RuntimeException e) {
+                if (!running && ++shutdownAttempts >= SHUTDOWN_ATTEMPTS) {
+                    logger.error("Dropping {} auto-batched events on shutdown, Redis is unavailable", batch.size());
+                    if (metrics != null) {
+                        batch.forEach(event -> metrics.recordPublishDropped(event.getChannelName()));
+                    }
+                    return;
+                }
+                logger.warn("Retrying batch of {} events in {} ms", batch.size(), backoff);
+                // do not hold up the shutdown with a long backoff
+                Thread.sleep(running ? backoff : RETRY_INITIAL_BACKOFF_MILLIS);
+                backoff = Math.min(backoff * 2, RETRY_MAX_BACKOFF_MILLIS);
+            }
         }
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,434 @@
+package com.contentorganizer.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.ClassUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries failed event handling with exponential backoff and jitter.
+ * <p>
+ * A failed event is stored in a Redis sorted set scored by the time it is due again, so
+ * listener threads never wait for a retry and retries survive a restart. A poller thread
+ * claims due entries by moving them to an in-flight set scored by a lease deadline, and hands
+ * them back to the listener that failed. An entry is only removed from the in-flight set once
+ * the listener handled it (or scheduled its next attempt), so a replica crashing in between
+ * leaves it to be claimed again when the lease expired. After {@code maxAttempts} failures the
+ * event is appended to a dead-letter stream per channel, from where it can be inspected and
+ * replayed.
+ */
+public class EventRetryScheduler implements SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EventRetryScheduler.class);
+    
+    private static final byte[] LISTENER_FIELD = "listener".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ATTEMPTS_FIELD = "attempts".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ERROR_FIELD = "error".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FAILED_AT_FIELD = "failedAt".getBytes(StandardCharsets.UTF_8);
+    
+    // moves due retries and in-flight entries with an expired lease to the in-flight set
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final RedisScript<List<String>> CLAIM_SCRIPT = (RedisScript) new DefaultRedisScript<>(
+            "local claimed = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[1], 'LIMIT', 0, ARGV[3])\n" +
+            "local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[3] - #claimed)\n" +
+            "for _, entry in ipairs(due) do\n" +
+            "  redis.call('ZREM', KEYS[1], entry)\n" +
+            "  table.insert(claimed, entry)\n" +
+            "end\n" +
+            "for _, entry in ipairs(claimed) do\n" +
+            "  redis.call('ZADD', KEYS[2], ARGV[2], entry)\n" +
+            "end\n" +
+            "return claimed",
+            List.class);
+    
+    private final RedisTemplate<String, String> redisTemplate;
+    private final String group;
+    private final Map<String, EventListener> listeners = new ConcurrentHashMap<>();
+    
+    private String keyPrefix = "events:";
+    private int maxAttempts = 5;
+    private Duration initialBackoff = Duration.ofSeconds(1);
+    private Duration maxBackoff = Duration.ofMinutes(5);
+    private double multiplier = 2.0;
+    private Duration pollInterval = Duration.ofSeconds(1);
+    private Duration lease = Duration.ofMinutes(5);
+    private int batchSize = 100;
+    private long deadLetterMaxLength = 10_000;
+    
+    private volatile boolean running;
+    private Thread pollerThread;
+    
+    /**
+     * @param redisTemplate The Redis template
+     * @param group The consumer group (service) owning the retries and dead letters
+     */
+    public EventRetryScheduler(RedisTemplate<String, String> redisTemplate, String group) {
+        this.redisTemplate = redisTemplate;
+        this.group = group;
+    }
+    
+    /**
+     * Make a listener's failed events retryable and replayable
+     */
+    public void register(EventListener listener) {
+        listeners.put(listenerName(listener), listener);
+    }
+    
+    /**
+     * Schedule another attempt for an event, or dead-letter it once it failed {@code maxAttempts} times
+     * 
+     * @param listener The listener that failed
+     * @param channelName The channel the event was received on
+     * @param payload The serialized event
+     * @param attempts Number of failed attempts so far
+     * @param error The last failure
+     */
+    public void retryLater(EventListener listener, String channelName, byte[] payload, int attempts, Throwable error) {
+        FailedEvent failedEvent = new FailedEvent(UUID.randomUUID().toString(), listenerName(listener), channelName,
+                attempts, String.valueOf(error), System.currentTimeMillis(), payload);
+        if (attempts >= maxAttempts) {
+            deadLetter(failedEvent);
+            logger.error("Event from channel '{}' failed {} times in {}, moved to dead-letter stream '{}'",
+                    channelName, attempts, failedEvent.getListener(), deadLetterKey(channelName), error);
+            return;
+        }
+        
+        long delay = backoff(attempts);
+        try {
+            String entry = EventCodecs.objectMapper().writeValueAsString(failedEvent);
+            redisTemplate.opsForZSet().add(retryKey(), entry, failedEvent.getFailedAt() + delay);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to schedule event retry", e);
+        }
+        logger.warn("Event from channel '{}' failed in {} (attempt {}/{}), retrying in {} ms: {}",
+                channelName, failedEvent.getListener(), attempts, maxAttempts, delay, error.toString());
+    }
+    
+    /**
+     * Dead-lettered events of a channel, oldest first
+     * 
+     * @param channelName The channel name
+     * @param count Maximum number of events to return
+     */
+    public List<FailedEvent> getDeadLetters(String channelName, int count) {
+        byte[] rawKey = rawKey(deadLetterKey(channelName));
+        List<ByteRecord> records = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xRange(rawKey, Range.unbounded(), Limit.limit().count(count)));
+        if (records == null) {
+            return Collections.emptyList();
+        }
+        List<FailedEvent> failedEvents = new ArrayList<>(records.size());
+        for (ByteRecord record : records) {
+            failedEvents.add(toFailedEvent(channelName, record));
+        }
+        return failedEvents;
+    }
+    
+    /**
+     * Number of dead-lettered events per channel of the registered listeners
+     */
+    public Map<String, Long> getDeadLetterCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (String channelName : getChannels()) {
+            byte[] rawKey = rawKey(deadLetterKey(channelName));
+            Long length = redisTemplate.execute((RedisCallback<Long>) connection -> connection.streamCommands().xLen(rawKey));
+            counts.put(channelName, length != null ? length : 0L);
+        }
+        return counts;
+    }
+    
+    /**
+     * Hand dead-lettered events back to their listener with a fresh attempt budget and remove them
+     * from the dead-letter stream
+     * 
+     * @param channelName The channel name
+     * @param id The record id to replay, or {@code null} to replay up to a batch of events
+     * @return Number of replayed events
+     */
+    public int replay(String channelName, String id) {
+        int replayed = 0;
+        for (FailedEvent failedEvent : deadLettersFor(channelName, id)) {
+            EventListener listener = listeners.get(failedEvent.getListener());
+            if (listener == null) {
+                logger.warn("Cannot replay dead letter {} of channel '{}', listener {} is not registered",
+                        failedEvent.getId(), channelName, failedEvent.getListener());
+                continue;
+            }
+            // failures are rescheduled by the listener; only a failure to reschedule keeps the dead letter
+            listener.processEvent(channelName, failedEvent.getPayload(), 0).join();
+            delete(channelName, failedEvent.getId());
+            replayed++;
+        }
+        logger.info("Replayed {} dead-lettered events of channel '{}'", replayed, channelName);
+        return replayed;
+    }
+    
+    /**
+     * Remove dead-lettered events without handling them
+     * 
+     * @param channelName The channel name
+     * @param id The record id to remove, or {@code null} to remove the whole dead-letter stream
+     * @return Number of removed events
+     */
+    public long delete(String channelName, String id) {
+        if (id == null) {
+            Long length = redisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.streamCommands().xLen(rawKey(deadLetterKey(channelName))));
+            redisTemplate.delete(deadLetterKey(channelName));
+            return length != null ? length : 0L;
+        }
+        Long deleted = redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.streamCommands().xDel(rawKey(deadLetterKey(channelName)), RecordId.of(id)));
+        return deleted != null ? deleted : 0L;
+    }
+    
+    /**
+     * Channels of the registered listeners
+     */
+    public Set<String> getChannels() {
+        Set<String> channels = new LinkedHashSet<>();
+        listeners.values().forEach(listener -> channels.addAll(listener.getChannels()));
+        return channels;
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        pollerThread = new Thread(this::pollLoop, "event-retry-poller");
+        pollerThread.setDaemon(true);
+        pollerThread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (pollerThread != null) {
+            pollerThread.interrupt();
+            pollerThread = null;
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    private void pollLoop() {
+        while (running) {
+            try {
+                if (retryDue() < batchSize) {
+                    Thread.sleep(pollInterval.toMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Failed to poll event retries from Redis", e);
+                sleepQuietly(pollInterval);
+            }
+        }
+    }
+    
+    /**
+     * Claim the retries that are due, and those whose claim by a replica expired, and retry them
+     * 
+     * @return Number of claimed entries
+     */
+    private int retryDue() {
+        long now = System.currentTimeMillis();
+        List<String> claimed = redisTemplate.execute(CLAIM_SCRIPT, Arrays.asList(retryKey(), inFlightKey()),
+                String.valueOf(now), String.valueOf(now + lease.toMillis()), String.valueOf(batchSize));
+        if (claimed == null || claimed.isEmpty()) {
+            return 0;
+        }
+        for (String entry : claimed) {
+            FailedEvent failedEvent;
+            try {
+                failedEvent = EventCodecs.objectMapper().readValue(entry, FailedEvent.class);
+            } catch (IOException e) {
+                logger.error("Dropping unreadable event retry: {}", entry, e);
+                redisTemplate.opsForZSet().remove(inFlightKey(), entry);
+                continue;
+            }
+            EventListener listener = listeners.get(failedEvent.getListener());
+            if (listener == null) {
+                logger.warn("No listener {} registered for retry of channel '{}', moving it to the dead-letter stream",
+                        failedEvent.getListener(), failedEvent.getChannelName());
+                deadLetter(failedEvent);
+                redisTemplate.opsForZSet().remove(inFlightKey(), entry);
+                continue;
+            }
+            listener.processEvent(failedEvent.getChannelName(), failedEvent.getPayload(), failedEvent.getAttempts())
+                    .whenComplete((result, e) -> {
+                        if (e != null) {
+                            logger.error("Failed to reschedule event from channel '{}', retrying it after {}",
+                                    failedEvent.getChannelName(), lease, e);
+                            return;
+                        }
+                        redisTemplate.opsForZSet().remove(inFlightKey(), entry);
+                    });
+        }
+        return claimed.size();
+    }
+    
+    private long backoff(int attempts) {
+        double exponential = initialBackoff.toMillis() * Math.pow(multiplier, Math.max(0, attempts - 1));
+        long delay = (long) Math.min(maxBackoff.toMillis(), exponential);
+        // equal jitter: spreads the retries of one outage without ever retrying before half the delay
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+    
+    private void deadLetter(FailedEvent failedEvent) {
+        ByteRecord record = deadLetterRecord(rawKey(deadLetterKey(failedEvent.getChannelName())), failedEvent);
+        XAddOptions options = XAddOptions.maxlen(deadLetterMaxLength).approximateTrimming(true);
+        redisTemplate.execute((RedisCallback<RecordId>) connection -> connection.streamCommands().xAdd(record, options));
+    }
+    
+    /**
+     * The record of a failed event on a dead-letter stream; also written by
+     * {@link RedisStreamEventTransport} for records that were never acknowledged
+     */
+    static ByteRecord deadLetterRecord(byte[] deadLetterKey, FailedEvent failedEvent) {
+        Map<byte[], byte[]> fields = new HashMap<>();
+        fields.put(RedisStreamEventTransport.PAYLOAD_FIELD, failedEvent.getPayload());
+        fields.put(LISTENER_FIELD, bytes(failedEvent.getListener()));
+        fields.put(ATTEMPTS_FIELD, bytes(String.valueOf(failedEvent.getAttempts())));
+        fields.put(ERROR_FIELD, bytes(failedEvent.getError()));
+        fields.put(FAILED_AT_FIELD, bytes(String.valueOf(failedEvent.getFailedAt())));
+        return StreamRecords.newRecord()
+                .in(deadLetterKey)
+                .ofBytes(fields);
+    }
+    
+    private List<FailedEvent> deadLettersFor(String channelName, String id) {
+        if (id == null) {
+            return getDeadLetters(channelName, batchSize);
+        }
+        byte[] rawKey = rawKey(deadLetterKey(channelName));
+        List<ByteRecord> records = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xRange(rawKey, Range.closed(id, id)));
+        if (records == null || records.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(toFailedEvent(channelName, records.get(0)));
+    }
+    
+    private static FailedEvent toFailedEvent(String channelName, ByteRecord record) {
+        Map<String, byte[]> fields = new HashMap<>();
+        record.getValue().forEach((field, value) -> fields.put(new String(field, StandardCharsets.UTF_8), value));
+        return new FailedEvent(record.getId().getValue(),
+                string(fields.get("listener")),
+                channelName,
+                Integer.parseInt(string(fields.getOrDefault("attempts", bytes("0")))),
+                string(fields.get("error")),
+                Long.parseLong(string(fields.getOrDefault("failedAt", bytes("0")))),
+                fields.get("payload"));
+    }
+    
+    private String retryKey() {
+        // hash tag: the claim script moves entries between both keys, which must share a cluster slot
+        return keyPrefix + "retry:{" + group + "}";
+    }
+    
+    private String inFlightKey() {
+        return retryKey() + ":inflight";
+    }
+    
+    private String deadLetterKey(String channelName) {
+        return keyPrefix + "dlq:" + group + ":" + channelName;
+    }
+    
+    static String listenerName(EventListener listener) {
+        return ClassUtils.getUserClass(listener).getName();
+    }
+    
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static byte[] bytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+    
+    private static String string(byte[] value) {
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+    
+    private static void sleepQuietly(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+    
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+    
+    public void setInitialBackoff(Duration initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+    
+    public void setMaxBackoff(Duration maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+    
+    public void setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+    }
+    
+    public void setPollInterval(Duration pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+    
+    /**
+     * How long a replica owns a claimed retry before another replica may run it again
+     */
+    public void setLease(Duration lease) {
+        this.lease = lease;
+    }
+    
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+    
+    public void setDeadLetterMaxLength(long deadLetterMaxLength) {
+        this.deadLetterMaxLength = deadLetterMaxLength;
+    }
+}
@@ -0,0 +1,76 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.BaseEvent;
+
+import java.util.List;
+
+/**
+ * Transport used to move serialized events between services.
+ * Implementations decide how events are delivered (Redis pub/sub, Redis Streams, in-process, ...).
+ */
+public interface EventTransport {
+    
+    /**
+     * Send a serialized event to a channel
+     * 
+     * @param channelName The channel name
+     * @param payload The serialized event
+     */
+    void send(String channelName, byte[] payload);
+    
+    /**
+     * Send a serialized event to its channel, on the shard of its shard key where the transport shards channels
+     * 
+     * @param event The serialized event
+     */
+    default void send(SerializedEvent event) {
+        send(event.getChannelName(), event.getPayload());
+    }
+    
+    /**
+     * Send several serialized events, in a single round trip where the transport supports it
+     * 
+     * @param events The events to send, in order
+     */
+    default void sendBatch(List<SerializedEvent> events) {
+        events.forEach(event -> send(event.getChannelName(), event.getPayload()));
+    }
+    
+    /**
+     * Whether the transport accepts event objects through {@link #sendEvent}, so publishers can
+     * skip serialization
+     */
+    default boolean supportsEventObjects() {
+        return false;
+    }
+    
+    /**
+     * Send an event object without serializing it; only supported by in-process transports
+     * 
+     * @param channelName The channel name
+     * @param event The event, which must not be modified afterwards
+     * @throws UnsupportedOperationException if {@link #supportsEventObjects()} is {@code false}
+     */
+    default void sendEvent(String channelName, BaseEvent event) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " only sends serialized events");
+    }
+    
+    /**
+     * Subscribe a listener to a channel
+     * 
+     * @param channelName The channel name
+     * @param listener The listener receiving events from the channel
+     */
+    void subscribe(String channelName, EventListener listener);
+    
+    /**
+     * Number of events on a subscribed channel that this consumer (group) has not handled yet,
+     * for transports that queue events outside the listeners
+     * 
+     * @param channelName The channel name
+     * @return The backlog, or -1 if the transport does not queue events
+     */
+    default long getBacklog(String channelName) {
+        return -1;
+    }
+}
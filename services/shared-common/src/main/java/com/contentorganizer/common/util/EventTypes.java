@@ -0,0 +1,62 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.AssetFailedEvent;
+import com.contentorganizer.common.event.AssetRequestedEvent;
+import com.contentorganizer.common.event.BaseEvent;
+import com.contentorganizer.common.event.ImageReadyEvent;
+import com.contentorganizer.common.event.MusicReadyEvent;
+import com.contentorganizer.common.event.SEOReadyEvent;
+import com.contentorganizer.common.event.VideoCreationStartedEvent;
+import com.contentorganizer.common.event.VideoPublishedEvent;
+import com.contentorganizer.common.event.VideoReadyEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry mapping event type names (as found in {@link BaseEvent#getEventType()}) to event classes
+ */
+public final class EventTypes {
+    
+    private static final Map<String, Class<? extends BaseEvent>> TYPES = new ConcurrentHashMap<>();
+    
+    static {
+        register("VideoCreationStartedEvent", VideoCreationStartedEvent.class);
+        register("MusicReadyEvent", MusicReadyEvent.class);
+        register("ImageReadyEvent", ImageReadyEvent.class);
+        register("SEOReadyEvent", SEOReadyEvent.class);
+        register("VideoReadyEvent", VideoReadyEvent.class);
+        register("VideoPublishedEvent", VideoPublishedEvent.class);
+        register("AssetRequestedEvent", AssetRequestedEvent.class);
+        register("AssetFailedEvent", AssetFailedEvent.class);
+    }
+    
+    private EventTypes() {
+    }
+    
+    /**
+     * Register an event class under its event type name and prepare the codecs to decode it
+     * 
+     * @param eventType The event type name
+     * @param eventClass The event class type
+     */
+    public static void register(String eventType, Class<? extends BaseEvent> eventClass) {
+        TYPES.put(eventType, eventClass);
+        EventCodecs.prepare(eventClass);
+    }
+    
+    /**
+     * Resolve the event class for an event type name
+     * 
+     * @param eventType The event type name
+     * @return The event class type
+     * @throws IllegalArgumentException if the event type is unknown
+     */
+    public static Class<? extends BaseEvent> forName(String eventType) {
+        Class<? extends BaseEvent> eventClass = TYPES.get(eventType);
+        if (eventClass == null) {
+            throw new IllegalArgumentException("Unknown event type: " + eventType);
+        }
+        return eventClass;
+    }
+}
@@ -0,0 +1,91 @@
+package com.contentorganizer.common.util;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * An event whose handling failed, waiting for a retry or parked on a dead-letter stream
+ */
+public final class FailedEvent {
+    
+    @JsonProperty("id")
+    private final String id;
+    
+    @JsonProperty("listener")
+    private final String listener;
+    
+    @JsonProperty("channelName")
+    private final String channelName;
+    
+    @JsonProperty("attempts")
+    private final int attempts;
+    
+    @JsonProperty("error")
+    private final String error;
+    
+    @JsonProperty("failedAt")
+    private final long failedAt;
+    
+    @JsonProperty("payload")
+    private final byte[] payload;
+    
+    @JsonCreator
+    public FailedEvent(@JsonProperty("id") String id,
+                       @JsonProperty("listener") String listener,
+                       @JsonProperty("channelName") String channelName,
+                       @JsonProperty("attempts") int attempts,
+                       @JsonProperty("error") String error,
+                       @JsonProperty("failedAt") long failedAt,
+                       @JsonProperty("payload") byte[] payload) {
+        this.id = id;
+        this.listener = listener;
+        this.channelName = channelName;
+        this.attempts = attempts;
+        this.error = error;
+        this.failedAt = failedAt;
+        this.payload = payload;
+    }
+    
+    /**
+     * Retry id, or the record id on the dead-letter stream
+     */
+    public String getId() {
+        return id;
+    }
+    
+    /**
+     * Class name of the listener that failed to handle the event
+     */
+    public String getListener() {
+        return listener;
+    }
+    
+    public String getChannelName() {
+        return channelName;
+    }
+    
+    /**
+     * Number of failed handling attempts
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+    
+    /**
+     * Message of the last failure
+     */
+    public String getError() {
+        return error;
+    }
+    
+    /**
+     * Time of the last failure in epoch milliseconds
+     */
+    public long getFailedAt() {
+        return failedAt;
+    }
+    
+    public byte[] getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,61 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.BaseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Event codec backed by a Jackson {@link ObjectMapper} (JSON, Smile, ...).
+ * Keeps one {@link ObjectReader} per event class so decoding skips the per-call type resolution.
+ */
+public class JacksonEventCodec implements EventCodec {
+    
+    private final byte id;
+    private final String name;
+    private final ObjectMapper objectMapper;
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    
+    public JacksonEventCodec(byte id, String name, ObjectMapper objectMapper) {
+        this.id = id;
+        this.name = name;
+        this.objectMapper = objectMapper;
+    }
+    
+    @Override
+    public byte getId() {
+        return id;
+    }
+    
+    @Override
+    public String getName() {
+        return name;
+    }
+    
+    @Override
+    public void encode(BaseEvent event, OutputStream out) throws IOException {
+        objectMapper.writeValue(out, event);
+    }
+    
+    @Override
+    public <T extends BaseEvent> T decode(byte[] data, int offset, int length, Class<T> eventClass) throws IOException {
+        return readerFor(eventClass).readValue(data, offset, length);
+    }
+    
+    @Override
+    public void prepare(Class<? extends BaseEvent> eventClass) {
+        readerFor(eventClass);
+    }
+    
+    private ObjectReader readerFor(Class<?> eventClass) {
+        return readers.computeIfAbsent(eventClass, objectMapper::readerFor);
+    }
+    
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+}
@@ -0,0 +1,190 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.BaseEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process event transport for running several services in one JVM.
+ * <p>
+ * Published events go through a bounded lock-free ring buffer to a single dispatcher thread,
+ * which hands them to the subscribed listeners in publish order (listeners with a striped
+ * executor still handle projects in parallel). Events published with {@link #sendEvent} are
+ * passed by reference without serialization, so handlers must treat them as immutable.
+ * When the buffer is full publishers wait for room. Handlers running on the dispatcher thread
+ * cannot wait for room they would have to make themselves, so their events go to an unbounded
+ * queue of the dispatcher's own, which it empties before it takes the next event from the buffer.
+ */
+public class LoopbackEventTransport implements EventTransport, SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LoopbackEventTransport.class);
+    
+    private static final int SPINS_BEFORE_PARK = 100;
+    private static final long PARK_NANOS = 1_000_000;
+    
+    private final MpmcRingBuffer<Delivery> buffer;
+    private final Map<String, List<EventListener>> listeners = new ConcurrentHashMap<>();
+    // events published by handlers on the dispatcher thread, only used by that thread
+    private final Deque<Delivery> dispatcherEvents = new ArrayDeque<>();
+    private volatile int dispatcherEventCount;
+    
+    private volatile boolean running;
+    private volatile boolean dispatcherParked;
+    private volatile Thread dispatcherThread;
+    
+    /**
+     * @param capacity Number of events that may wait for the dispatcher, rounded up to a power of two
+     */
+    public LoopbackEventTransport(int capacity) {
+        this.buffer = new MpmcRingBuffer<>(capacity);
+    }
+    
+    @Override
+    public void send(String channelName, byte[] payload) {
+        enqueue(new Delivery(channelName, null, payload));
+    }
+    
+    @Override
+    public boolean supportsEventObjects() {
+        return true;
+    }
+    
+    @Override
+    public void sendEvent(String channelName, BaseEvent event) {
+        enqueue(new Delivery(channelName, event, null));
+    }
+    
+    @Override
+    public void subscribe(String channelName, EventListener listener) {
+        listeners.computeIfAbsent(channelName, k -> new CopyOnWriteArrayList<>()).add(listener);
+        logger.info("Subscribed listener {} to loopback channel '{}'", listener.getClass().getSimpleName(), channelName);
+    }
+    
+    /**
+     * Approximate number of events waiting for the dispatcher
+     */
+    public int getQueueDepth() {
+        return buffer.size() + dispatcherEventCount;
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::dispatchLoop, "event-loopback-dispatcher");
+        thread.setDaemon(true);
+        dispatcherThread = thread;
+        thread.start();
+        logger.info("Started loopback event transport (capacity {})", buffer.capacity());
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        Thread thread = dispatcherThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            dispatcherThread = null;
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    private void enqueue(Delivery delivery) {
+        if (Thread.currentThread() == dispatcherThread) {
+            dispatcherEvents.addLast(delivery);
+            dispatcherEventCount = dispatcherEvents.size();
+            return;
+        }
+        while (!buffer.offer(delivery)) {
+            if (!running) {
+                throw new IllegalStateException("Loopback event transport is stopped");
+            }
+            // full: back off until the dispatcher made room
+            LockSupport.parkNanos(PARK_NANOS / 10);
+        }
+        if (dispatcherParked) {
+            LockSupport.unpark(dispatcherThread);
+        }
+    }
+    
+    /**
+     * Spins briefly when the buffer is empty, then parks until a publisher wakes it up
+     */
+    private void dispatchLoop() {
+        int idle = 0;
+        while (running || buffer.size() > 0 || !dispatcherEvents.isEmpty()) {
+            Delivery delivery = dispatcherEvents.pollFirst();
+            if (delivery != null) {
+                dispatcherEventCount = dispatcherEvents.size();
+            } else {
+                delivery = buffer.poll();
+            }
+            if (delivery != null) {
+                idle = 0;
+                deliver(delivery);
+                continue;
+            }
+            if (++idle < SPINS_BEFORE_PARK) {
+                Thread.onSpinWait();
+                continue;
+            }
+            dispatcherParked = true;
+            if (buffer.size() == 0 && running) {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            dispatcherParked = false;
+        }
+    }
+    
+    private void deliver(Delivery delivery) {
+        for (EventListener listener : listeners.getOrDefault(delivery.channelName, Collections.emptyList())) {
+            try {
+                CompletableFuture<Void> result = delivery.event != null
+                        ? listener.processEvent(delivery.channelName, delivery.event)
+                        : listener.processEvent(delivery.channelName, delivery.payload);
+                result.whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        logger.error("Failed to process event from channel: {}", delivery.channelName, e);
+                    }
+                });
+            } catch (Exception e) {
+                logger.error("Failed to process event from channel: {}", delivery.channelName, e);
+            }
+        }
+    }
+    
+    private static final class Delivery {
+        
+        private final String channelName;
+        private final BaseEvent event;
+        private final byte[] payload;
+        
+        private Delivery(String channelName, BaseEvent event, byte[] payload) {
+            this.channelName = channelName;
+            this.event = event;
+            this.payload = payload;
+        }
+    }
+}
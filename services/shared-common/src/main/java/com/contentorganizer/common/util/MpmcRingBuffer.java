@@ -0,0 +1,94 @@
+package com.contentorganizer.common.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue on a ring buffer (D. Vyukov's design).
+ * Every slot carries a sequence number telling producers and consumers whether it is free for
+ * the current lap, so {@link #offer} and {@link #poll} each need a single CAS on their cursor.
+ * The capacity is rounded up to a power of two.
+ */
+final class MpmcRingBuffer<E> {
+    
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerCursor = new AtomicLong();
+    private final AtomicLong consumerCursor = new AtomicLong();
+    
+    MpmcRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+    
+    /**
+     * Add an element unless the buffer is full
+     * 
+     * @return {@code false} if the buffer is full
+     */
+    boolean offer(E element) {
+        long position = producerCursor.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (producerCursor.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, element);
+                    // publishes the element to the consumer reading this sequence
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = producerCursor.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = producerCursor.get();
+            }
+        }
+    }
+    
+    /**
+     * Take the oldest element
+     * 
+     * @return The element, or {@code null} if the buffer is empty
+     */
+    E poll() {
+        long position = consumerCursor.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (consumerCursor.compareAndSet(position, position + 1)) {
+                    E element = slots.get(index);
+                    slots.lazySet(index, null);
+                    // frees the slot for the producer of the next lap
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = consumerCursor.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = consumerCursor.get();
+            }
+        }
+    }
+    
+    /**
+     * Approximate number of queued elements
+     */
+    int size() {
+        return (int) Math.max(0, producerCursor.get() - consumerCursor.get());
+    }
+    
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,74 @@
+package com.contentorganizer.common.util;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * A serialized event waiting in the outbox collection to be relayed to the event transport
+ */
+@Document(collection = "event_outbox")
+public class OutboxEvent {
+    
+    @Id
+    private String id;
+    
+    private String channelName;
+    
+    private byte[] payload;
+    
+    private String shardKey;
+    
+    private Date createdAt;
+    
+    /**
+     * Relay that claimed the event; the claim is void once {@code lockedUntil} has passed
+     */
+    private String lockedBy;
+    
+    private Date lockedUntil;
+    
+    public OutboxEvent() {
+    }
+    
+    public OutboxEvent(SerializedEvent event) {
+        this.channelName = event.getChannelName();
+        this.payload = event.getPayload();
+        this.shardKey = event.getShardKey();
+        this.createdAt = new Date();
+        this.lockedUntil = new Date(0);
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public String getChannelName() {
+        return channelName;
+    }
+    
+    public byte[] getPayload() {
+        return payload;
+    }
+    
+    public String getShardKey() {
+        return shardKey;
+    }
+    
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+    
+    public String getLockedBy() {
+        return lockedBy;
+    }
+    
+    public Date getLockedUntil() {
+        return lockedUntil;
+    }
+    
+    public SerializedEvent toSerializedEvent() {
+        return new SerializedEvent(channelName, payload, shardKey);
+    }
+}
@@ -0,0 +1,86 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.EventPriority;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Listener dispatch with a separate {@link StripedExecutor} per {@link EventPriority}.
+ * <p>
+ * Every priority class gets its own lanes, queues and threads, sized by its weight, so a backlog
+ * of bulk events never occupies the threads that handle high-priority events. Within a class,
+ * events of one project are still handled in order; events of different classes are not ordered
+ * with respect to each other. Lanes are not lent to other classes while idle.
+ */
+public class PriorityLanes {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PriorityLanes.class);
+    
+    private final Map<EventPriority, StripedExecutor> executors = new EnumMap<>(EventPriority.class);
+    
+    /**
+     * @param name Thread name prefix
+     * @param threads Total number of handler threads, shared out by weight (at least one per class)
+     * @param weights Weight per priority class; classes without a weight get 1
+     * @param queueCapacity Capacity of every lane's queue
+     * @param rejectionPolicy What to do when a lane's queue is full
+     */
+    public PriorityLanes(String name, int threads, Map<EventPriority, Integer> weights, int queueCapacity,
+                         StripedExecutor.RejectionPolicy rejectionPolicy) {
+        int totalWeight = 0;
+        for (EventPriority priority : EventPriority.values()) {
+            totalWeight += Math.max(1, weights.getOrDefault(priority, 1));
+        }
+        for (EventPriority priority : EventPriority.values()) {
+            int weight = Math.max(1, weights.getOrDefault(priority, 1));
+            int lanes = Math.max(1, Math.round((float) threads * weight / totalWeight));
+            executors.put(priority, new StripedExecutor(name + "-" + priority.name().toLowerCase(),
+                    lanes, queueCapacity, rejectionPolicy));
+        }
+        logger.info("Started priority lanes '{}' with weights {}", name, weights);
+    }
+    
+    /**
+     * Run a task on the lanes of its priority class
+     * 
+     * @param priority The priority class, {@code null} for {@link EventPriority#NORMAL}
+     * @param key The ordering key within the class
+     * @param task The task to run
+     * @return A future completed when the task finished, exceptionally if it failed or was rejected
+     */
+    public CompletableFuture<Void> submit(EventPriority priority, Object key, Runnable task) {
+        return executors.get(priority != null ? priority : EventPriority.NORMAL).submit(key, task);
+    }
+    
+    /**
+     * Number of tasks waiting in each lane of a priority class
+     */
+    public int[] getQueueDepths(EventPriority priority) {
+        return executors.get(priority).getQueueDepths();
+    }
+    
+    public int getLaneCount(EventPriority priority) {
+        return executors.get(priority).getLaneCount();
+    }
+    
+    /**
+     * Register the queue depth gauges of every lane, tagged with the priority class
+     */
+    public void bindTo(MeterRegistry registry) {
+        executors.forEach((priority, executor) ->
+                executor.bindTo(registry, Tags.of("priority", priority.name().toLowerCase())));
+    }
+    
+    /**
+     * Stop accepting tasks and wait for the queued ones to finish
+     */
+    public void shutdown() {
+        executors.values().forEach(StripedExecutor::shutdown);
+    }
+}
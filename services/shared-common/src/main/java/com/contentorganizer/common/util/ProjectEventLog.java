@@ -0,0 +1,287 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.dto.ProjectState;
+import com.contentorganizer.common.event.BaseEvent;
+import com.contentorganizer.common.event.ProjectEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Append-only event log per project, stored in MongoDB, with snapshots of the folded
+ * {@link ProjectState}.
+ * <p>
+ * Every event with a projectId gets the next sequence number of its project (from a counter in
+ * {@code project_event_log_heads}) and is stored once under its eventId in {@code project_event_log}.
+ * {@link #compact} folds the events after the latest snapshot into a new one in
+ * {@code project_snapshots}, so {@link #recover} only reads the events since then. The log itself
+ * is never pruned and can be replayed from any eventId.
+ * <p>
+ * A sequence number is handed out before its event is stored, so the log can have gaps: numbers
+ * of events logged concurrently by another delivery, of appends that failed, and of appends that
+ * are merely slow. Compaction only moves past a gap after filling it with a hole entry; the
+ * unique index on the sequence lets either the hole or the late event win, and an append that
+ * lost its number to a hole takes a new one.
+ */
+public class ProjectEventLog {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ProjectEventLog.class);
+    
+    private final MongoTemplate mongoTemplate;
+    
+    private Duration settleTime = Duration.ofSeconds(10);
+    
+    public ProjectEventLog(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+    
+    /**
+     * Create the indexes used for replaying a project's log
+     */
+    public void ensureIndexes() {
+        mongoTemplate.indexOps(ProjectEventLogEntry.class).ensureIndex(new Index()
+                .on("projectId", Sort.Direction.ASC)
+                .on("sequence", Sort.Direction.ASC)
+                .unique()
+                .named("projectId_sequence"));
+    }
+    
+    /**
+     * Append an event to its project's log
+     * 
+     * @param event The event
+     * @return The sequence number, or -1 if the event has no projectId or was already logged
+     */
+    public long append(BaseEvent event) {
+        String projectId = event instanceof ProjectEvent ? ((ProjectEvent) event).getProjectId() : null;
+        if (projectId == null) {
+            logger.debug("Not logging {} {} without projectId", event.getEventType(), event.getEventId());
+            return -1;
+        }
+        if (mongoTemplate.exists(query(where("_id").is(event.getEventId())), ProjectEventLogEntry.class)) {
+            return -1;
+        }
+        
+        String eventJson;
+        try {
+            eventJson = EventCodecs.objectMapper().writeValueAsString(event);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize event for the project log", e);
+        }
+        while (true) {
+            ProjectEventLogHead head = mongoTemplate.findAndModify(query(where("_id").is(projectId)),
+                    new Update().inc("sequence", 1).setOnInsert("snapshotSequence", 0L),
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), ProjectEventLogHead.class);
+            try {
+                mongoTemplate.insert(new ProjectEventLogEntry(event.getEventId(), projectId, head.getSequence(),
+                        event.getEventType(), eventJson));
+                return head.getSequence();
+            } catch (DuplicateKeyException e) {
+                if (mongoTemplate.exists(query(where("_id").is(event.getEventId())), ProjectEventLogEntry.class)) {
+                    // logged concurrently by another delivery; its sequence number is left to compaction as a hole
+                    return -1;
+                }
+                // a compaction filled the sequence number with a hole while the insert was on its way
+                logger.debug("Sequence {} of project {} was given up, logging {} again", head.getSequence(),
+                        projectId, event.getEventId());
+            }
+        }
+    }
+    
+    /**
+     * Replay a project's events in log order
+     * 
+     * @param projectId The project
+     * @param afterEventId Replay the events logged after this one, or {@code null} for all of them
+     * @param consumer Receives the events
+     * @return Number of replayed events
+     * @throws IllegalArgumentException if {@code afterEventId} is not in the project's log
+     */
+    public long replay(String projectId, String afterEventId, Consumer<? super BaseEvent> consumer) {
+        long afterSequence = afterEventId != null ? sequenceOf(projectId, afterEventId) : 0;
+        long[] count = new long[1];
+        forEachEntry(projectId, afterSequence, entry -> {
+            consumer.accept(toEvent(entry));
+            count[0]++;
+        });
+        return count[0];
+    }
+    
+    /**
+     * A page of a project's events in log order
+     * 
+     * @param projectId The project
+     * @param afterEventId Start after this event, or {@code null} to start at the beginning
+     * @param limit Maximum number of events
+     */
+    public List<BaseEvent> read(String projectId, String afterEventId, int limit) {
+        long afterSequence = afterEventId != null ? sequenceOf(projectId, afterEventId) : 0;
+        List<BaseEvent> events = new ArrayList<>();
+        for (ProjectEventLogEntry entry : mongoTemplate.find(entriesAfter(projectId, afterSequence).limit(limit),
+                ProjectEventLogEntry.class)) {
+            events.add(toEvent(entry));
+        }
+        return events;
+    }
+    
+    /**
+     * Current state of a project: its latest snapshot with the events logged since then folded in
+     * 
+     * @param projectId The project
+     * @return The state, or {@code null} if nothing was logged for the project
+     */
+    public ProjectState recover(String projectId) {
+        ProjectState state = loadSnapshot(projectId);
+        forEachEntry(projectId, state.getSequence(), entry -> state.apply(toEvent(entry), entry.getSequence()));
+        return state.getSequence() > 0 ? state : null;
+    }
+    
+    /**
+     * Store a new snapshot of a project. Events logged within the settle time are left for the
+     * next compaction. A gap before a settled event is filled with holes first; if its event is
+     * stored meanwhile, compaction stops there, so a late event is never left behind the snapshot.
+     * 
+     * @param projectId The project
+     * @return The sequence number of the snapshot, which is unchanged if no settled events followed it
+     */
+    public long compact(String projectId) {
+        ProjectState state = loadSnapshot(projectId);
+        long snapshotSequence = state.getSequence();
+        Date settledBefore = new Date(System.currentTimeMillis() - settleTime.toMillis());
+        try (Stream<ProjectEventLogEntry> entries = mongoTemplate.stream(
+                logAfter(projectId, snapshotSequence), ProjectEventLogEntry.class)) {
+            long next = snapshotSequence + 1;
+            for (Iterator<ProjectEventLogEntry> it = entries.iterator(); it.hasNext(); ) {
+                ProjectEventLogEntry entry = it.next();
+                if (!entry.isHole() && !entry.getLoggedAt().before(settledBefore)) {
+                    break;
+                }
+                if (!fillHoles(projectId, next, entry.getSequence())) {
+                    break;
+                }
+                if (!entry.isHole()) {
+                    state.apply(toEvent(entry), entry.getSequence());
+                }
+                next = entry.getSequence() + 1;
+            }
+        }
+        if (state.getSequence() == snapshotSequence) {
+            return snapshotSequence;
+        }
+        
+        try {
+            mongoTemplate.findAndReplace(query(where("_id").is(projectId).and("sequence").lt(state.getSequence())),
+                    new ProjectSnapshot(state), FindAndReplaceOptions.options().upsert());
+        } catch (DuplicateKeyException e) {
+            // another replica stored a newer snapshot meanwhile
+            return snapshotSequence;
+        }
+        mongoTemplate.updateFirst(query(where("_id").is(projectId).and("snapshotSequence").lt(state.getSequence())),
+                Update.update("snapshotSequence", state.getSequence()), ProjectEventLogHead.class);
+        logger.debug("Compacted project {} log from sequence {} to {}", projectId, snapshotSequence, state.getSequence());
+        return state.getSequence();
+    }
+    
+    /**
+     * Projects with at least {@code minEvents} events logged since their latest snapshot
+     * 
+     * @param minEvents Minimum number of events since the snapshot
+     * @param limit Maximum number of projects
+     */
+    public List<String> findProjectsToCompact(long minEvents, int limit) {
+        Query query = query(Criteria.expr(ComparisonOperators
+                .valueOf(ArithmeticOperators.valueOf("sequence").subtract("snapshotSequence"))
+                .greaterThanEqualToValue(minEvents)))
+                .limit(limit);
+        query.fields().include("_id");
+        List<String> projectIds = new ArrayList<>();
+        for (ProjectEventLogHead head : mongoTemplate.find(query, ProjectEventLogHead.class)) {
+            projectIds.add(head.getId());
+        }
+        return projectIds;
+    }
+    
+    /**
+     * Fill the unused sequence numbers from {@code from} up to (excluding) {@code to} with holes
+     * 
+     * @return {@code false} if an event (or another compaction's hole) took one of them first
+     */
+    private boolean fillHoles(String projectId, long from, long to) {
+        for (long sequence = from; sequence < to; sequence++) {
+            try {
+                mongoTemplate.insert(ProjectEventLogEntry.hole(projectId, sequence));
+            } catch (DuplicateKeyException e) {
+                logger.debug("Sequence {} of project {} was logged late, compacting up to it", sequence, projectId);
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private ProjectState loadSnapshot(String projectId) {
+        ProjectSnapshot snapshot = mongoTemplate.findById(projectId, ProjectSnapshot.class);
+        return snapshot != null && snapshot.getState() != null ? snapshot.getState() : new ProjectState(projectId);
+    }
+    
+    private long sequenceOf(String projectId, String eventId) {
+        ProjectEventLogEntry entry = mongoTemplate.findById(eventId, ProjectEventLogEntry.class);
+        if (entry == null || !projectId.equals(entry.getProjectId())) {
+            throw new IllegalArgumentException("Event " + eventId + " is not in the log of project " + projectId);
+        }
+        return entry.getSequence();
+    }
+    
+    private void forEachEntry(String projectId, long afterSequence, Consumer<ProjectEventLogEntry> consumer) {
+        try (Stream<ProjectEventLogEntry> entries = mongoTemplate.stream(
+                entriesAfter(projectId, afterSequence), ProjectEventLogEntry.class)) {
+            entries.forEachOrdered(consumer);
+        }
+    }
+    
+    private static Query entriesAfter(String projectId, long afterSequence) {
+        return query(where("projectId").is(projectId).and("sequence").gt(afterSequence).and("eventType").ne(null))
+                .with(Sort.by("sequence"));
+    }
+    
+    /**
+     * The events and holes after a sequence number
+     */
+    private static Query logAfter(String projectId, long afterSequence) {
+        return query(where("projectId").is(projectId).and("sequence").gt(afterSequence))
+                .with(Sort.by("sequence"));
+    }
+    
+    private static BaseEvent toEvent(ProjectEventLogEntry entry) {
+        try {
+            return EventCodecs.objectMapper().readValue(entry.getEvent(), EventTypes.forName(entry.getEventType()));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read logged event " + entry.getId(), e);
+        }
+    }
+    
+    public void setSettleTime(Duration settleTime) {
+        this.settleTime = settleTime;
+    }
+}
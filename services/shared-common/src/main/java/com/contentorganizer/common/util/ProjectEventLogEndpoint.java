@@ -0,0 +1,47 @@
+package com.contentorganizer.common.util;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint ({@code /actuator/eventlog}) to recover a project's state and replay its events
+ */
+@Endpoint(id = "eventlog")
+public class ProjectEventLogEndpoint {
+    
+    private final ProjectEventLog eventLog;
+    
+    public ProjectEventLogEndpoint(ProjectEventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+    
+    /**
+     * Current state of a project, from its latest snapshot and the events since. With
+     * {@code after} or {@code count}, also the events logged after the given eventId (or from
+     * the beginning), in log order.
+     */
+    @ReadOperation
+    public Map<String, Object> project(@Selector String projectId, @Nullable String after, @Nullable Integer count) {
+        Map<String, Object> project = new LinkedHashMap<>();
+        project.put("state", eventLog.recover(projectId));
+        if (after != null || count != null) {
+            project.put("events", eventLog.read(projectId, after, count != null ? count : 100));
+        }
+        return project;
+    }
+    
+    /**
+     * Snapshot a project now
+     */
+    @WriteOperation
+    public Map<String, Object> compact(@Selector String projectId) {
+        return Collections.singletonMap("sequence", eventLog.compact(projectId));
+    }
+}
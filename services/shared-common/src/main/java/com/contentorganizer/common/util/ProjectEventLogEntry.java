@@ -0,0 +1,80 @@
+package com.contentorganizer.common.util;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * An event in the append-only log of its project, stored as JSON
+ */
+@Document(collection = "project_event_log")
+public class ProjectEventLogEntry {
+    
+    /**
+     * The eventId, so an event is logged once however often it is delivered
+     */
+    @Id
+    private String id;
+    
+    private String projectId;
+    
+    /**
+     * Position in the project's log, increasing. Numbers handed out without an event being stored
+     * under them are filled with holes by compaction.
+     */
+    private long sequence;
+    
+    private String eventType;
+    
+    private String event;
+    
+    private Date loggedAt;
+    
+    public ProjectEventLogEntry() {
+    }
+    
+    public ProjectEventLogEntry(String id, String projectId, long sequence, String eventType, String event) {
+        this.id = id;
+        this.projectId = projectId;
+        this.sequence = sequence;
+        this.eventType = eventType;
+        this.event = event;
+        this.loggedAt = new Date();
+    }
+    
+    /**
+     * Marker for a sequence number no event was stored under, see {@link ProjectEventLog#compact}
+     */
+    static ProjectEventLogEntry hole(String projectId, long sequence) {
+        return new ProjectEventLogEntry("hole:" + projectId + ":" + sequence, projectId, sequence, null, null);
+    }
+    
+    public boolean isHole() {
+        return eventType == null;
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public String getProjectId() {
+        return projectId;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public String getEventType() {
+        return eventType;
+    }
+    
+    public String getEvent() {
+        return event;
+    }
+    
+    public Date getLoggedAt() {
+        return loggedAt;
+    }
+}
@@ -0,0 +1,36 @@
+package com.contentorganizer.common.util;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Last sequence number handed out in a project's log and the sequence of its latest snapshot
+ */
+@Document(collection = "project_event_log_heads")
+public class ProjectEventLogHead {
+    
+    /**
+     * The projectId
+     */
+    @Id
+    private String id;
+    
+    private long sequence;
+    
+    private long snapshotSequence;
+    
+    public ProjectEventLogHead() {
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public long getSnapshotSequence() {
+        return snapshotSequence;
+    }
+}
@@ -0,0 +1,31 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.event.BaseEvent;
+import com.contentorganizer.common.event.ImageReadyEvent;
+import com.contentorganizer.common.event.MusicReadyEvent;
+import com.contentorganizer.common.event.SEOReadyEvent;
+import com.contentorganizer.common.event.VideoCreationStartedEvent;
+import com.contentorganizer.common.event.VideoPublishedEvent;
+import com.contentorganizer.common.event.VideoReadyEvent;
+
+import java.util.List;
+
+/**
+ * Appends the events of a video project's lifecycle to the {@link ProjectEventLog}
+ */
+public class ProjectEventLogListener extends EventListener {
+    
+    private static final List<Class<? extends BaseEvent>> PROJECT_EVENTS = List.of(
+            VideoCreationStartedEvent.class,
+            MusicReadyEvent.class,
+            ImageReadyEvent.class,
+            SEOReadyEvent.class,
+            VideoReadyEvent.class,
+            VideoPublishedEvent.class);
+    
+    public ProjectEventLogListener(ProjectEventLog eventLog) {
+        for (Class<? extends BaseEvent> eventClass : PROJECT_EVENTS) {
+            on(eventClass, eventLog::append);
+        }
+    }
+}
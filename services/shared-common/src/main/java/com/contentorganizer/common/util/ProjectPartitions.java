@@ -0,0 +1,563 @@
+package com.contentorganizer.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Splits the projects of a service between its replicas.
+ * <p>
+ * Every projectId hashes to one of {@code partitions} partitions, and each partition is leased
+ * to one replica (member) through Redis. Every {@code heartbeatInterval} a member registers
+ * itself in the sorted set {@code events:partitions:{<group>}:members}, drops members whose last
+ * heartbeat is older than {@code leaseTime}, and assigns the partitions round-robin over the live
+ * members in name order, so all members compute the same assignment. It then renews the leases
+ * of its partitions, releases the ones assigned to someone else and acquires the new ones once
+ * their previous owner released them or its lease expired. A partition therefore has at most one
+ * owner at a time, and members joining or leaving are balanced out within a few heartbeats.
+ * <p>
+ * {@link Listener}s are told about partitions before they are released, so their state can be
+ * written for the next owner, and after new ones were acquired, so the state can be loaded.
+ * <p>
+ * While a partition changes owner, or before the first heartbeat, no member may be handling its
+ * events. Members therefore {@link #defer} the events of partitions they do not own until a
+ * heartbeat shows who handles them: a member that acquired the partition replays them, and they
+ * are dropped once another live member holds the partition's lease and has sent a heartbeat
+ * since the event arrived. A member giving up a partition first marks its lease as revoking, so
+ * the others keep deferring from the moment it stops handling the partition. Deferred events are
+ * held for at most the lease time plus two heartbeats, long enough for the partitions of a crashed
+ * member to be taken over. Events received just before a handover may be handled by both owners.
+ */
+public class ProjectPartitions implements SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ProjectPartitions.class);
+    
+    private static final String REVOKING = "revoking:";
+    
+    /**
+     * KEYS: lease per partition; ARGV: member, lease millis, then per key 1 to keep or acquire it,
+     * r to mark it as revoking and 0 to release it. Returns per key 1 if the member holds the
+     * lease afterwards.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final RedisScript<List<Long>> LEASE_SCRIPT = (RedisScript) new DefaultRedisScript<>(
+            "local held = {}\n" +
+            "local revoking = '" + REVOKING + "' .. ARGV[1]\n" +
+            "for i, key in ipairs(KEYS) do\n" +
+            "  local owner = redis.call('GET', key)\n" +
+            "  if ARGV[i + 2] == '1' then\n" +
+            "    if owner == ARGV[1] then\n" +
+            "      redis.call('PEXPIRE', key, ARGV[2])\n" +
+            "      held[i] = 1\n" +
+            "    elseif not owner then\n" +
+            "      redis.call('SET', key, ARGV[1], 'PX', ARGV[2])\n" +
+            "      held[i] = 1\n" +
+            "    else\n" +
+            "      held[i] = 0\n" +
+            "    end\n" +
+            "  elseif ARGV[i + 2] == 'r' then\n" +
+            "    if owner == ARGV[1] then\n" +
+            "      redis.call('SET', key, revoking, 'PX', ARGV[2])\n" +
+            "    end\n" +
+            "    held[i] = 0\n" +
+            "  else\n" +
+            "    if owner == ARGV[1] or owner == revoking then\n" +
+            "      redis.call('DEL', key)\n" +
+            "    end\n" +
+            "    held[i] = 0\n" +
+            "  end\n" +
+            "end\n" +
+            "return held", List.class);
+    
+    /**
+     * An event held back until it is known who handles its partition
+     */
+    private static final class Deferred {
+        
+        private final int partition;
+        private final long receivedAt = System.currentTimeMillis();
+        private final Runnable task;
+        
+        private Deferred(int partition, Runnable task) {
+            this.partition = partition;
+            this.task = task;
+        }
+    }
+    
+    /**
+     * Told about changes of the partitions this member owns
+     */
+    public interface Listener {
+        
+        /**
+         * Partitions this member owns from now on
+         */
+        void onAssigned(Set<Integer> partitions);
+        
+        /**
+         * Partitions this member is about to release; events of their projects are no longer
+         * handled here
+         */
+        void onRevoked(Set<Integer> partitions);
+        
+        /**
+         * Partitions whose lease expired before it was renewed, so another member may already own
+         * them. Defaults to {@link #onRevoked(Set)}.
+         */
+        default void onLost(Set<Integer> partitions) {
+            onRevoked(partitions);
+        }
+    }
+    
+    private final RedisTemplate<String, String> redisTemplate;
+    private final String group;
+    private final String member;
+    private final int partitions;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Deque<Deferred> deferred = new ArrayDeque<>();
+    
+    private String keyPrefix = "events:partitions:";
+    private Duration heartbeatInterval = Duration.ofSeconds(1);
+    private Duration leaseTime = Duration.ofSeconds(10);
+    private int maxDeferred = 10_000;
+    
+    private volatile BitSet owned = new BitSet();
+    private volatile List<String> members = List.of();
+    private volatile long renewedAt;
+    
+    private volatile boolean running;
+    private Thread heartbeatThread;
+    
+    /**
+     * @param redisTemplate The Redis template
+     * @param group The members sharing the partitions, i.e. the service
+     * @param member This member, i.e. the replica
+     * @param partitions Number of partitions, the same on all members
+     */
+    public ProjectPartitions(RedisTemplate<String, String> redisTemplate, String group, String member, int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Number of partitions must be positive");
+        }
+        this.redisTemplate = redisTemplate;
+        this.group = group;
+        this.member = member;
+        this.partitions = partitions;
+    }
+    
+    /**
+     * The partition of a project, spread the same way on every member
+     * 
+     * @param projectId The project
+     */
+    public int partitionOf(String projectId) {
+        int hash = projectId.hashCode();
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, partitions);
+    }
+    
+    /**
+     * Whether the events of a project are handled by this member
+     * 
+     * @param projectId The project
+     */
+    public boolean owns(String projectId) {
+        return owned.get(partitionOf(projectId));
+    }
+    
+    /**
+     * The partitions this member currently owns
+     */
+    public Set<Integer> getOwned() {
+        return toSet(owned);
+    }
+    
+    /**
+     * The live members as of the last heartbeat, in assignment order
+     */
+    public List<String> getMembers() {
+        return members;
+    }
+    
+    public String getMember() {
+        return member;
+    }
+    
+    public int getPartitions() {
+        return partitions;
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Hold back an event of a project this member does not own, until a heartbeat shows whether
+     * its partition's owner handled it. The task is run if this member acquires the partition.
+     * 
+     * @param projectId The project
+     * @param task Handles the event
+     * @return {@code false} if this member owns the project by now, so the caller handles the event
+     */
+    public boolean defer(String projectId, Runnable task) {
+        int partition = partitionOf(projectId);
+        synchronized (deferred) {
+            if (owned.get(partition)) {
+                return false;
+            }
+            if (deferred.size() >= maxDeferred) {
+                deferred.pollFirst();
+                logger.warn("More than {} deferred events in group '{}', dropped the oldest", maxDeferred, group);
+            }
+            deferred.addLast(new Deferred(partition, task));
+        }
+        return true;
+    }
+    
+    /**
+     * Number of events held back until their partition's owner is known
+     */
+    public int getDeferred() {
+        synchronized (deferred) {
+            return deferred.size();
+        }
+    }
+    
+    /**
+     * Renew this member's registration and leases and apply the current assignment
+     * 
+     * @return The partitions owned afterwards
+     */
+    public synchronized Set<Integer> heartbeat() {
+        long now = System.currentTimeMillis();
+        String membersKey = membersKey();
+        redisTemplate.opsForZSet().add(membersKey, member, now);
+        redisTemplate.opsForZSet().removeRangeByScore(membersKey, Double.NEGATIVE_INFINITY, now - leaseTime.toMillis());
+        redisTemplate.expire(membersKey, leaseTime.multipliedBy(6));
+        Set<ZSetOperations.TypedTuple<String>> live = redisTemplate.opsForZSet().rangeWithScores(membersKey, 0, -1);
+        Map<String, Long> lastSeen = new HashMap<>();
+        if (live != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : live) {
+                lastSeen.put(tuple.getValue(), tuple.getScore() != null ? tuple.getScore().longValue() : 0L);
+            }
+        }
+        List<String> sorted = new ArrayList<>(new TreeSet<>(lastSeen.keySet()));
+        if (!sorted.contains(member)) {
+            // removed by a member whose clock is ahead; count ourselves in until the next heartbeat
+            sorted.add(member);
+            Collections.sort(sorted);
+        }
+        members = List.copyOf(sorted);
+        
+        BitSet target = new BitSet(partitions);
+        int index = sorted.indexOf(member);
+        for (int partition = index; partition < partitions; partition += sorted.size()) {
+            target.set(partition);
+        }
+        
+        BitSet current = owned;
+        BitSet revoked = (BitSet) current.clone();
+        revoked.andNot(target);
+        if (!revoked.isEmpty()) {
+            // marked first, so the other members defer the events this member stops handling now
+            lease(new BitSet(), new BitSet(), revoked);
+            // stop handling them before the state is handed over
+            BitSet kept = (BitSet) current.clone();
+            kept.and(target);
+            owned = kept;
+            notifyListeners(revoked, Listener::onRevoked);
+        }
+        
+        BitSet held = lease(target, revoked, new BitSet());
+        BitSet lost = (BitSet) current.clone();
+        lost.and(target);
+        lost.andNot(held);
+        BitSet assigned = (BitSet) held.clone();
+        assigned.andNot(current);
+        BitSet kept = (BitSet) held.clone();
+        kept.and(current);
+        owned = kept;
+        renewedAt = now;
+        if (!lost.isEmpty()) {
+            logger.warn("Lost the lease of partitions {} of group '{}'", toSet(lost), group);
+            notifyListeners(lost, Listener::onLost);
+        }
+        if (!assigned.isEmpty()) {
+            notifyListeners(assigned, Listener::onAssigned);
+        }
+        List<String> owners = redisTemplate.opsForValue().multiGet(leaseKeys());
+        synchronized (deferred) {
+            // replayed before the new partitions count as owned, so later events queue up behind them
+            resolveDeferred(held, owners, lastSeen, now);
+            owned = held;
+        }
+        if (!revoked.isEmpty() || !assigned.isEmpty() || !lost.isEmpty()) {
+            logger.info("Member '{}' of group '{}' owns {} of {} partitions ({} members)", member, group,
+                    held.cardinality(), partitions, sorted.size());
+        }
+        return toSet(held);
+    }
+    
+    /**
+     * Settle the deferred events after a heartbeat: replay those of partitions this member holds
+     * now, drop those a live owner handled, and keep the others until they expire
+     * 
+     * @param owners Lease value per partition, {@code null} where nobody holds it
+     * @param lastSeen Last heartbeat per live member
+     */
+    private void resolveDeferred(BitSet held, List<String> owners, Map<String, Long> lastSeen, long now) {
+        long expireBefore = now - leaseTime.plus(heartbeatInterval.multipliedBy(2)).toMillis();
+        int replayed = 0;
+        int expired = 0;
+        for (Iterator<Deferred> it = deferred.iterator(); it.hasNext(); ) {
+            Deferred event = it.next();
+            if (held.get(event.partition)) {
+                it.remove();
+                replay(event);
+                replayed++;
+                continue;
+            }
+            String owner = owners != null ? owners.get(event.partition) : null;
+            Long seen = owner != null ? lastSeen.get(owner) : null;
+            if (seen != null && seen >= event.receivedAt && !owner.equals(member)) {
+                // held by a member that was alive after the event arrived
+                it.remove();
+            } else if (event.receivedAt < expireBefore) {
+                it.remove();
+                expired++;
+            }
+        }
+        if (replayed > 0) {
+            logger.info("Replayed {} deferred events of partitions {} of group '{}'", replayed, toSet(held), group);
+        }
+        if (expired > 0) {
+            logger.warn("Dropped {} deferred events of group '{}' whose partitions had no live owner for {}", expired,
+                    group, leaseTime.plus(heartbeatInterval.multipliedBy(2)));
+        }
+    }
+    
+    private void replay(Deferred event) {
+        try {
+            event.task.run();
+        } catch (RuntimeException e) {
+            logger.error("Failed to replay a deferred event of partition {}", event.partition, e);
+        }
+    }
+    
+    /**
+     * Drop the deferred events that waited too long, while no heartbeat gets through
+     */
+    private void expireDeferred() {
+        long expireBefore = System.currentTimeMillis() - leaseTime.plus(heartbeatInterval.multipliedBy(2)).toMillis();
+        int expired = 0;
+        synchronized (deferred) {
+            while (!deferred.isEmpty() && deferred.peekFirst().receivedAt < expireBefore) {
+                deferred.pollFirst();
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            logger.warn("Dropped {} deferred events of group '{}' while the partitions could not be renewed", expired, group);
+        }
+    }
+    
+    /**
+     * Keep or acquire the leases of {@code wanted}, release those of {@code released} and mark
+     * those of {@code revoking} as about to be released
+     * 
+     * @return The partitions whose lease this member holds
+     */
+    private BitSet lease(BitSet wanted, BitSet released, BitSet revoking) {
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        List<Integer> order = new ArrayList<>();
+        args.add(member);
+        args.add(String.valueOf(leaseTime.toMillis()));
+        for (int partition = 0; partition < partitions; partition++) {
+            String action = wanted.get(partition) ? "1"
+                    : revoking.get(partition) ? "r"
+                    : released.get(partition) ? "0"
+                    : null;
+            if (action != null) {
+                keys.add(leaseKey(partition));
+                args.add(action);
+                order.add(partition);
+            }
+        }
+        BitSet held = new BitSet(partitions);
+        if (keys.isEmpty()) {
+            return held;
+        }
+        List<Long> result = redisTemplate.execute(LEASE_SCRIPT, keys, args.toArray());
+        for (int i = 0; result != null && i < result.size(); i++) {
+            if (result.get(i) != null && result.get(i) == 1) {
+                held.set(order.get(i));
+            }
+        }
+        return held;
+    }
+    
+    private void notifyListeners(BitSet partitionSet, BiConsumer<Listener, Set<Integer>> callback) {
+        Set<Integer> changed = toSet(partitionSet);
+        for (Listener listener : listeners) {
+            try {
+                callback.accept(listener, changed);
+            } catch (RuntimeException e) {
+                logger.error("Partition listener {} failed for partitions {}", listener, changed, e);
+            }
+        }
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        try {
+            // a single member owns everything before the first event arrives
+            heartbeat();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to join the partitions of group '{}', retrying in {}", group, heartbeatInterval, e);
+        }
+        running = true;
+        heartbeatThread = new Thread(this::heartbeatLoop, "project-partitions");
+        heartbeatThread.setDaemon(true);
+        heartbeatThread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (heartbeatThread != null) {
+            heartbeatThread.interrupt();
+            heartbeatThread = null;
+        }
+        BitSet current = owned;
+        try {
+            lease(new BitSet(), new BitSet(), current);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to mark the partitions of member '{}' as revoking", member, e);
+        }
+        owned = new BitSet();
+        synchronized (deferred) {
+            deferred.clear();
+        }
+        if (!current.isEmpty()) {
+            notifyListeners(current, Listener::onRevoked);
+        }
+        // leave at once, so the others take over without waiting for the leases to expire
+        try {
+            redisTemplate.opsForZSet().remove(membersKey(), member);
+            lease(new BitSet(), current, new BitSet());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to release the partitions of member '{}'", member, e);
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Start after and stop before the state owners that listen to assignments, so they hand
+     * over their partitions while they still run
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE + 2000;
+    }
+    
+    private void heartbeatLoop() {
+        while (running) {
+            try {
+                Thread.sleep(heartbeatInterval.toMillis());
+                heartbeat();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.warn("Failed to renew the partitions of member '{}', retrying in {}", member, heartbeatInterval, e);
+                expireLeases();
+                expireDeferred();
+            }
+        }
+    }
+    
+    /**
+     * Give up the partitions once their leases must have expired, since another member may
+     * already own them
+     */
+    private synchronized void expireLeases() {
+        BitSet current = owned;
+        if (current.isEmpty() || System.currentTimeMillis() - renewedAt < leaseTime.toMillis()) {
+            return;
+        }
+        owned = new BitSet();
+        logger.warn("Leases of partitions {} of group '{}' expired", toSet(current), group);
+        notifyListeners(current, Listener::onLost);
+    }
+    
+    private String membersKey() {
+        // one hash slot per group, so the lease script also runs on Redis Cluster
+        return keyPrefix + "{" + group + "}:members";
+    }
+    
+    private String leaseKey(int partition) {
+        return keyPrefix + "{" + group + "}:" + partition;
+    }
+    
+    private List<String> leaseKeys() {
+        List<String> keys = new ArrayList<>(partitions);
+        for (int partition = 0; partition < partitions; partition++) {
+            keys.add(leaseKey(partition));
+        }
+        return keys;
+    }
+    
+    private static Set<Integer> toSet(BitSet bits) {
+        Set<Integer> set = new TreeSet<>();
+        bits.stream().forEach(set::add);
+        return Collections.unmodifiableSet(set);
+    }
+    
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+    
+    public void setHeartbeatInterval(Duration heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+    
+    public void setLeaseTime(Duration leaseTime) {
+        this.leaseTime = leaseTime;
+    }
+    
+    /**
+     * Most events held back at once; the oldest are dropped beyond that
+     */
+    public void setMaxDeferred(int maxDeferred) {
+        this.maxDeferred = maxDeferred;
+    }
+}
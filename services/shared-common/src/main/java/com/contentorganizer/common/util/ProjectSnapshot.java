@@ -0,0 +1,52 @@
+package com.contentorganizer.common.util;
+
+import com.contentorganizer.common.dto.ProjectState;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * State of a project folded from its log up to {@code sequence}
+ */
+@Document(collection = "project_snapshots")
+public class ProjectSnapshot {
+    
+    /**
+     * The projectId
+     */
+    @Id
+    private String id;
+    
+    private long sequence;
+    
+    private ProjectState state;
+    
+    private Date createdAt;
+    
+    public ProjectSnapshot() {
+    }
+    
+    public ProjectSnapshot(ProjectState state) {
+        this.id = state.getProjectId();
+        this.sequence = state.getSequence();
+        this.state = state;
+        this.createdAt = new Date();
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public ProjectState getState() {
+        return state;
+    }
+    
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,112 @@
+package com.contentorganizer.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Periodically snapshots projects whose log grew by {@code snapshotEvery} events since their
+ * latest snapshot, which bounds the number of events {@link ProjectEventLog#recover} has to read.
+ */
+public class ProjectSnapshotCompactor implements SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ProjectSnapshotCompactor.class);
+    
+    private final ProjectEventLog eventLog;
+    
+    private long snapshotEvery = 100;
+    private Duration interval = Duration.ofSeconds(30);
+    private int batchSize = 100;
+    
+    private volatile boolean running;
+    private Thread compactorThread;
+    
+    public ProjectSnapshotCompactor(ProjectEventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        compactorThread = new Thread(this::compactLoop, "event-log-compactor");
+        compactorThread.setDaemon(true);
+        compactorThread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (compactorThread != null) {
+            compactorThread.interrupt();
+            compactorThread = null;
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Snapshot the projects that are due, at most {@code batchSize} of them
+     * 
+     * @return Number of projects compacted
+     */
+    public int compactDue() {
+        int compacted = 0;
+        List<String> projectIds = eventLog.findProjectsToCompact(snapshotEvery, batchSize);
+        for (String projectId : projectIds) {
+            try {
+                eventLog.compact(projectId);
+                compacted++;
+            } catch (RuntimeException e) {
+                logger.warn("Failed to compact the event log of project {}", projectId, e);
+            }
+        }
+        return compacted;
+    }
+    
+    private void compactLoop() {
+        while (running) {
+            try {
+                compactDue();
+                Thread.sleep(interval.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Failed to compact project event logs, retrying in {}", interval, e);
+                sleepQuietly(interval);
+            }
+        }
+    }
+    
+    private static void sleepQuietly(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public void setSnapshotEvery(long snapshotEvery) {
+        this.snapshotEvery = snapshotEvery;
+    }
+    
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+    
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
@@ -0,0 +1,49 @@
+package com.contentorganizer.common.util;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Event transport backed by Redis pub/sub.
+ * Events are fire-and-forget: subscribers that are offline miss them.
+ */
+public class PubSubEventTransport implements EventTransport {
+    
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    
+    public PubSubEventTransport(RedisTemplate<String, String> redisTemplate,
+                                RedisMessageListenerContainer listenerContainer) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+    
+    @Override
+    public void send(String channelName, byte[] payload) {
+        byte[] channel = channelName.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(channel, payload));
+    }
+    
+    /**
+     * Publishes all events on one pipelined connection
+     */
+    @Override
+    public void sendBatch(List<SerializedEvent> events) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SerializedEvent event : events) {
+                connection.publish(event.getChannelName().getBytes(StandardCharsets.UTF_8), event.getPayload());
+            }
+            return null;
+        });
+    }
+    
+    @Override
+    public void subscribe(String channelName, EventListener listener) {
+        listenerContainer.addMessageListener(listener, new ChannelTopic(channelName));
+    }
+}
@@ -0,0 +1,477 @@
+package com.contentorganizer.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamInfo.XInfoGroup;
+import org.springframework.data.redis.connection.stream.StreamInfo.XInfoGroups;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Event transport backed by Redis Streams.
+ * <p>
+ * Events are appended with XADD to one stream per channel. Every service reads its
+ * channels through its own consumer group (XREADGROUP), so each replica of a service
+ * receives a share of the events and every service still sees all of them. Records are
+ * acknowledged with XACK once all listeners handled them; records left pending by a
+ * crashed or stuck consumer are reclaimed with XCLAIM after {@code claimIdleTime}.
+ * <p>
+ * With {@code shards > 1} every channel is split into that many streams
+ * ({@code events:<channel>:<shard>}), chosen by the event's shard key (projectId), so a
+ * Redis Cluster spreads a busy channel over its nodes while each project stays in order. In
+ * cluster mode streams are read one key at a time, since a multi-key XREADGROUP must not span
+ * hash slots.
+ * <p>
+ * Records still unacknowledged after {@code maxDeliveries} deliveries are moved to the
+ * channel's dead-letter stream ({@code events:dlq:<group>:<channel>}), the one
+ * {@link EventRetryScheduler} writes, so they can be inspected and replayed.
+ */
+public class RedisStreamEventTransport implements EventTransport, SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RedisStreamEventTransport.class);
+    
+    static final byte[] PAYLOAD_FIELD = "payload".getBytes(StandardCharsets.UTF_8);
+    
+    private final RedisTemplate<String, String> redisTemplate;
+    private final String group;
+    private final String consumerName;
+    private final Map<String, List<EventListener>> listeners = new ConcurrentHashMap<>();
+    private final Map<String, String> channelsByKey = new ConcurrentHashMap<>();
+    
+    private String keyPrefix = "events:";
+    private int batchSize = 50;
+    private Duration pollTimeout = Duration.ofSeconds(2);
+    private Duration claimIdleTime = Duration.ofMinutes(1);
+    private long maxLength = 100_000;
+    private int maxDeliveries = 5;
+    private long deadLetterMaxLength = 10_000;
+    private int shards = 1;
+    private boolean cluster;
+    
+    private volatile boolean running;
+    private Thread pollerThread;
+    private long lastReclaim;
+    
+    public RedisStreamEventTransport(RedisTemplate<String, String> redisTemplate, String group, String consumerName) {
+        this.redisTemplate = redisTemplate;
+        this.group = group;
+        this.consumerName = consumerName;
+    }
+    
+    @Override
+    public void send(String channelName, byte[] payload) {
+        send(new SerializedEvent(channelName, payload));
+    }
+    
+    @Override
+    public void send(SerializedEvent event) {
+        ByteRecord record = toRecord(event);
+        XAddOptions options = addOptions();
+        redisTemplate.execute((RedisCallback<RecordId>) connection -> connection.streamCommands().xAdd(record, options));
+    }
+    
+    /**
+     * Appends all events with pipelined XADDs
+     */
+    @Override
+    public void sendBatch(List<SerializedEvent> events) {
+        XAddOptions options = addOptions();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SerializedEvent event : events) {
+                connection.streamCommands().xAdd(toRecord(event), options);
+            }
+            return null;
+        });
+    }
+    
+    @Override
+    public void subscribe(String channelName, EventListener listener) {
+        for (int shard = 0; shard < shards; shard++) {
+            String key = streamKey(channelName, shard);
+            createGroup(key);
+            channelsByKey.put(key, channelName);
+            listeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
+        }
+        logger.info("Subscribed listener {} to stream '{}' ({} shards) as {}/{}", listener.getClass().getSimpleName(),
+                streamKey(channelName, 0), shards, group, consumerName);
+    }
+    
+    /**
+     * Events of the channel that the consumer group has not read yet (the group's lag) plus the
+     * ones it read but not acknowledged, over all shards
+     */
+    @Override
+    public long getBacklog(String channelName) {
+        long backlog = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            byte[] rawKey = streamKey(channelName, shard).getBytes(StandardCharsets.UTF_8);
+            XInfoGroups groups;
+            try {
+                groups = redisTemplate.execute((RedisCallback<XInfoGroups>) connection ->
+                        connection.streamCommands().xInfoGroups(rawKey));
+            } catch (RuntimeException e) {
+                // the stream does not exist (yet)
+                continue;
+            }
+            if (groups == null) {
+                continue;
+            }
+            for (XInfoGroup info : groups) {
+                if (group.equals(info.groupName())) {
+                    // "lag" is reported by Redis 7 and later
+                    Object lag = info.getRaw().get("lag");
+                    backlog += info.pendingCount() + (lag instanceof Number ? ((Number) lag).longValue() : 0);
+                }
+            }
+        }
+        return backlog;
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        pollerThread = new Thread(this::pollLoop, "event-stream-poller");
+        pollerThread.setDaemon(true);
+        pollerThread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (pollerThread != null) {
+            pollerThread.interrupt();
+            pollerThread = null;
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    private void pollLoop() {
+        while (running) {
+            try {
+                if (listeners.isEmpty()) {
+                    Thread.sleep(pollTimeout.toMillis());
+                    continue;
+                }
+                if (System.currentTimeMillis() - lastReclaim >= claimIdleTime.toMillis()) {
+                    lastReclaim = System.currentTimeMillis();
+                    listeners.keySet().forEach(this::reclaimPending);
+                }
+                dispatch(readBatch());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Failed to read events from Redis streams", e);
+                sleepQuietly(pollTimeout);
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<ByteRecord> readBatch() throws InterruptedException {
+        if (cluster) {
+            return readBatchPerKey();
+        }
+        StreamOffset<byte[]>[] offsets = listeners.keySet().stream()
+                .map(key -> StreamOffset.create(key.getBytes(StandardCharsets.UTF_8), ReadOffset.lastConsumed()))
+                .toArray(StreamOffset[]::new);
+        StreamReadOptions options = StreamReadOptions.empty().count(batchSize).block(pollTimeout);
+        List<ByteRecord> records = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xReadGroup(Consumer.from(group, consumerName), options, offsets));
+        return records != null ? records : Collections.emptyList();
+    }
+    
+    /**
+     * Read every stream separately without blocking; sleeps a little when all were empty
+     */
+    @SuppressWarnings("unchecked")
+    private List<ByteRecord> readBatchPerKey() throws InterruptedException {
+        StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+        List<ByteRecord> records = new ArrayList<>();
+        for (String key : listeners.keySet()) {
+            StreamOffset<byte[]> offset = StreamOffset.create(key.getBytes(StandardCharsets.UTF_8), ReadOffset.lastConsumed());
+            List<ByteRecord> read = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                    connection.streamCommands().xReadGroup(Consumer.from(group, consumerName), options, offset));
+            if (read != null) {
+                records.addAll(read);
+            }
+        }
+        if (records.isEmpty()) {
+            Thread.sleep(Math.min(pollTimeout.toMillis(), 100));
+        }
+        return records;
+    }
+    
+    /**
+     * Hand every record to the listeners of its stream, wait until the whole batch was handled
+     * (listeners may process it in parallel) and acknowledge the handled records with a single
+     * XACK per stream. Failed records stay pending and are reclaimed later.
+     */
+    private void dispatch(List<ByteRecord> records) {
+        List<CompletableFuture<Void>> deliveries = new ArrayList<>(records.size());
+        for (ByteRecord record : records) {
+            deliveries.add(deliver(record));
+        }
+        
+        Map<String, List<RecordId>> handled = new HashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            ByteRecord record = records.get(i);
+            String key = new String(record.getStream(), StandardCharsets.UTF_8);
+            try {
+                deliveries.get(i).join();
+                handled.computeIfAbsent(key, k -> new ArrayList<>()).add(record.getId());
+            } catch (CompletionException e) {
+                logger.error("Failed to process record {} from stream '{}', leaving it pending", record.getId(), key, e.getCause());
+            }
+        }
+        handled.forEach(this::acknowledge);
+    }
+    
+    private CompletableFuture<Void> deliver(ByteRecord record) {
+        String key = new String(record.getStream(), StandardCharsets.UTF_8);
+        byte[] payload = payloadOf(record);
+        if (payload == null) {
+            logger.warn("Skipping record {} without payload on stream '{}'", record.getId(), key);
+            return CompletableFuture.completedFuture(null);
+        }
+        String channelName = channelName(key);
+        List<EventListener> subscribers = listeners.getOrDefault(key, Collections.emptyList());
+        CompletableFuture<?>[] results = new CompletableFuture<?>[subscribers.size()];
+        for (int i = 0; i < results.length; i++) {
+            try {
+                results[i] = subscribers.get(i).processEvent(channelName, payload);
+            } catch (Exception e) {
+                results[i] = CompletableFuture.failedFuture(e);
+            }
+        }
+        return CompletableFuture.allOf(results);
+    }
+    
+    /**
+     * Claim records that another consumer of the group left pending for longer than
+     * {@code claimIdleTime}, e.g. because the replica crashed mid-processing.
+     * Records that were delivered {@code maxDeliveries} times are dead-lettered.
+     */
+    private void reclaimPending(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        PendingMessages pending = redisTemplate.execute((RedisCallback<PendingMessages>) connection ->
+                connection.streamCommands().xPending(rawKey, group, Range.unbounded(), (long) batchSize));
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        
+        List<RecordId> stale = new ArrayList<>();
+        List<RecordId> exhausted = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(claimIdleTime) < 0) {
+                continue;
+            }
+            if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                exhausted.add(message.getId());
+            } else {
+                stale.add(message.getId());
+            }
+        }
+        
+        if (!exhausted.isEmpty()) {
+            deadLetter(key, exhausted);
+        }
+        if (stale.isEmpty()) {
+            return;
+        }
+        
+        XClaimOptions options = XClaimOptions.minIdle(claimIdleTime).ids(stale.toArray(new RecordId[0]));
+        List<ByteRecord> claimed = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(rawKey, group, consumerName, options));
+        if (claimed != null && !claimed.isEmpty()) {
+            logger.info("Reclaimed {} pending records from stream '{}'", claimed.size(), key);
+            dispatch(claimed);
+        }
+    }
+    
+    /**
+     * Append records to the channel's dead-letter stream, once per listener of the stream so
+     * each can be replayed to the listener that did not handle it, and acknowledge them. The
+     * records are claimed first, which gives their payload and makes sure only one replica
+     * dead-letters them.
+     */
+    private void deadLetter(String key, List<RecordId> ids) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        XClaimOptions claimOptions = XClaimOptions.minIdle(claimIdleTime).ids(ids.toArray(new RecordId[0]));
+        List<ByteRecord> claimed = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(rawKey, group, consumerName, claimOptions));
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+        
+        String channelName = channelName(key);
+        byte[] deadLetterKey = (keyPrefix + "dlq:" + group + ":" + channelName).getBytes(StandardCharsets.UTF_8);
+        List<EventListener> subscribers = listeners.getOrDefault(key, Collections.emptyList());
+        String error = "Not acknowledged after " + maxDeliveries + " deliveries";
+        long failedAt = System.currentTimeMillis();
+        XAddOptions addOptions = XAddOptions.maxlen(deadLetterMaxLength).approximateTrimming(true);
+        List<RecordId> deadLettered = new ArrayList<>(claimed.size());
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ByteRecord record : claimed) {
+                byte[] payload = payloadOf(record);
+                if (payload != null) {
+                    for (EventListener listener : subscribers) {
+                        FailedEvent failedEvent = new FailedEvent(null, EventRetryScheduler.listenerName(listener),
+                                channelName, maxDeliveries, error, failedAt, payload);
+                        connection.streamCommands().xAdd(EventRetryScheduler.deadLetterRecord(deadLetterKey, failedEvent), addOptions);
+                    }
+                }
+                deadLettered.add(record.getId());
+            }
+            return null;
+        });
+        logger.error("Moved {} records from stream '{}' to '{}' after {} delivery attempts: {}", deadLettered.size(), key,
+                new String(deadLetterKey, StandardCharsets.UTF_8), maxDeliveries, deadLettered);
+        acknowledge(key, deadLettered);
+    }
+    
+    private void acknowledge(String key, List<RecordId> ids) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        RecordId[] recordIds = ids.toArray(new RecordId[0]);
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.streamCommands().xAck(rawKey, group, recordIds));
+    }
+    
+    private void createGroup(String key) {
+        try {
+            redisTemplate.opsForStream().createGroup(key, ReadOffset.from("0"), group);
+            logger.info("Created consumer group '{}' on stream '{}'", group, key);
+        } catch (RuntimeException e) {
+            if (!isBusyGroup(e)) {
+                throw e;
+            }
+            // the group already exists, which is the normal case after the first replica started
+            logger.debug("Consumer group '{}' already exists on stream '{}'", group, key);
+        }
+    }
+    
+    /**
+     * Whether Redis refused to create a consumer group because it already exists
+     */
+    private static boolean isBusyGroup(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private ByteRecord toRecord(SerializedEvent event) {
+        int shard = event.getShardKey() != null ? Math.floorMod(event.getShardKey().hashCode(), shards) : 0;
+        return StreamRecords.newRecord()
+                .in(streamKey(event.getChannelName(), shard).getBytes(StandardCharsets.UTF_8))
+                .ofBytes(Collections.singletonMap(PAYLOAD_FIELD, event.getPayload()));
+    }
+    
+    private String channelName(String key) {
+        return channelsByKey.getOrDefault(key, key.substring(keyPrefix.length()));
+    }
+    
+    private XAddOptions addOptions() {
+        return XAddOptions.maxlen(maxLength).approximateTrimming(true);
+    }
+    
+    private String streamKey(String channelName, int shard) {
+        return shards > 1 ? keyPrefix + channelName + ":" + shard : keyPrefix + channelName;
+    }
+    
+    private static byte[] payloadOf(ByteRecord record) {
+        for (Map.Entry<byte[], byte[]> field : record.getValue().entrySet()) {
+            if (Arrays.equals(PAYLOAD_FIELD, field.getKey())) {
+                return field.getValue();
+            }
+        }
+        return null;
+    }
+    
+    private static void sleepQuietly(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+    
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+    
+    public void setPollTimeout(Duration pollTimeout) {
+        this.pollTimeout = pollTimeout;
+    }
+    
+    public void setClaimIdleTime(Duration claimIdleTime) {
+        this.claimIdleTime = claimIdleTime;
+    }
+    
+    public void setMaxLength(long maxLength) {
+        this.maxLength = maxLength;
+    }
+    
+    public void setMaxDeliveries(int maxDeliveries) {
+        this.maxDeliveries = maxDeliveries;
+    }
+    
+    public void setDeadLetterMaxLength(long deadLetterMaxLength) {
+        this.deadLetterMaxLength = deadLetterMaxLength;
+    }
+    
+    /**
+     * Number of streams per channel; must be the same for all publishers and consumers
+     */
+    public void setShards(int shards) {
+        this.shards = Math.max(1, shards);
+    }
+    
+    /**
+     * Read streams one at a time, as required by Redis Cluster
+     */
+    public void setCluster(boolean cluster) {
+        this.cluster = cluster;
+    }
+}
@@ -0,0 +1,38 @@
+package com.contentorganizer.common.util;
+
+/**
+ * A serialized event together with the channel it is sent to and the key that transports with
+ * sharded channels use to pick the shard
+ */
+public final class SerializedEvent {
+    
+    private final String channelName;
+    private final byte[] payload;
+    private final String shardKey;
+    
+    public SerializedEvent(String channelName, byte[] payload) {
+        this(channelName, payload, null);
+    }
+    
+    /**
+     * @param shardKey Events with the same shard key stay in order on sharded channels, usually the
+     *                 projectId; {@code null} for the first shard
+     */
+    public SerializedEvent(String channelName, byte[] payload, String shardKey) {
+        this.channelName = channelName;
+        this.payload = payload;
+        this.shardKey = shardKey;
+    }
+    
+    public String getChannelName() {
+        return channelName;
+    }
+    
+    public byte[] getPayload() {
+        return payload;
+    }
+    
+    public String getShardKey() {
+        return shardKey;
+    }
+}
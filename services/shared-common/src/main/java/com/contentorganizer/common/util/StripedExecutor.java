@@ -0,0 +1,193 @@
+package com.contentorganizer.common.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor with N single-threaded lanes. Tasks are assigned to a lane by hashing a key, so
+ * tasks with the same key (e.g. a projectId) run one after another in submission order while
+ * different keys run in parallel. Every lane has a bounded queue; what happens when it is full
+ * is decided by the {@link RejectionPolicy}.
+ */
+public class StripedExecutor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(StripedExecutor.class);
+    
+    /**
+     * What to do with a task when the queue of its lane is full
+     */
+    public enum RejectionPolicy {
+        /** Wait for room in the lane; keeps ordering and slows down the producer */
+        BLOCK,
+        /** Run the task on the submitting thread; no loss, but may overtake queued tasks of the same key */
+        CALLER_RUNS,
+        /** Fail the task */
+        ABORT,
+        /** Fail the oldest queued task of the lane and queue the new one */
+        DISCARD_OLDEST
+    }
+    
+    private final String name;
+    private final ThreadPoolExecutor[] lanes;
+    
+    public StripedExecutor(String name, int laneCount, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        this.name = name;
+        this.lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String threadName = name + "-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    rejectionHandler(rejectionPolicy));
+        }
+        logger.info("Started striped executor '{}' with {} lanes (queue capacity {}, policy {})",
+                name, laneCount, queueCapacity, rejectionPolicy);
+    }
+    
+    /**
+     * Run a task on the lane of the given key
+     * 
+     * @param key The ordering key; tasks with equal keys never run concurrently
+     * @param task The task to run
+     * @return A future completed when the task finished, exceptionally if it failed or was rejected
+     */
+    public CompletableFuture<Void> submit(Object key, Runnable task) {
+        StripedTask stripedTask = new StripedTask(task);
+        try {
+            laneFor(key).execute(stripedTask);
+        } catch (RejectedExecutionException e) {
+            stripedTask.reject(e);
+        }
+        return stripedTask.future;
+    }
+    
+    /**
+     * Number of tasks waiting in each lane
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].getQueue().size();
+        }
+        return depths;
+    }
+    
+    /**
+     * Register an {@code events.lane.queue.depth} gauge per lane
+     * 
+     * @param registry The meter registry
+     * @param tags Tags added to every gauge, besides the executor name and lane number
+     */
+    public void bindTo(MeterRegistry registry, Iterable<Tag> tags) {
+        for (int i = 0; i < lanes.length; i++) {
+            ThreadPoolExecutor lane = lanes[i];
+            Gauge.builder("events.lane.queue.depth", lane, executor -> executor.getQueue().size())
+                    .description("Events waiting for a listener lane")
+                    .tags(tags)
+                    .tag("executor", name)
+                    .tag("lane", String.valueOf(i))
+                    .register(registry);
+        }
+    }
+    
+    public int getLaneCount() {
+        return lanes.length;
+    }
+    
+    /**
+     * Stop accepting tasks and wait for the queued ones to finish
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            try {
+                if (!lane.awaitTermination(10, TimeUnit.SECONDS)) {
+                    lane.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lane.shutdownNow();
+            }
+        }
+    }
+    
+    private ThreadPoolExecutor laneFor(Object key) {
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= (hash >>> 16);
+        return lanes[Math.floorMod(hash, lanes.length)];
+    }
+    
+    private static RejectedExecutionHandler rejectionHandler(RejectionPolicy policy) {
+        switch (policy) {
+            case BLOCK:
+                return (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Executor is shut down");
+                    }
+                    try {
+                        executor.getQueue().put(runnable);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for a free lane slot", e);
+                    }
+                };
+            case CALLER_RUNS:
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+            case DISCARD_OLDEST:
+                return (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Executor is shut down");
+                    }
+                    BlockingQueue<Runnable> queue = executor.getQueue();
+                    Runnable oldest = queue.poll();
+                    if (oldest instanceof StripedTask) {
+                        ((StripedTask) oldest).reject(new RejectedExecutionException("Discarded by a newer task"));
+                    }
+                    executor.execute(runnable);
+                };
+            default:
+                return new ThreadPoolExecutor.AbortPolicy();
+        }
+    }
+    
+    private static final class StripedTask implements Runnable {
+        
+        private final Runnable task;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        
+        private StripedTask(Runnable task) {
+            this.task = task;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                task.run();
+                future.complete(null);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }
+        
+        private void reject(RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
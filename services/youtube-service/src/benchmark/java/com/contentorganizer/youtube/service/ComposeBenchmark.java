@@ -0,0 +1,113 @@
+package com.contentorganizer.youtube.service;
+
+import com.contentorganizer.youtube.config.ComposeConfig;
+import com.contentorganizer.youtube.config.FFmpegConfig;
+import com.contentorganizer.youtube.config.FFmpegJobConfig;
+import com.contentorganizer.youtube.config.YouTubeConfig;
+import com.contentorganizer.youtube.model.FFmpegJob;
+import net.bramp.ffmpeg.FFmpeg;
+import net.bramp.ffmpeg.FFprobe;
+import net.bramp.ffmpeg.probe.FFmpegProbeResult;
+import net.bramp.ffmpeg.probe.FFmpegStream;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares the still-image composer with the upload path on the same hardware: the image is
+ * composed over the tracks with the {@code COMPOSE} command line, then the composed video is
+ * encoded again with the {@code PREPARE_UPLOAD} command line, the generic 30 fps encode a
+ * pre-rendered video goes through. Both run on this host, one after the other.
+ * <p>
+ * Usage: {@code ./gradlew :services:youtube-service:composeBenchmark -PbenchmarkArgs="0 cover.jpg a.mp3 b.mp3"}
+ * with the FFmpeg threads per encode (0 to let FFmpeg decide), the image and the tracks. FFmpeg and
+ * ffprobe are looked up like in the service, from {@code FFMPEG} and {@code FFPROBE} or the path.
+ */
+public class ComposeBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: ComposeBenchmark <threads> <image> <track>...");
+            System.exit(2);
+        }
+        int threads = Integer.parseInt(args[0]);
+        String imagePath = Paths.get(args[1]).toAbsolutePath().toString();
+        List<String> trackPaths = Arrays.asList(args).subList(2, args.length);
+        
+        FFmpeg ffmpeg = new FFmpeg();
+        FFprobe ffprobe = new FFprobe();
+        ComposeConfig composeConfig = new ComposeConfig();
+        FFmpegService ffmpegService = new FFmpegService(ffmpeg, ffprobe, new FFmpegConfig(), new YouTubeConfig(),
+                null, new FFmpegJobConfig(), null, composeConfig);
+        
+        Path workDir = Files.createTempDirectory("compose-benchmark");
+        try {
+            Path trackList = workDir.resolve("tracks.txt");
+            StringBuilder entries = new StringBuilder();
+            for (String trackPath : trackPaths) {
+                entries.append(FFmpegService.concatEntry(Paths.get(trackPath).toAbsolutePath().toString()));
+            }
+            Files.writeString(trackList, entries);
+            
+            String composed = workDir.resolve("composed.mp4").toString();
+            String uploaded = workDir.resolve("uploaded.mp4").toString();
+            System.out.printf("%d tracks, %dx%d, %d threads per encode%n", trackPaths.size(),
+                    composeConfig.getWidth(), composeConfig.getHeight(), threads);
+            report("compose", ffprobe, composed, run(ffmpegService.buildCommand(FFmpegJob.builder()
+                    .type(FFmpegJob.Type.COMPOSE)
+                    .threads(threads)
+                    .inputPath(imagePath)
+                    .outputPath(composed)
+                    .concatList(trackList.toString())
+                    .build())));
+            report("upload", ffprobe, uploaded, run(ffmpegService.buildCommand(FFmpegJob.builder()
+                    .type(FFmpegJob.Type.PREPARE_UPLOAD)
+                    .threads(threads)
+                    .inputPath(composed)
+                    .outputPath(uploaded)
+                    .build())));
+        } finally {
+            try (Stream<Path> paths = Files.walk(workDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+    
+    /**
+     * Run an FFmpeg command line to the end
+     * 
+     * @return Elapsed nanoseconds
+     */
+    private static long run(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        int exitCode = process.waitFor();
+        long elapsed = System.nanoTime() - start;
+        if (exitCode != 0) {
+            throw new IOException("FFmpeg exited with code " + exitCode + ": " + String.join(" ", command));
+        }
+        return elapsed;
+    }
+    
+    private static void report(String mode, FFprobe ffprobe, String outputPath, long elapsedNanos) throws IOException {
+        double seconds = elapsedNanos / 1e9;
+        FFmpegProbeResult probeResult = ffprobe.probe(outputPath);
+        double duration = probeResult.getFormat().duration;
+        long frames = probeResult.getStreams().stream()
+                .filter(stream -> stream.codec_type == FFmpegStream.CodecType.VIDEO)
+                .mapToLong(stream -> stream.nb_frames)
+                .findFirst()
+                .orElse(0);
+        System.out.printf("%-10s %10.1f s wall %10.1f fps %8.1fx realtime %12d bytes%n", mode, seconds,
+                frames / seconds, duration / seconds, Files.size(Paths.get(outputPath)));
+    }
+}
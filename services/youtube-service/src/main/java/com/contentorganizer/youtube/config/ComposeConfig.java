@@ -0,0 +1,19 @@
+package com.contentorganizer.youtube.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ffmpeg.compose")
+public class ComposeConfig {
+    private int width = 1920;
+    private int height = 1080;
+    // A still image needs few frames; every frame after a keyframe costs next to nothing
+    private int frameRate = 2;
+    // Keyframe interval, and the length of HLS segments
+    private int gopSeconds = 10;
+    private String preset = "medium";
+    private int audioBitrate = 192000;
+}
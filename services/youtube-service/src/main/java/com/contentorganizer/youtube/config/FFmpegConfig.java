@@ -15,6 +15,9 @@ import java.io.IOException;
 public class FFmpegConfig {
     private String tempDirectory = "./temp-videos";
     private String outputDirectory = "./processed-videos";
+    // ffprobe results kept in memory, and files probed at once by batch probes
+    private int probeCacheSize = 1000;
+    private int probeConcurrency = 4;
 
     @Bean
     public FFmpeg ffmpeg() throws IOException {
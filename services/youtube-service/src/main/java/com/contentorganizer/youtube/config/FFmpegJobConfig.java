@@ -0,0 +1,41 @@
+package com.contentorganizer.youtube.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ffmpeg.jobs")
+public class FFmpegJobConfig {
+    private String keyPrefix = "ffmpeg:{jobs}:";
+    // Pull jobs from the queue on this node; disable for submit-only replicas
+    private boolean workerEnabled = true;
+    private String workerId = "";
+    // Processor threads all FFmpeg processes of this node may use together, 0 for all processors
+    private int cpuBudget = 0;
+    // Threads of a job are its cost divided by this, between 1 and max-threads-per-job
+    private double costPerThread = 600;
+    private int maxThreadsPerJob = 4;
+    // Live streams encode in real time, so they need the same threads however long they are
+    private int streamThreads = 2;
+    // Uploads at least this long are split into segments encoded in parallel, 0 to never split
+    private Duration segmentThreshold = Duration.ofMinutes(10);
+    private Duration minSegmentDuration = Duration.ofMinutes(2);
+    private int segmentThreads = 2;
+    // 0 for as many segments as the cpu budget has room for at segment-threads each
+    private int maxSegments = 0;
+    // A job whose lease is not renewed within this time is given to another worker
+    private Duration leaseTime = Duration.ofSeconds(30);
+    private Duration heartbeatInterval = Duration.ofSeconds(10);
+    private Duration pollInterval = Duration.ofSeconds(1);
+    private int maxAttempts = 3;
+    // How long finished jobs stay visible
+    private Duration retention = Duration.ofHours(24);
+    
+    public int getEffectiveCpuBudget() {
+        return cpuBudget > 0 ? cpuBudget : Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,20 @@
+package com.contentorganizer.youtube.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "youtube.live")
+public class LiveStreamConfig {
+    // Delay before restarting an encoder that stopped, doubled after each failure up to the maximum
+    private Duration restartDelay = Duration.ofSeconds(1);
+    private Duration maxRestartDelay = Duration.ofMinutes(1);
+    // An encoder that ran this long counts as healthy again, resetting the delay
+    private Duration stableAfter = Duration.ofMinutes(1);
+    // Put played tracks back at the end of the playlist, for round-the-clock radio
+    private boolean loop = true;
+}
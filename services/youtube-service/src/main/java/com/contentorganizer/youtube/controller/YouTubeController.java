@@ -1,9 +1,18 @@
 package com.contentorganizer.youtube.controller;
 
+import com.contentorganizer.youtube.dto.ComposeRequest;
+import com.contentorganizer.youtube.dto.LiveStreamRequest;
 import com.contentorganizer.youtube.dto.VideoResponse;
 import com.contentorganizer.youtube.dto.VideoStreamRequest;
 import com.contentorganizer.youtube.dto.VideoUploadRequest;
+import com.contentorganizer.youtube.model.FFmpegJob;
 import com.contentorganizer.youtube.model.UploadResult;
+import com.contentorganizer.youtube.model.VideoMetadata;
+import com.contentorganizer.youtube.service.FFmpegJobQueue;
+import com.contentorganizer.youtube.service.FFmpegJobWorker;
+import com.contentorganizer.youtube.service.FFmpegService;
+import com.contentorganizer.youtube.service.LiveStreamSupervisor;
+import com.contentorganizer.youtube.service.VideoProbeCache;
 import com.contentorganizer.youtube.service.YouTubeService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -15,11 +24,17 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 @RestController
 @RequestMapping("/api/youtube")
 @RequiredArgsConstructor
@@ -28,6 +43,11 @@ import reactor.core.publisher.Mono;
 public class YouTubeController {
 
     private final YouTubeService youTubeService;
+    private final FFmpegJobQueue jobQueue;
+    private final FFmpegJobWorker jobWorker;
+    private final FFmpegService ffmpegService;
+    private final VideoProbeCache probeCache;
+    private final LiveStreamSupervisor liveStream;
 
     @PostMapping("/upload")
     @Operation(summary = "Upload a video to YouTube", description = "Upload a video file to YouTube with optional AI-generated metadata")
@@ -45,6 +65,95 @@ public class YouTubeController {
                 .doOnError(e -> log.error("Error streaming video: {}", e.getMessage()));
     }
 
+    @PostMapping("/compose")
+    @Operation(summary = "Compose a video", description = "Queue a video of a still image over audio tracks played back to back")
+    public Mono<ResponseEntity<VideoResponse>> composeVideo(@Valid @RequestBody ComposeRequest request) {
+        return youTubeService.composeVideo(request)
+                .map(response -> "ERROR".equals(response.getStatus())
+                        ? ResponseEntity.badRequest().body(response)
+                        : ResponseEntity.ok(response))
+                .doOnError(e -> log.error("Error composing video: {}", e.getMessage()));
+    }
+
+    @PostMapping("/live/start")
+    @Operation(summary = "Start a live stream", description = "Stream a still image over a playlist to YouTube Live without pauses between tracks, restarting the encoder when the connection drops")
+    public ResponseEntity<Map<String, Object>> startLiveStream(@Valid @RequestBody LiveStreamRequest request) {
+        try {
+            liveStream.start(request.getImagePath(), request.getTrackPaths(), request.getLoop());
+            return ResponseEntity.ok(liveStream.getStatus());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(liveStreamError(e));
+        } catch (IOException e) {
+            log.error("Failed to start the live stream: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(liveStreamError(e));
+        }
+    }
+
+    @PostMapping("/live/tracks")
+    @Operation(summary = "Queue live stream tracks", description = "Append audio tracks to the playlist of the running live stream")
+    public ResponseEntity<Map<String, Object>> addLiveStreamTracks(@RequestBody List<String> trackPaths) {
+        try {
+            liveStream.addTracks(trackPaths);
+            return ResponseEntity.ok(liveStream.getStatus());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(liveStreamError(e));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body(liveStreamError(e));
+        }
+    }
+
+    @PostMapping("/live/stop")
+    @Operation(summary = "Stop the live stream", description = "Stop the live stream running on this replica")
+    public ResponseEntity<Map<String, Object>> stopLiveStream() {
+        if (!liveStream.stopStream()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(liveStreamError(new IllegalStateException("No live stream is running")));
+        }
+        return ResponseEntity.ok(liveStream.getStatus());
+    }
+
+    @GetMapping("/live/status")
+    @Operation(summary = "Get the live stream status", description = "Encoder state, restarts, current track and playlist of this replica's live stream")
+    public ResponseEntity<Map<String, Object>> getLiveStreamStatus() {
+        return ResponseEntity.ok(liveStream.getStatus());
+    }
+
+    @GetMapping("/jobs")
+    @Operation(summary = "List FFmpeg jobs", description = "Queued and running FFmpeg jobs of all replicas, and this replica's worker")
+    public ResponseEntity<Map<String, Object>> listJobs(
+            @Parameter(description = "Maximum number of queued jobs to list") @RequestParam(defaultValue = "50") int limit) {
+        Map<String, Object> jobs = new LinkedHashMap<>();
+        jobs.put("queuedCount", jobQueue.getQueuedCount());
+        jobs.put("queued", jobQueue.getQueued(limit));
+        jobs.put("running", jobQueue.getRunning());
+        jobs.put("worker", jobWorker.getStatus());
+        return ResponseEntity.ok(jobs);
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    @Operation(summary = "Get an FFmpeg job", description = "Status, worker, attempts and lease of a job")
+    public ResponseEntity<FFmpegJob> getJob(@PathVariable String jobId) {
+        FFmpegJob job = jobQueue.get(jobId);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
+
+    @PostMapping("/videos/metadata")
+    @Operation(summary = "Probe videos", description = "Metadata of many video files, probed in parallel and cached; files that cannot be probed are left out")
+    public ResponseEntity<Map<String, VideoMetadata>> getVideoMetadata(@RequestBody List<String> videoPaths) {
+        return ResponseEntity.ok(ffmpegService.getVideoMetadata(videoPaths));
+    }
+
+    @GetMapping("/videos/metadata/cache")
+    @Operation(summary = "Probe cache statistics", description = "Size and hit ratio of the ffprobe result cache")
+    public ResponseEntity<Map<String, Object>> getProbeCacheStats() {
+        return ResponseEntity.ok(probeCache.getStats());
+    }
+
+    private Map<String, Object> liveStreamError(Exception e) {
+        Map<String, Object> status = liveStream.getStatus();
+        status.put("error", e.getMessage());
+        return status;
+    }
+
     @GetMapping("/health")
     @Operation(summary = "Check service health", description = "Check if the YouTube service is running and properly configured")
     public ResponseEntity<String> healthCheck() {
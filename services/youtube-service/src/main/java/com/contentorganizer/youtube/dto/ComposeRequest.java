@@ -0,0 +1,24 @@
+package com.contentorganizer.youtube.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Schema(description = "Request object for rendering a still image over a playlist")
+public class ComposeRequest {
+    @NotBlank(message = "Image path is required")
+    @Schema(description = "Path to the image shown for the whole video", example = "/path/to/cover.png")
+    private String imagePath;
+
+    @NotEmpty(message = "At least one track is required")
+    @Schema(description = "Audio tracks, played back to back in this order", example = "[\"/music/1.mp3\", \"/music/2.mp3\"]")
+    private List<String> trackPaths;
+
+    @NotBlank(message = "Output path is required")
+    @Schema(description = "An .mp4 file, or an .m3u8 playlist to write HLS segments next to", example = "/path/to/video.mp4")
+    private String outputPath;
+}
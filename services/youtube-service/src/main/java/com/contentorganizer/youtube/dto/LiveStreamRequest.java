@@ -0,0 +1,22 @@
+package com.contentorganizer.youtube.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Schema(description = "Request object for a continuous live stream of a still image over a playlist")
+public class LiveStreamRequest {
+    @NotBlank(message = "Image path is required")
+    @Schema(description = "Path to the image shown for the whole stream", example = "/path/to/cover.png")
+    private String imagePath;
+
+    @Schema(description = "Audio tracks, played back to back in this order; silence is streamed while none are queued", example = "[\"/music/1.mp3\", \"/music/2.mp3\"]")
+    private List<String> trackPaths = new ArrayList<>();
+
+    @Schema(description = "Put played tracks back at the end of the playlist, defaults to youtube.live.loop", example = "true")
+    private Boolean loop;
+}
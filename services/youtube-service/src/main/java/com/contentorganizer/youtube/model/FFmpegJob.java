@@ -0,0 +1,79 @@
+package com.contentorganizer.youtube.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FFmpegJob {
+    
+    public enum Type {
+        PREPARE_UPLOAD,
+        STREAM,
+        // One part of the video of a long upload, encoded in parallel with the others
+        ENCODE_SEGMENT,
+        // Joins the encoded parts without re-encoding them and adds the audio
+        CONCAT_SEGMENTS,
+        // Loops a still image over audio tracks played back to back
+        COMPOSE
+    }
+    
+    // Queues are served in this order
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+    
+    public enum Status {
+        // Waits for the jobs it depends on before it is queued
+        WAITING,
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+    
+    private String id;
+    private Type type;
+    private Status status;
+    private Priority priority;
+    private String inputPath;
+    private String outputPath;
+    // Estimated encoding work in seconds of 1080p video
+    private double cost;
+    // Processor threads FFmpeg may use, reserved from the worker's budget
+    private int threads;
+    // Input range of an ENCODE_SEGMENT job, in seconds
+    private double segmentStart;
+    private double segmentDuration;
+    // Concat demuxer list of the files a CONCAT_SEGMENTS or COMPOSE job reads
+    private String concatList;
+    // Tracks of a PREPARE_UPLOAD job that already comply and are copied instead of encoded
+    private boolean copyVideo;
+    private boolean copyAudio;
+    
+    // Job waiting for this one, e.g. the CONCAT_SEGMENTS job of an ENCODE_SEGMENT job
+    private String dependentJob;
+    
+    // Jobs a WAITING job still waits for
+    private int pendingDependencies;
+    
+    private int attempts;
+    private String worker;
+    private Instant submittedAt;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private Instant leaseExpiresAt;
+    private String error;
+    
+    public boolean isDone() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+}
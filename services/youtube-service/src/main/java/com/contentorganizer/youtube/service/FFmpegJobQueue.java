@@ -0,0 +1,547 @@
+package com.contentorganizer.youtube.service;
+
+import com.contentorganizer.youtube.config.FFmpegJobConfig;
+import com.contentorganizer.youtube.model.FFmpegJob;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Redis-backed queue of FFmpeg jobs shared by all youtube-service replicas.
+ * <p>
+ * New jobs are pushed to the list {@code ffmpeg:{jobs}:queue:<priority>}; each job's state is the
+ * hash {@code ffmpeg:{jobs}:job:<id>}. Queues are served by priority and each queue in order;
+ * a worker claims the next job only if it has enough free threads for it, so a large job at the
+ * head is not overtaken by smaller ones behind it. Claiming moves the job into the sorted set
+ * {@code ffmpeg:{jobs}:leases}, scored by the time its lease expires, and renews the lease while
+ * FFmpeg runs. Jobs whose lease expired, because their worker died, are put back at the head of
+ * the queue, until they used up {@code maxAttempts}. Every transition is one Lua script, so a job
+ * is never run by two workers that both believe they hold it.
+ * <p>
+ * The replica that submitted a job is told about its outcome through the returned future,
+ * whichever replica ran it.
+ * <p>
+ * A job can wait for others ({@link #submitAfter}): it is queued by whichever worker finishes the
+ * last of them, so it runs even if the replica that submitted it is gone, and fails without
+ * running as soon as one of them failed for good.
+ */
+@Slf4j
+@Service
+public class FFmpegJobQueue implements SmartLifecycle {
+    
+    /**
+     * KEYS: leases, then the queues in priority order; ARGV: job key prefix, worker, now, lease
+     * expiry, free threads, thread budget. Jobs asking for more than the whole budget get all of it.
+     */
+    private static final RedisScript<String> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "for i = 2, #KEYS do\n" +
+            "  while true do\n" +
+            "    local id = redis.call('LINDEX', KEYS[i], -1)\n" +
+            "    if not id then break end\n" +
+            "    local key = ARGV[1] .. id\n" +
+            "    if redis.call('EXISTS', key) == 0 then\n" +
+            "      redis.call('RPOP', KEYS[i])\n" +
+            "    else\n" +
+            "      local threads = math.min(tonumber(redis.call('HGET', key, 'threads') or '1'), tonumber(ARGV[6]))\n" +
+            "      if threads > tonumber(ARGV[5]) then return false end\n" +
+            "      redis.call('RPOP', KEYS[i])\n" +
+            "      redis.call('ZADD', KEYS[1], ARGV[4], id)\n" +
+            "      redis.call('HSET', key, 'status', 'RUNNING', 'worker', ARGV[2], 'startedAt', ARGV[3], 'leaseExpiresAt', ARGV[4], 'threads', threads)\n" +
+            "      redis.call('HINCRBY', key, 'attempts', 1)\n" +
+            "      return id\n" +
+            "    end\n" +
+            "  end\n" +
+            "end\n" +
+            "return false", String.class);
+    
+    /**
+     * Runs once a job finished for good, with the locals key, id, status, now, err, retention and
+     * queues set: counts the job off the job waiting for it, which is queued after the last of
+     * its dependencies succeeded and fails as soon as one failed
+     */
+    private static final String RESOLVE_DEPENDENT =
+            "local dependent = redis.call('HGET', key, 'dependentJob')\n" +
+            "if dependent and dependent ~= '' then\n" +
+            "  local dependentKey = ARGV[1] .. dependent\n" +
+            "  if redis.call('HGET', dependentKey, 'status') == 'WAITING' then\n" +
+            "    if status == 'SUCCEEDED' then\n" +
+            "      if redis.call('HINCRBY', dependentKey, 'pendingDependencies', -1) <= 0 then\n" +
+            "        redis.call('HSET', dependentKey, 'status', 'QUEUED')\n" +
+            "        redis.call('LPUSH', queues .. (redis.call('HGET', dependentKey, 'priority') or 'NORMAL'), dependent)\n" +
+            "      end\n" +
+            "    else\n" +
+            "      redis.call('HSET', dependentKey, 'status', 'FAILED', 'finishedAt', now, 'error', 'Job ' .. id .. ' failed: ' .. err)\n" +
+            "      redis.call('EXPIRE', dependentKey, retention)\n" +
+            "    end\n" +
+            "  end\n" +
+            "end\n";
+    
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "local key = ARGV[1] .. ARGV[2]\n" +
+            "if redis.call('HGET', key, 'worker') == ARGV[3] and redis.call('ZSCORE', KEYS[1], ARGV[2]) then\n" +
+            "  redis.call('ZADD', KEYS[1], ARGV[4], ARGV[2])\n" +
+            "  redis.call('HSET', key, 'leaseExpiresAt', ARGV[4])\n" +
+            "  return 1\n" +
+            "end\n" +
+            "return 0", Long.class);
+    
+    private static final RedisScript<Long> FINISH_SCRIPT = new DefaultRedisScript<>(
+            "local key = ARGV[1] .. ARGV[2]\n" +
+            "if redis.call('HGET', key, 'worker') ~= ARGV[3] or redis.call('ZREM', KEYS[1], ARGV[2]) == 0 then\n" +
+            "  return 0\n" +
+            "end\n" +
+            "redis.call('HSET', key, 'status', ARGV[4], 'finishedAt', ARGV[5], 'error', ARGV[6])\n" +
+            "redis.call('HDEL', key, 'leaseExpiresAt')\n" +
+            "redis.call('EXPIRE', key, ARGV[7])\n" +
+            "local id, status, now, err, retention, queues = ARGV[2], ARGV[4], ARGV[5], ARGV[6], ARGV[7], ARGV[8]\n" +
+            RESOLVE_DEPENDENT +
+            "return 1", Long.class);
+    
+    /**
+     * ARGV[3] is the releasing worker, or empty when reaping an expired lease; ARGV[9] the queue
+     * key prefix. Returns 1 if the job was queued again, 2 if it failed for good and 0 if it was
+     * not leased (any more).
+     */
+    private static final RedisScript<Long> REQUEUE_SCRIPT = new DefaultRedisScript<>(
+            "local key = ARGV[1] .. ARGV[2]\n" +
+            "if ARGV[3] == '' then\n" +
+            "  local expires = redis.call('ZSCORE', KEYS[1], ARGV[2])\n" +
+            "  if not expires or tonumber(expires) > tonumber(ARGV[4]) then return 0 end\n" +
+            "elseif redis.call('HGET', key, 'worker') ~= ARGV[3] then\n" +
+            "  return 0\n" +
+            "end\n" +
+            "if redis.call('ZREM', KEYS[1], ARGV[2]) == 0 then return 0 end\n" +
+            "if ARGV[8] == '1' then redis.call('HINCRBY', key, 'attempts', -1) end\n" +
+            "redis.call('HDEL', key, 'leaseExpiresAt')\n" +
+            "if tonumber(redis.call('HGET', key, 'attempts') or '0') >= tonumber(ARGV[5]) then\n" +
+            "  redis.call('HSET', key, 'status', 'FAILED', 'finishedAt', ARGV[4], 'error', ARGV[6])\n" +
+            "  redis.call('EXPIRE', key, ARGV[7])\n" +
+            "  local id, status, now, err, retention, queues = ARGV[2], 'FAILED', ARGV[4], ARGV[6], ARGV[7], ARGV[9]\n" +
+            RESOLVE_DEPENDENT.replace("\n", "\n  ") +
+            "return 2\n" +
+            "end\n" +
+            "redis.call('HSET', key, 'status', 'QUEUED', 'worker', '', 'error', ARGV[6])\n" +
+            "redis.call('RPUSH', ARGV[9] .. (redis.call('HGET', key, 'priority') or 'NORMAL'), ARGV[2])\n" +
+            "return 1", Long.class);
+    
+    private final StringRedisTemplate redisTemplate;
+    private final FFmpegJobConfig config;
+    private final Map<String, CompletableFuture<FFmpegJob>> waiters = new ConcurrentHashMap<>();
+    
+    private volatile boolean running;
+    private Thread watcherThread;
+    
+    public FFmpegJobQueue(StringRedisTemplate redisTemplate, FFmpegJobConfig config) {
+        this.redisTemplate = redisTemplate;
+        this.config = config;
+    }
+    
+    /**
+     * Queue a job for the next free worker of any replica
+     * 
+     * @param type What FFmpeg does
+     * @param priority The queue to wait in
+     * @param inputPath The input file, on storage shared by all replicas
+     * @param outputPath The output file, or {@code null} if the job has none
+     * @param cost Estimated work in seconds of 1080p video at the medium preset
+     * @param threads Processor threads FFmpeg may use
+     * @return A future completed with the finished job, failed or not
+     */
+    public CompletableFuture<FFmpegJob> submit(FFmpegJob.Type type, FFmpegJob.Priority priority, String inputPath,
+                                               String outputPath, double cost, int threads) {
+        return submit(FFmpegJob.builder()
+            .type(type)
+            .priority(priority)
+            .threads(threads)
+            .inputPath(inputPath)
+            .outputPath(outputPath)
+            .cost(cost)
+            .build());
+    }
+    
+    /**
+     * Queue a job described by the caller; its id, status and submission time are set here
+     * 
+     * @return A future completed with the finished job, failed or not
+     */
+    public CompletableFuture<FFmpegJob> submit(FFmpegJob job) {
+        job.setId(UUID.randomUUID().toString());
+        job.setStatus(FFmpegJob.Status.QUEUED);
+        job.setSubmittedAt(Instant.now());
+        redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> redisOperations) {
+                RedisOperations<String, String> operations = (RedisOperations<String, String>) redisOperations;
+                operations.multi();
+                operations.opsForHash().putAll(jobKey(job.getId()), toHash(job));
+                operations.opsForList().leftPush(queueKey(job.getPriority()), job.getId());
+                return operations.exec();
+            }
+        });
+        // registered once the job exists; an outcome that came first is picked up by the watcher
+        CompletableFuture<FFmpegJob> result = new CompletableFuture<>();
+        waiters.put(job.getId(), result);
+        log.info("Queued {} {} job {} for {} (cost {}, {} threads)", job.getPriority(), job.getType(), job.getId(),
+                job.getInputPath(), String.format("%.1f", job.getCost()), job.getThreads());
+        return result;
+    }
+    
+    /**
+     * Queue jobs together with a job that runs once all of them succeeded, e.g. the segments of
+     * an upload and the job joining them. Which replica queues the dependent job does not depend
+     * on this one still running.
+     * 
+     * @param jobs The jobs to run first, in parallel
+     * @param dependent The job to run after them
+     * @return A future completed with the finished dependent job, or with it failed because one of
+     *         {@code jobs} failed
+     */
+    public CompletableFuture<FFmpegJob> submitAfter(List<FFmpegJob> jobs, FFmpegJob dependent) {
+        Instant now = Instant.now();
+        dependent.setId(UUID.randomUUID().toString());
+        dependent.setStatus(FFmpegJob.Status.WAITING);
+        dependent.setPendingDependencies(jobs.size());
+        dependent.setSubmittedAt(now);
+        for (FFmpegJob job : jobs) {
+            job.setId(UUID.randomUUID().toString());
+            job.setStatus(FFmpegJob.Status.QUEUED);
+            job.setDependentJob(dependent.getId());
+            job.setSubmittedAt(now);
+        }
+        redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> redisOperations) {
+                RedisOperations<String, String> operations = (RedisOperations<String, String>) redisOperations;
+                operations.multi();
+                operations.opsForHash().putAll(jobKey(dependent.getId()), toHash(dependent));
+                for (FFmpegJob job : jobs) {
+                    operations.opsForHash().putAll(jobKey(job.getId()), toHash(job));
+                    operations.opsForList().leftPush(queueKey(job.getPriority()), job.getId());
+                }
+                return operations.exec();
+            }
+        });
+        CompletableFuture<FFmpegJob> result = new CompletableFuture<>();
+        waiters.put(dependent.getId(), result);
+        log.info("Queued {} {} jobs for {}, then {} job {}", jobs.size(), jobs.isEmpty() ? "" : jobs.get(0).getType(),
+                dependent.getInputPath(), dependent.getType(), dependent.getId());
+        return result;
+    }
+    
+    /**
+     * Lease the next queued job to a worker, if it fits into the worker's free threads
+     * 
+     * @param freeThreads Threads the worker has left
+     * @param budget All threads of the worker; a job asking for more is given this many
+     * @return The job, or {@code null} if the queues are empty or the next job does not fit
+     */
+    public FFmpegJob claim(String workerId, int freeThreads, int budget) {
+        long now = System.currentTimeMillis();
+        List<String> keys = new ArrayList<>();
+        keys.add(leasesKey());
+        for (FFmpegJob.Priority priority : FFmpegJob.Priority.values()) {
+            keys.add(queueKey(priority));
+        }
+        String id = redisTemplate.execute(CLAIM_SCRIPT, keys, jobKeyPrefix(), workerId, String.valueOf(now),
+                String.valueOf(now + config.getLeaseTime().toMillis()), String.valueOf(freeThreads), String.valueOf(budget));
+        return id != null ? get(id) : null;
+    }
+    
+    /**
+     * Extend the lease of a running job
+     * 
+     * @return {@code false} if the worker lost the job, which then runs elsewhere
+     */
+    public boolean renew(String jobId, String workerId) {
+        long expires = System.currentTimeMillis() + config.getLeaseTime().toMillis();
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(leasesKey()),
+                jobKeyPrefix(), jobId, workerId, String.valueOf(expires));
+        return renewed != null && renewed == 1;
+    }
+    
+    /**
+     * Record the outcome of a job run by this worker
+     * 
+     * @param error The failure, or {@code null} if the job succeeded
+     * @return {@code false} if the worker no longer held the job and the outcome was discarded
+     */
+    public boolean finish(String jobId, String workerId, String error) {
+        String status = error == null ? FFmpegJob.Status.SUCCEEDED.name() : FFmpegJob.Status.FAILED.name();
+        Long finished = redisTemplate.execute(FINISH_SCRIPT, List.of(leasesKey()),
+                jobKeyPrefix(), jobId, workerId, status, String.valueOf(System.currentTimeMillis()),
+                error != null ? error : "", String.valueOf(config.getRetention().toSeconds()), queueKeyPrefix());
+        if (finished == null || finished != 1) {
+            return false;
+        }
+        notifyWaiter(jobId);
+        return true;
+    }
+    
+    /**
+     * Give a job back to the queue without counting the attempt, e.g. when the worker shuts down
+     */
+    public void release(String jobId, String workerId, String reason) {
+        requeue(jobId, workerId, reason, true);
+    }
+    
+    /**
+     * Queue the jobs whose workers stopped renewing their lease again
+     * 
+     * @return Number of jobs queued again or failed
+     */
+    public int requeueExpired() {
+        long now = System.currentTimeMillis();
+        Set<String> expired = redisTemplate.opsForZSet().rangeByScore(leasesKey(), 0, now, 0, 100);
+        int requeued = 0;
+        for (String jobId : expired != null ? expired : Set.<String>of()) {
+            long result = requeue(jobId, "", "Worker lease expired", false);
+            if (result == 1) {
+                log.warn("Lease of FFmpeg job {} expired, queued it again", jobId);
+                requeued++;
+            } else if (result == 2) {
+                log.error("Lease of FFmpeg job {} expired after {} attempts, giving up", jobId, config.getMaxAttempts());
+                requeued++;
+            }
+        }
+        return requeued;
+    }
+    
+    private long requeue(String jobId, String workerId, String reason, boolean refundAttempt) {
+        Long result = redisTemplate.execute(REQUEUE_SCRIPT, List.of(leasesKey()),
+                jobKeyPrefix(), jobId, workerId, String.valueOf(System.currentTimeMillis()),
+                String.valueOf(config.getMaxAttempts()), reason, String.valueOf(config.getRetention().toSeconds()),
+                refundAttempt ? "1" : "0", queueKeyPrefix());
+        if (result != null && result == 2) {
+            notifyWaiter(jobId);
+        }
+        return result != null ? result : 0;
+    }
+    
+    /**
+     * Look up a job
+     * 
+     * @return The job, or {@code null} if it is unknown or expired
+     */
+    public FFmpegJob get(String jobId) {
+        Map<Object, Object> hash = redisTemplate.opsForHash().entries(jobKey(jobId));
+        return hash.isEmpty() ? null : fromHash(jobId, hash);
+    }
+    
+    /**
+     * Number of jobs waiting for a worker
+     */
+    public long getQueuedCount() {
+        long count = 0;
+        for (FFmpegJob.Priority priority : FFmpegJob.Priority.values()) {
+            count += getQueuedCount(priority);
+        }
+        return count;
+    }
+    
+    /**
+     * Number of jobs waiting in one queue
+     */
+    public long getQueuedCount(FFmpegJob.Priority priority) {
+        Long size = redisTemplate.opsForList().size(queueKey(priority));
+        return size != null ? size : 0;
+    }
+    
+    /**
+     * The queued jobs in the order they will be claimed
+     */
+    public List<FFmpegJob> getQueued(int limit) {
+        List<FFmpegJob> jobs = new ArrayList<>();
+        for (FFmpegJob.Priority priority : FFmpegJob.Priority.values()) {
+            if (jobs.size() >= limit) {
+                break;
+            }
+            List<String> ids = redisTemplate.opsForList().range(queueKey(priority), -(limit - jobs.size()), -1);
+            for (int i = ids != null ? ids.size() - 1 : -1; i >= 0; i--) {
+                FFmpegJob job = get(ids.get(i));
+                if (job != null) {
+                    jobs.add(job);
+                }
+            }
+        }
+        return jobs;
+    }
+    
+    /**
+     * The jobs currently leased to a worker, soonest expiring first
+     */
+    public List<FFmpegJob> getRunning() {
+        Set<String> ids = redisTemplate.opsForZSet().range(leasesKey(), 0, -1);
+        List<FFmpegJob> jobs = new ArrayList<>();
+        for (String id : ids != null ? ids : Set.<String>of()) {
+            FFmpegJob job = get(id);
+            if (job != null) {
+                jobs.add(job);
+            }
+        }
+        return jobs;
+    }
+    
+    private void notifyWaiter(String jobId) {
+        CompletableFuture<FFmpegJob> waiter = waiters.get(jobId);
+        if (waiter == null) {
+            return;
+        }
+        FFmpegJob job = get(jobId);
+        if (job == null) {
+            waiters.remove(jobId);
+            waiter.completeExceptionally(new IllegalStateException("FFmpeg job " + jobId + " expired"));
+        } else if (job.isDone()) {
+            waiters.remove(jobId);
+            waiter.complete(job);
+        }
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        watcherThread = new Thread(this::watchLoop, "ffmpeg-job-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+            watcherThread = null;
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Reap expired leases and pick up the outcome of jobs submitted here but run elsewhere
+     */
+    private void watchLoop() {
+        while (running) {
+            try {
+                Thread.sleep(config.getPollInterval().toMillis());
+                requeueExpired();
+                for (String jobId : waiters.keySet()) {
+                    notifyWaiter(jobId);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Failed to check FFmpeg jobs", e);
+            }
+        }
+    }
+    
+    private static Map<String, String> toHash(FFmpegJob job) {
+        Map<String, String> hash = new HashMap<>();
+        hash.put("type", job.getType().name());
+        hash.put("status", job.getStatus().name());
+        hash.put("priority", job.getPriority().name());
+        hash.put("threads", String.valueOf(job.getThreads()));
+        hash.put("inputPath", job.getInputPath());
+        hash.put("outputPath", job.getOutputPath() != null ? job.getOutputPath() : "");
+        hash.put("cost", String.valueOf(job.getCost()));
+        if (job.getType() == FFmpegJob.Type.ENCODE_SEGMENT) {
+            hash.put("segmentStart", String.valueOf(job.getSegmentStart()));
+            hash.put("segmentDuration", String.valueOf(job.getSegmentDuration()));
+        }
+        if (job.getConcatList() != null) {
+            hash.put("concatList", job.getConcatList());
+        }
+        if (job.getDependentJob() != null) {
+            hash.put("dependentJob", job.getDependentJob());
+        }
+        if (job.getStatus() == FFmpegJob.Status.WAITING) {
+            hash.put("pendingDependencies", String.valueOf(job.getPendingDependencies()));
+        }
+        hash.put("copyVideo", String.valueOf(job.isCopyVideo()));
+        hash.put("copyAudio", String.valueOf(job.isCopyAudio()));
+        hash.put("attempts", String.valueOf(job.getAttempts()));
+        hash.put("submittedAt", String.valueOf(job.getSubmittedAt().toEpochMilli()));
+        return hash;
+    }
+    
+    private static FFmpegJob fromHash(String id, Map<Object, Object> hash) {
+        return FFmpegJob.builder()
+            .id(id)
+            .type(FFmpegJob.Type.valueOf((String) hash.get("type")))
+            .status(FFmpegJob.Status.valueOf((String) hash.get("status")))
+            .priority(FFmpegJob.Priority.valueOf((String) hash.getOrDefault("priority", FFmpegJob.Priority.NORMAL.name())))
+            .threads(Integer.parseInt((String) hash.getOrDefault("threads", "1")))
+            .inputPath((String) hash.get("inputPath"))
+            .outputPath(emptyToNull(hash.get("outputPath")))
+            .cost(Double.parseDouble((String) hash.getOrDefault("cost", "0")))
+            .segmentStart(Double.parseDouble((String) hash.getOrDefault("segmentStart", "0")))
+            .segmentDuration(Double.parseDouble((String) hash.getOrDefault("segmentDuration", "0")))
+            .concatList(emptyToNull(hash.get("concatList")))
+            .copyVideo(Boolean.parseBoolean((String) hash.get("copyVideo")))
+            .copyAudio(Boolean.parseBoolean((String) hash.get("copyAudio")))
+            .dependentJob(emptyToNull(hash.get("dependentJob")))
+            .pendingDependencies(Integer.parseInt((String) hash.getOrDefault("pendingDependencies", "0")))
+            .attempts(Integer.parseInt((String) hash.getOrDefault("attempts", "0")))
+            .worker(emptyToNull(hash.get("worker")))
+            .submittedAt(instant(hash.get("submittedAt")))
+            .startedAt(instant(hash.get("startedAt")))
+            .finishedAt(instant(hash.get("finishedAt")))
+            .leaseExpiresAt(instant(hash.get("leaseExpiresAt")))
+            .error(emptyToNull(hash.get("error")))
+            .build();
+    }
+    
+    private static String emptyToNull(Object value) {
+        return value == null || ((String) value).isEmpty() ? null : (String) value;
+    }
+    
+    private static Instant instant(Object epochMillis) {
+        return epochMillis != null ? Instant.ofEpochMilli(Long.parseLong((String) epochMillis)) : null;
+    }
+    
+    private String queueKeyPrefix() {
+        return config.getKeyPrefix() + "queue:";
+    }
+    
+    private String queueKey(FFmpegJob.Priority priority) {
+        return queueKeyPrefix() + priority.name();
+    }
+    
+    private String leasesKey() {
+        return config.getKeyPrefix() + "leases";
+    }
+    
+    private String jobKeyPrefix() {
+        return config.getKeyPrefix() + "job:";
+    }
+    
+    private String jobKey(String jobId) {
+        return jobKeyPrefix() + jobId;
+    }
+}
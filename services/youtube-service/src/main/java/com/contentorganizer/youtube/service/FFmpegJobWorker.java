@@ -0,0 +1,350 @@
+package com.contentorganizer.youtube.service;
+
+import com.contentorganizer.youtube.config.FFmpegJobConfig;
+import com.contentorganizer.youtube.model.FFmpegJob;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs queued FFmpeg jobs on this node within a budget of processor threads.
+ * <p>
+ * Every job reserves the threads FFmpeg is told to use ({@code -threads}), and the dispatcher
+ * claims a job from the {@link FFmpegJobQueue} only when this node has enough threads left for
+ * it, so jobs do not oversubscribe the processors and a busy node leaves the queue to the others.
+ * Jobs are taken strictly in queue order: when the next job does not fit, the dispatcher waits
+ * for running jobs to finish instead of starting smaller ones behind it, which would starve it.
+ * While FFmpeg runs, a heartbeat renews the job's lease;
+ * if the lease was lost anyway (e.g. after a long pause) the process is killed, since the job
+ * already runs elsewhere. On shutdown running jobs are killed and handed back to the queue.
+ */
+@Slf4j
+@Service
+public class FFmpegJobWorker implements SmartLifecycle {
+    
+    private static final int ERROR_TAIL_LINES = 20;
+    
+    private final FFmpegJobQueue jobQueue;
+    private final FFmpegService ffmpegService;
+    private final FFmpegJobConfig config;
+    private final String workerId;
+    private final Map<String, RunningJob> runningJobs = new ConcurrentHashMap<>();
+    private final Map<String, Counter> completed = new ConcurrentHashMap<>();
+    private final Map<FFmpegJob.Priority, Timer> waitTimers = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    // threads reserved by running jobs, guarded by itself
+    private final Object budgetLock = new Object();
+    private int usedThreads;
+    
+    private volatile boolean running;
+    private final List<Thread> threads = new ArrayList<>();
+    private ExecutorService executor;
+    
+    public FFmpegJobWorker(FFmpegJobQueue jobQueue, FFmpegService ffmpegService, FFmpegJobConfig config,
+                           ObjectProvider<MeterRegistry> meterRegistry) {
+        this.jobQueue = jobQueue;
+        this.ffmpegService = ffmpegService;
+        this.config = config;
+        this.workerId = config.getWorkerId().isBlank() ? ManagementFactory.getRuntimeMXBean().getName() : config.getWorkerId();
+        this.meterRegistry = meterRegistry.getIfAvailable();
+        if (this.meterRegistry != null) {
+            Gauge.builder("ffmpeg.jobs.running", runningJobs, Map::size)
+                .description("FFmpeg jobs running on this node")
+                .register(this.meterRegistry);
+            Gauge.builder("ffmpeg.jobs.threads.used", this, FFmpegJobWorker::getUsedThreads)
+                .description("Processor threads reserved by FFmpeg jobs on this node")
+                .register(this.meterRegistry);
+            Gauge.builder("ffmpeg.jobs.threads.budget", config, FFmpegJobConfig::getEffectiveCpuBudget)
+                .description("Processor threads FFmpeg jobs may use on this node")
+                .register(this.meterRegistry);
+            for (FFmpegJob.Priority priority : FFmpegJob.Priority.values()) {
+                Gauge.builder("ffmpeg.jobs.queued", jobQueue, queue -> queue.getQueuedCount(priority))
+                    .description("FFmpeg jobs waiting in the shared queue")
+                    .tag("priority", priority.name())
+                    .register(this.meterRegistry);
+            }
+        }
+    }
+    
+    public String getWorkerId() {
+        return workerId;
+    }
+    
+    public int getUsedThreads() {
+        synchronized (budgetLock) {
+            return usedThreads;
+        }
+    }
+    
+    /**
+     * Take threads from the budget for FFmpeg work that runs outside the queue, e.g. a live
+     * stream, so that jobs leave them free
+     */
+    public void reserveThreads(int count) {
+        synchronized (budgetLock) {
+            usedThreads += count;
+        }
+    }
+    
+    public void releaseThreads(int count) {
+        synchronized (budgetLock) {
+            usedThreads -= count;
+            budgetLock.notifyAll();
+        }
+    }
+    
+    /**
+     * This node's worker and the jobs running on it
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("workerId", workerId);
+        status.put("enabled", config.isWorkerEnabled());
+        status.put("cpuBudget", config.getEffectiveCpuBudget());
+        status.put("usedThreads", getUsedThreads());
+        status.put("running", new ArrayList<>(runningJobs.keySet()));
+        return status;
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running || !config.isWorkerEnabled()) {
+            return;
+        }
+        running = true;
+        AtomicInteger jobThreads = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ffmpeg-job-" + jobThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread dispatcher = new Thread(this::dispatchLoop, "ffmpeg-job-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        threads.add(dispatcher);
+        Thread heartbeat = new Thread(this::heartbeatLoop, "ffmpeg-job-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        threads.add(heartbeat);
+        log.info("FFmpeg worker {} started with a budget of {} threads", workerId, config.getEffectiveCpuBudget());
+    }
+    
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        threads.forEach(Thread::interrupt);
+        threads.clear();
+        for (RunningJob job : runningJobs.values()) {
+            job.released = true;
+            job.process.destroy();
+            try {
+                jobQueue.release(job.jobId, workerId, "Worker " + workerId + " shut down");
+            } catch (RuntimeException e) {
+                log.warn("Could not hand FFmpeg job {} back, it is requeued when its lease expires", job.jobId, e);
+            }
+        }
+        executor.shutdownNow();
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    private void dispatchLoop() {
+        while (running) {
+            try {
+                int budget = config.getEffectiveCpuBudget();
+                int free;
+                synchronized (budgetLock) {
+                    while (usedThreads >= budget) {
+                        budgetLock.wait();
+                    }
+                    free = budget - usedThreads;
+                }
+                FFmpegJob job = jobQueue.claim(workerId, free, budget);
+                if (job == null) {
+                    // woken early when a running job frees its threads
+                    synchronized (budgetLock) {
+                        budgetLock.wait(config.getPollInterval().toMillis());
+                    }
+                    continue;
+                }
+                synchronized (budgetLock) {
+                    usedThreads += job.getThreads();
+                }
+                recordWait(job);
+                executor.execute(() -> {
+                    try {
+                        run(job);
+                    } finally {
+                        synchronized (budgetLock) {
+                            usedThreads -= job.getThreads();
+                            budgetLock.notifyAll();
+                        }
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("FFmpeg worker failed, retrying in {}", config.getPollInterval(), e);
+                sleepQuietly();
+            }
+        }
+    }
+    
+    private void run(FFmpegJob job) {
+        log.info("Running {} job {} (attempt {}, {} threads): {}", job.getType(), job.getId(), job.getAttempts(),
+                job.getThreads(), job.getInputPath());
+        long startNanos = System.nanoTime();
+        List<String> command;
+        try {
+            command = ffmpegService.buildCommand(job);
+        } catch (IOException | RuntimeException e) {
+            finish(job, "Invalid job: " + e.getMessage());
+            return;
+        }
+        
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            finish(job, "Could not start FFmpeg: " + e.getMessage());
+            return;
+        }
+        RunningJob runningJob = new RunningJob(job.getId(), process);
+        runningJobs.put(job.getId(), runningJob);
+        try {
+            Deque<String> tail = new ArrayDeque<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    log.trace("[{}] {}", job.getId(), line);
+                    if (tail.size() == ERROR_TAIL_LINES) {
+                        tail.removeFirst();
+                    }
+                    tail.addLast(line);
+                }
+            } catch (IOException e) {
+                log.debug("Lost the output of FFmpeg job {}", job.getId(), e);
+            }
+            int exitCode = process.waitFor();
+            if (runningJob.released || runningJob.lost) {
+                return;
+            }
+            if (exitCode == 0) {
+                log.info("{} job {} completed in {} s", job.getType(), job.getId(), (System.nanoTime() - startNanos) / 1_000_000_000);
+                finish(job, null);
+            } else {
+                finish(job, "FFmpeg exited with code " + exitCode + ": " + String.join("\n", tail));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+        } finally {
+            runningJobs.remove(job.getId());
+        }
+    }
+    
+    private void finish(FFmpegJob job, String error) {
+        if (error != null) {
+            log.error("{} job {} failed: {}", job.getType(), job.getId(), error);
+        }
+        if (!jobQueue.finish(job.getId(), workerId, error)) {
+            log.warn("{} job {} was no longer leased to {}, discarding its outcome", job.getType(), job.getId(), workerId);
+            return;
+        }
+        ffmpegService.cleanUp(job, error != null);
+        if (meterRegistry != null) {
+            String outcome = error == null ? "succeeded" : "failed";
+            completed.computeIfAbsent(job.getType() + "/" + outcome, key -> Counter.builder("ffmpeg.jobs.completed")
+                .description("FFmpeg jobs finished on this node")
+                .tag("type", job.getType().name())
+                .tag("outcome", outcome)
+                .register(meterRegistry)).increment();
+        }
+    }
+    
+    private void recordWait(FFmpegJob job) {
+        if (meterRegistry == null || job.getSubmittedAt() == null || job.getStartedAt() == null) {
+            return;
+        }
+        waitTimers.computeIfAbsent(job.getPriority(), priority -> Timer.builder("ffmpeg.jobs.wait")
+            .description("Time FFmpeg jobs waited in the queue before they started")
+            .tag("priority", priority.name())
+            .register(meterRegistry)).record(Duration.between(job.getSubmittedAt(), job.getStartedAt()));
+    }
+    
+    private void heartbeatLoop() {
+        while (running) {
+            try {
+                Thread.sleep(config.getHeartbeatInterval().toMillis());
+                for (RunningJob job : runningJobs.values()) {
+                    if (!jobQueue.renew(job.jobId, workerId)) {
+                        log.warn("Lost the lease of FFmpeg job {}, stopping it", job.jobId);
+                        job.lost = true;
+                        job.process.destroy();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Failed to renew FFmpeg job leases", e);
+            }
+        }
+    }
+    
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(config.getPollInterval().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static final class RunningJob {
+        
+        final String jobId;
+        final Process process;
+        volatile boolean released;
+        volatile boolean lost;
+        
+        RunningJob(String jobId, Process process) {
+            this.jobId = jobId;
+            this.process = process;
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.contentorganizer.youtube.service;
 
+import com.contentorganizer.youtube.config.ComposeConfig;
 import com.contentorganizer.youtube.config.FFmpegConfig;
+import com.contentorganizer.youtube.config.FFmpegJobConfig;
 import com.contentorganizer.youtube.config.YouTubeConfig;
 import com.contentorganizer.youtube.dto.VideoStreamRequest;
+import com.contentorganizer.youtube.model.FFmpegJob;
 import com.contentorganizer.youtube.model.VideoMetadata;
 import com.contentorganizer.youtube.model.VideoQuality;
 import lombok.RequiredArgsConstructor;
@@ -11,19 +14,35 @@ import net.bramp.ffmpeg.FFmpeg;
 import net.bramp.ffmpeg.FFmpegExecutor;
 import net.bramp.ffmpeg.FFprobe;
 import net.bramp.ffmpeg.builder.FFmpegBuilder;
+import net.bramp.ffmpeg.builder.FFmpegOutputBuilder;
 import net.bramp.ffmpeg.probe.FFmpegProbeResult;
 import net.bramp.ffmpeg.probe.FFmpegStream;
+import org.apache.commons.lang3.math.Fraction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -32,10 +51,39 @@ public class FFmpegService {
     
     private static final Logger logger = LoggerFactory.getLogger(FFmpegService.class);
     
+    private static final String UPLOAD_PRESET = "medium";
+    private static final int UPLOAD_FRAME_RATE = 30;
+    
+    // Segments start on multiples of the GOP, so the joined video keeps a fixed keyframe interval
+    private static final int SEGMENT_GOP_SECONDS = 2;
+    private static final int UPLOAD_SAMPLE_RATE = 44100;
+    
+    // Raw audio a live encoder reads from its stdin: signed 16 bit little endian
+    public static final int LIVE_SAMPLE_RATE = 44100;
+    public static final int LIVE_CHANNELS = 2;
+    // Jobs that copy the video encode the audio at most
+    private static final double COPY_COST = 0.02;
+    
+    // Rough x264 encoding time of each preset relative to medium
+    private static final Map<String, Double> PRESET_COST = Map.of(
+        "ultrafast", 0.25,
+        "superfast", 0.3,
+        "veryfast", 0.4,
+        "faster", 0.5,
+        "fast", 0.6,
+        "medium", 1.0,
+        "slow", 1.6,
+        "slower", 2.5,
+        "veryslow", 5.0);
+    
     private final FFmpeg ffmpeg;
     private final FFprobe ffprobe;
     private final FFmpegConfig ffmpegConfig;
     private final YouTubeConfig youTubeConfig;
+    private final FFmpegJobQueue jobQueue;
+    private final FFmpegJobConfig jobConfig;
+    private final VideoProbeCache probeCache;
+    private final ComposeConfig composeConfig;
     
     public void init() throws IOException {
         // This method is now empty as the FFmpeg and FFprobe objects are injected
@@ -44,10 +92,18 @@ public class FFmpegService {
     public void startStreaming(VideoStreamRequest request) throws IOException {
         validateVideoFile(request.getInputPath());
 
+        FFmpegExecutor executor = new FFmpegExecutor(ffmpeg, ffprobe);
+        executor.createJob(streamingBuilder(request.getInputPath(), 0)).run();
+    }
+    
+    /**
+     * @param threads Processor threads FFmpeg may use, 0 to let it decide
+     */
+    private FFmpegBuilder streamingBuilder(String inputPath, int threads) {
         VideoQuality quality = youTubeConfig.getStream().getQuality();
         
-        FFmpegBuilder builder = new FFmpegBuilder()
-            .setInput(request.getInputPath())
+        FFmpegOutputBuilder output = new FFmpegBuilder()
+            .setInput(inputPath)
             .overrideOutputFiles(true)
             .addOutput(youTubeConfig.getRtmpUrl() + "/" + youTubeConfig.getStreamKey())
             .setFormat("flv")
@@ -58,16 +114,448 @@ public class FFmpegService {
             .setAudioCodec("aac")
             .setAudioBitRate(128000)
             .setAudioChannels(2)
-            .setStrict(FFmpegBuilder.Strict.EXPERIMENTAL)
+            .setStrict(FFmpegBuilder.Strict.EXPERIMENTAL);
+        return withThreads(output, threads).done();
+    }
+    
+    /**
+     * A live encoder that never ends on its own: the image looped as video, and raw PCM audio
+     * from stdin as written by {@link #pcmDecoderCommand}, both read in real time and sent to
+     * YouTube Live with a keyframe every two seconds
+     */
+    public List<String> liveEncoderCommand(String imagePath, int threads) throws IOException {
+        VideoQuality quality = youTubeConfig.getStream().getQuality();
+        int frameRate = youTubeConfig.getStream().getFrameRate();
+        String size = quality.getWidth() + ":" + quality.getHeight();
+        List<String> args = new ArrayList<>(List.of(
+            "-y", "-v", "error",
+            "-re", "-loop", "1", "-framerate", String.valueOf(frameRate), "-i", imagePath,
+            "-re", "-f", "s16le", "-ar", String.valueOf(LIVE_SAMPLE_RATE), "-ac", String.valueOf(LIVE_CHANNELS), "-i", "pipe:0",
+            "-map", "0:v", "-map", "1:a",
+            "-vf", "scale=" + size + ":force_original_aspect_ratio=decrease,pad=" + size + ":(ow-iw)/2:(oh-ih)/2,format=yuv420p",
+            "-c:v", "libx264", "-tune", "stillimage", "-preset", "veryfast",
+            "-r", String.valueOf(frameRate), "-g", String.valueOf(frameRate * 2),
+            "-b:v", String.valueOf(quality.getBitrate()), "-maxrate", String.valueOf(quality.getBitrate()),
+            "-bufsize", String.valueOf(quality.getBitrate() * 2),
+            "-c:a", "aac", "-b:a", "128000", "-ar", String.valueOf(LIVE_SAMPLE_RATE)));
+        if (threads > 0) {
+            args.addAll(List.of("-threads", String.valueOf(threads)));
+        }
+        args.addAll(List.of("-f", "flv", youTubeConfig.getRtmpUrl() + "/" + youTubeConfig.getStreamKey()));
+        return ffmpeg.path(args);
+    }
+    
+    /**
+     * Decodes a track to raw PCM on stdout, in the format {@link #liveEncoderCommand} reads
+     */
+    public List<String> pcmDecoderCommand(String trackPath) throws IOException {
+        return ffmpeg.path(List.of("-v", "error", "-i", trackPath, "-vn",
+            "-f", "s16le", "-ar", String.valueOf(LIVE_SAMPLE_RATE), "-ac", String.valueOf(LIVE_CHANNELS), "pipe:1"));
+    }
+    
+    private FFmpegBuilder uploadBuilder(FFmpegJob job) {
+        // Prepare video for YouTube upload (ensure compatibility)
+        FFmpegOutputBuilder output = new FFmpegBuilder()
+            .setInput(job.getInputPath())
+            .overrideOutputFiles(true)
+            .addOutput(job.getOutputPath())
+            .setFormat("mp4");
+        if (job.isCopyVideo()) {
+            output.setVideoCodec("copy");
+        } else {
+            output.setVideoCodec("libx264")
+                .setVideoFrameRate(UPLOAD_FRAME_RATE)
+                .addExtraArgs("-preset", UPLOAD_PRESET)
+                .addExtraArgs("-crf", "23")
+                .addExtraArgs("-pix_fmt", "yuv420p");
+        }
+        if (job.isCopyAudio()) {
+            output.setAudioCodec("copy");
+        } else {
+            output.setAudioCodec("aac")
+                .setAudioSampleRate(UPLOAD_SAMPLE_RATE);
+        }
+        output.addExtraArgs("-movflags", "+faststart");
+        return withThreads(output, job.getThreads()).done();
+    }
+    
+    /**
+     * The video of one segment of an upload, encoded like {@link #uploadBuilder} but with a fixed
+     * GOP, so that the segments can be joined without re-encoding
+     */
+    private FFmpegBuilder segmentBuilder(FFmpegJob job) {
+        FFmpegOutputBuilder output = new FFmpegBuilder()
+            .setStartOffset(Math.round(job.getSegmentStart() * 1000), TimeUnit.MILLISECONDS)
+            .setInput(job.getInputPath())
+            .overrideOutputFiles(true)
+            .addOutput(job.getOutputPath())
+            .setFormat("mp4")
+            .setVideoCodec("libx264")
+            .setVideoFrameRate(UPLOAD_FRAME_RATE)
+            .disableAudio()
+            .addExtraArgs("-preset", UPLOAD_PRESET)
+            .addExtraArgs("-crf", "23")
+            .addExtraArgs("-pix_fmt", "yuv420p")
+            .addExtraArgs("-g", String.valueOf(SEGMENT_GOP_SECONDS * UPLOAD_FRAME_RATE))
+            .addExtraArgs("-keyint_min", String.valueOf(SEGMENT_GOP_SECONDS * UPLOAD_FRAME_RATE))
+            .addExtraArgs("-sc_threshold", "0");
+        if (job.getSegmentDuration() > 0) {
+            output.setDuration(Math.round(job.getSegmentDuration() * 1000), TimeUnit.MILLISECONDS);
+        }
+        return withThreads(output, job.getThreads()).done();
+    }
+    
+    /**
+     * Joins the encoded segments with the concat demuxer and adds the input's audio, encoded in
+     * one piece since AAC frames do not line up with the segment cuts
+     */
+    private FFmpegBuilder concatBuilder(FFmpegJob job) {
+        return new FFmpegBuilder()
+            .addExtraArgs("-f", "concat", "-safe", "0")
+            .addInput(job.getConcatList())
+            .addInput(job.getInputPath())
+            .overrideOutputFiles(true)
+            .addOutput(job.getOutputPath())
+            .setFormat("mp4")
+            .setVideoCodec("copy")
+            .setAudioCodec("aac")
+            .setAudioSampleRate(UPLOAD_SAMPLE_RATE)
+            .addExtraArgs("-map", "0:v", "-map", "1:a?")
+            .addExtraArgs("-movflags", "+faststart")
             .done();
+    }
 
-        FFmpegExecutor executor = new FFmpegExecutor(ffmpeg, ffprobe);
-        executor.createJob(builder).run();
+    /**
+     * Loops the image at a low frame rate with a long GOP and {@code -tune stillimage}, over the
+     * tracks read through the concat demuxer, so the audio is encoded once without gaps. Built by
+     * hand since FFmpegBuilder puts all input options before the first input.
+     */
+    private List<String> composeArgs(FFmpegJob job) {
+        int frameRate = composeConfig.getFrameRate();
+        String gop = String.valueOf(frameRate * composeConfig.getGopSeconds());
+        String size = composeConfig.getWidth() + ":" + composeConfig.getHeight();
+        List<String> args = new ArrayList<>(List.of(
+            "-y", "-v", "error",
+            "-loop", "1", "-framerate", String.valueOf(frameRate), "-i", job.getInputPath(),
+            "-f", "concat", "-safe", "0", "-i", job.getConcatList(),
+            "-map", "0:v", "-map", "1:a",
+            "-vf", "scale=" + size + ":force_original_aspect_ratio=decrease,pad=" + size + ":(ow-iw)/2:(oh-ih)/2,format=yuv420p",
+            "-c:v", "libx264", "-tune", "stillimage", "-preset", composeConfig.getPreset(), "-crf", "23",
+            "-r", String.valueOf(frameRate), "-g", gop, "-keyint_min", gop, "-sc_threshold", "0",
+            "-c:a", "aac", "-b:a", String.valueOf(composeConfig.getAudioBitrate()),
+            "-ar", String.valueOf(UPLOAD_SAMPLE_RATE),
+            "-shortest"));
+        if (job.getThreads() > 0) {
+            args.addAll(List.of("-threads", String.valueOf(job.getThreads())));
+        }
+        Path output = Paths.get(job.getOutputPath()).toAbsolutePath();
+        if (isPlaylist(job.getOutputPath())) {
+            String name = output.getFileName().toString();
+            String segments = output.resolveSibling(name.substring(0, name.lastIndexOf('.')) + "-%05d.ts").toString();
+            args.addAll(List.of("-f", "hls", "-hls_time", String.valueOf(composeConfig.getGopSeconds()),
+                "-hls_playlist_type", "vod", "-hls_segment_filename", segments));
+        } else {
+            args.addAll(List.of("-f", "mp4", "-movflags", "+faststart"));
+        }
+        args.add(output.toString());
+        return args;
+    }
+    
+    private static boolean isPlaylist(String outputPath) {
+        return outputPath.toLowerCase().endsWith(".m3u8");
+    }
+    
+    private static FFmpegOutputBuilder withThreads(FFmpegOutputBuilder output, int threads) {
+        return threads > 0 ? output.addExtraArgs("-threads", String.valueOf(threads)) : output;
+    }
+    
+    /**
+     * The FFmpeg command line of a queued job, built on the worker that runs it
+     */
+    public List<String> buildCommand(FFmpegJob job) throws IOException {
+        if (job.getType() == FFmpegJob.Type.COMPOSE) {
+            if (!Files.isRegularFile(Paths.get(job.getInputPath()))) {
+                throw new IOException("Image file does not exist: " + job.getInputPath());
+            }
+            Files.createDirectories(Paths.get(job.getOutputPath()).toAbsolutePath().getParent());
+            return ffmpeg.path(composeArgs(job));
+        }
+        validateVideoFile(job.getInputPath());
+        FFmpegBuilder builder;
+        switch (job.getType()) {
+            case PREPARE_UPLOAD:
+                Files.createDirectories(Paths.get(job.getOutputPath()).getParent());
+                builder = uploadBuilder(job);
+                break;
+            case STREAM:
+                builder = streamingBuilder(job.getInputPath(), job.getThreads());
+                break;
+            case ENCODE_SEGMENT:
+                builder = segmentBuilder(job);
+                break;
+            case CONCAT_SEGMENTS:
+                Files.createDirectories(Paths.get(job.getOutputPath()).getParent());
+                builder = concatBuilder(job);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown FFmpeg job type: " + job.getType());
+        }
+        return ffmpeg.path(builder.build());
+    }
+    
+    /**
+     * Processor threads for an upload job: one per {@code cost-per-thread} of work, so short
+     * videos leave the other processors to further jobs
+     */
+    private int uploadThreads(double cost) {
+        int threads = (int) Math.ceil(cost / jobConfig.getCostPerThread());
+        return Math.max(1, Math.min(threads, jobConfig.getMaxThreadsPerJob()));
+    }
+    
+    /**
+     * Segments to split an upload into: enough to keep the cpu budget busy at
+     * {@code segment-threads} each, but none shorter than {@code min-segment-duration}; 1 for
+     * videos shorter than {@code segment-threshold}
+     */
+    private int segmentCount(double durationSeconds) {
+        Duration threshold = jobConfig.getSegmentThreshold();
+        if (threshold.isZero() || durationSeconds < threshold.toSeconds()) {
+            return 1;
+        }
+        int byDuration = (int) (durationSeconds / Math.max(1, jobConfig.getMinSegmentDuration().toSeconds()));
+        int byCores = jobConfig.getMaxSegments() > 0
+            ? jobConfig.getMaxSegments()
+            : jobConfig.getEffectiveCpuBudget() / Math.max(1, jobConfig.getSegmentThreads());
+        return Math.max(1, Math.min(byDuration, byCores));
+    }
+    
+    /**
+     * Encode the video in {@code count} segments in parallel, on any replicas with free threads,
+     * then join them into {@code outputPath}. The join is queued by the worker that finishes the
+     * last segment, and the worker that finishes the join (or a failed segment) removes the
+     * segments, so neither depends on this replica still running.
+     * 
+     * @return A future completed with the concat job, which failed without running if a segment job failed
+     */
+    private CompletableFuture<FFmpegJob> encodeSegments(String inputPath, String outputPath, double durationSeconds,
+                                                        int count, double cost) {
+        Path workDir = Paths.get(outputPath + ".segments");
+        int gops = (int) Math.ceil(durationSeconds / SEGMENT_GOP_SECONDS);
+        int segmentSeconds = (int) Math.ceil((double) gops / count) * SEGMENT_GOP_SECONDS;
+        List<FFmpegJob> segments = new ArrayList<>();
+        StringBuilder segmentList = new StringBuilder();
+        try {
+            Files.createDirectories(workDir);
+            for (int start = 0; start < durationSeconds; start += segmentSeconds) {
+                String segmentPath = workDir.resolve(String.format("part-%03d.mp4", segments.size())).toString();
+                // the last segment runs to the end, whatever the probed duration was
+                boolean last = start + segmentSeconds >= durationSeconds;
+                double length = Math.min(segmentSeconds, durationSeconds - start);
+                segmentList.append(concatEntry(segmentPath));
+                segments.add(FFmpegJob.builder()
+                    .type(FFmpegJob.Type.ENCODE_SEGMENT)
+                    .priority(FFmpegJob.Priority.NORMAL)
+                    .threads(jobConfig.getSegmentThreads())
+                    .inputPath(inputPath)
+                    .outputPath(segmentPath)
+                    .segmentStart(start)
+                    .segmentDuration(last ? 0 : segmentSeconds)
+                    .cost(cost * length / durationSeconds)
+                    .build());
+            }
+            Files.writeString(workDir.resolve("segments.txt"), segmentList);
+        } catch (IOException e) {
+            deleteQuietly(workDir);
+            return CompletableFuture.failedFuture(e);
+        }
+        log.info("Encoding {} in {} segments of {} s", inputPath, segments.size(), segmentSeconds);
+        
+        return jobQueue.submitAfter(segments, FFmpegJob.builder()
+                .type(FFmpegJob.Type.CONCAT_SEGMENTS)
+                .priority(FFmpegJob.Priority.NORMAL)
+                .threads(1)
+                .inputPath(inputPath)
+                .outputPath(outputPath)
+                .concatList(workDir.resolve("segments.txt").toString())
+                .cost(cost * COPY_COST)
+                .build())
+            .whenComplete((job, e) -> deleteQuietly(workDir));
+    }
+    
+    /**
+     * Remove what a finished job leaves behind: the segments once they were joined or the join
+     * failed, and all segments of an upload once one of them failed for good
+     * 
+     * @param job The job, finished by this replica
+     * @param failed Whether it failed
+     */
+    public void cleanUp(FFmpegJob job, boolean failed) {
+        if (job.getType() == FFmpegJob.Type.CONCAT_SEGMENTS && job.getConcatList() != null) {
+            deleteQuietly(Paths.get(job.getConcatList()).getParent());
+        } else if (job.getType() == FFmpegJob.Type.ENCODE_SEGMENT && failed && job.getOutputPath() != null) {
+            deleteQuietly(Paths.get(job.getOutputPath()).getParent());
+        }
+    }
+    
+    /**
+     * A line of a concat demuxer list
+     */
+    static String concatEntry(String path) {
+        return "file '" + path.replace("'", "'\\''") + "'\n";
+    }
+    
+    /**
+     * Whether the first video stream already is what {@link #uploadBuilder} would encode:
+     * H.264, yuv420p, constant 30 fps
+     */
+    private static boolean isUploadVideo(FFmpegProbeResult probeResult) {
+        FFmpegStream video = firstStream(probeResult, FFmpegStream.CodecType.VIDEO);
+        return video != null
+            && "h264".equals(video.codec_name)
+            && "yuv420p".equals(video.pix_fmt)
+            && isFrameRate(video.r_frame_rate, UPLOAD_FRAME_RATE)
+            && isFrameRate(video.avg_frame_rate, UPLOAD_FRAME_RATE);
+    }
+    
+    /**
+     * Whether the first audio stream already is AAC at the upload sample rate; true if there is
+     * no audio, since there is nothing to encode then
+     */
+    private static boolean isUploadAudio(FFmpegProbeResult probeResult) {
+        FFmpegStream audio = firstStream(probeResult, FFmpegStream.CodecType.AUDIO);
+        return audio == null || ("aac".equals(audio.codec_name) && audio.sample_rate == UPLOAD_SAMPLE_RATE);
+    }
+    
+    private static boolean isFrameRate(Fraction rate, int framesPerSecond) {
+        return rate != null && rate.getDenominator() != 0 && Math.abs(rate.doubleValue() - framesPerSecond) < 0.01;
+    }
+    
+    private static FFmpegStream firstStream(FFmpegProbeResult probeResult, FFmpegStream.CodecType type) {
+        return probeResult.getStreams().stream()
+            .filter(stream -> stream.codec_type == type)
+            .findFirst()
+            .orElse(null);
+    }
+    
+    /**
+     * Whether an MP4 file has its index (moov box) before the media data (mdat), so it can be
+     * processed while it is still being read
+     */
+    private static boolean isFastStart(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            long position = 0;
+            while (position + 8 <= channel.size()) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                if (header.remaining() < 8) {
+                    return false;
+                }
+                long size = header.getInt() & 0xFFFFFFFFL;
+                String type = new String(header.array(), 4, 4, StandardCharsets.US_ASCII);
+                if ("moov".equals(type)) {
+                    return true;
+                }
+                if ("mdat".equals(type)) {
+                    return false;
+                }
+                if (size == 1 && header.remaining() >= 8) {
+                    // 64-bit size follows the type
+                    size = header.getLong(8);
+                }
+                if (size < 8) {
+                    return false;
+                }
+                position += size;
+            }
+        } catch (IOException e) {
+            log.debug("Could not read the boxes of {}", path, e);
+        }
+        return false;
+    }
+    
+    /**
+     * Hand out an upload-ready input as the processed video: hard-linked where the file system
+     * allows it, copied otherwise
+     */
+    private CompletableFuture<String> linkUnchanged(String inputPath, String outputPath) {
+        Path output = Paths.get(outputPath);
+        try {
+            Files.createDirectories(output.getParent());
+            Files.deleteIfExists(output);
+            try {
+                Files.createLink(output, Paths.get(inputPath));
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(Paths.get(inputPath), output, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to process video: " + e.getMessage(), e));
+        }
+        log.info("{} is already upload-ready, linked it as {}", inputPath, outputPath);
+        return CompletableFuture.completedFuture(outputPath);
+    }
+    
+    private void deleteQuietly(Path dir) {
+        if (!Files.exists(dir)) {
+            // removed by the worker that finished the job already
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Could not delete {}", dir, e);
+        }
+    }
+    
+    private FFmpegProbeResult probeQuietly(String inputPath) {
+        try {
+            return probeCache.probe(inputPath);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not probe {}", inputPath, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Estimated encoding work in seconds of 1080p video at the medium preset, or 0 if the input
+     * could not be probed
+     */
+    private double estimateCost(FFmpegProbeResult probeResult, int outputWidth, int outputHeight, String preset) {
+        if (probeResult == null) {
+            return 0;
+        }
+        try {
+            double pixels = (double) outputWidth * outputHeight;
+            if (pixels <= 0) {
+                FFmpegStream video = probeResult.getStreams().stream()
+                    .filter(stream -> stream.codec_type == FFmpegStream.CodecType.VIDEO)
+                    .findFirst()
+                    .orElse(null);
+                pixels = video != null ? (double) video.width * video.height : 0;
+            }
+            return probeResult.getFormat().duration * pixels / (1920.0 * 1080.0) * PRESET_COST.getOrDefault(preset, 1.0);
+        } catch (RuntimeException e) {
+            log.warn("Could not estimate the cost of {}", probeResult.getFormat().filename, e);
+            return 0;
+        }
     }
 
     public VideoMetadata getVideoMetadata(String videoPath) throws IOException {
         validateVideoFile(videoPath);
-        FFmpegProbeResult probeResult = ffprobe.probe(videoPath);
+        return toMetadata(probeCache.probe(videoPath));
+    }
+    
+    /**
+     * Metadata of many videos, probed in parallel; videos that cannot be probed are left out
+     */
+    public Map<String, VideoMetadata> getVideoMetadata(Collection<String> videoPaths) {
+        Map<String, VideoMetadata> metadata = new LinkedHashMap<>();
+        probeCache.probeAll(videoPaths).forEach((videoPath, probeResult) -> metadata.put(videoPath, toMetadata(probeResult)));
+        return metadata;
+    }
+    
+    private static VideoMetadata toMetadata(FFmpegProbeResult probeResult) {
         FFmpegStream stream = probeResult.getStreams().get(0);
 
         return VideoMetadata.builder()
@@ -103,106 +591,163 @@ public class FFmpegService {
         return extension.matches("^(mp4|avi|mov|wmv|flv|mkv|webm)$");
     }
     
+    /**
+     * Queue a stream of the video to YouTube Live ahead of uploads; any replica with enough free
+     * threads runs it
+     */
     public CompletableFuture<Void> streamToYouTube(VideoStreamRequest request) {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                validateVideoFile(request.getInputPath());
-                
-                String rtmpUrl = youTubeConfig.getRtmpUrl();
-                String streamKey = youTubeConfig.getStream().getKey();
-                String streamUrl = rtmpUrl + "/" + streamKey;
-                
-                // Set video resolution based on quality setting
-                VideoQuality quality = youTubeConfig.getStream().getQuality();
-                int width, height;
-                switch (quality) {
-                    case HIGH:
-                        width = 1920;
-                        height = 1080;
-                        break;
-                    case MEDIUM:
-                        width = 1280;
-                        height = 720;
-                        break;
-                    default: // LOW
-                        width = 854;
-                        height = 480;
-                        break;
+        try {
+            validateVideoFile(request.getInputPath());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to stream video: " + e.getMessage(), e));
+        }
+        VideoQuality quality = youTubeConfig.getStream().getQuality();
+        double cost = estimateCost(probeQuietly(request.getInputPath()), quality.getWidth(), quality.getHeight(), "medium");
+        return jobQueue.submit(FFmpegJob.Type.STREAM, FFmpegJob.Priority.HIGH, request.getInputPath(), null, cost,
+                jobConfig.getStreamThreads())
+            .thenAccept(job -> {
+                if (job.getStatus() != FFmpegJob.Status.SUCCEEDED) {
+                    throw new RuntimeException("Failed to stream video: " + job.getError());
                 }
-
-                FFmpegBuilder builder = new FFmpegBuilder()
-                    .setInput(request.getInputPath())
-                    .overrideOutputFiles(true)
-                    .addOutput(streamUrl)
-                    .setFormat("flv")
-                    .setAudioCodec("aac")
-                    .setAudioBitRate(128000)
-                    .setVideoCodec("libx264")
-                    .setVideoFrameRate(youTubeConfig.getStream().getFrameRate())
-                    .setVideoBitRate(quality.getBitrate() * 1000)
-                    .setVideoWidth(width)
-                    .setVideoHeight(height)
-                    .addExtraArgs("-maxrate", quality.getBitrate() + "k")
-                    .addExtraArgs("-bufsize", (quality.getBitrate() * 2) + "k")
-                    .done();
-
-                FFmpegExecutor executor = new FFmpegExecutor(ffmpeg, ffprobe);
-                executor.createJob(builder).run();
-                
                 log.info("Streaming completed successfully");
-            } catch (IOException e) {
-                log.error("Streaming failed", e);
-                throw new RuntimeException("Failed to stream video: " + e.getMessage(), e);
-            }
-        });
+            });
     }
     
+    /**
+     * Queue the re-encoding of a video for upload; any replica with enough free threads runs it.
+     * Tracks that already have the upload format are copied rather than encoded, and an MP4
+     * that needs no change at all is linked as it is. Videos longer than
+     * {@code segment-threshold} are split into segments that are encoded in parallel, so long
+     * renders finish sooner the more processors the replicas have.
+     * 
+     * @return A future completed with the path of the processed video
+     */
     public CompletableFuture<String> prepareVideoForUpload(String inputPath, String outputDir) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                if (ffmpeg == null || ffprobe == null) {
-                    throw new RuntimeException("FFmpeg or FFprobe not initialized");
+        try {
+            validateVideoFile(inputPath);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to process video: " + e.getMessage(), e));
+        }
+        
+        // Generate output filename
+        String fileName = Paths.get(inputPath).getFileName().toString();
+        String nameWithoutExt = fileName.substring(0, fileName.lastIndexOf('.'));
+        String outputPath = outputDir + "/" + nameWithoutExt + "_processed.mp4";
+        
+        log.info("Processing video for upload: {} -> {}", inputPath, outputPath);
+        FFmpegProbeResult probeResult = probeQuietly(inputPath);
+        double cost = estimateCost(probeResult, 0, 0, UPLOAD_PRESET);
+        boolean copyVideo = probeResult != null && isUploadVideo(probeResult);
+        boolean copyAudio = probeResult != null && isUploadAudio(probeResult);
+        if (copyVideo && copyAudio && "mp4".equalsIgnoreCase(getFileExtension(inputPath))
+                && isFastStart(Paths.get(inputPath))) {
+            return linkUnchanged(inputPath, outputPath);
+        }
+        
+        CompletableFuture<FFmpegJob> encoded;
+        int segments = copyVideo ? 1 : segmentCount(probeResult != null ? probeResult.getFormat().duration : 0);
+        if (segments > 1) {
+            encoded = encodeSegments(inputPath, outputPath, probeResult.getFormat().duration, segments, cost);
+        } else {
+            if (copyVideo) {
+                log.info("{} already has upload-ready video, copying it{}", inputPath,
+                        copyAudio ? " and its audio" : " and encoding the audio");
+            }
+            double jobCost = copyVideo ? cost * COPY_COST : cost;
+            encoded = jobQueue.submit(FFmpegJob.builder()
+                .type(FFmpegJob.Type.PREPARE_UPLOAD)
+                .priority(FFmpegJob.Priority.NORMAL)
+                .threads(copyVideo ? 1 : uploadThreads(jobCost))
+                .inputPath(inputPath)
+                .outputPath(outputPath)
+                .copyVideo(copyVideo)
+                .copyAudio(copyAudio)
+                .cost(jobCost)
+                .build());
+        }
+        return encoded
+            .thenApply(job -> {
+                if (job.getStatus() != FFmpegJob.Status.SUCCEEDED) {
+                    log.error("Error processing video for upload: {}: {}", inputPath, job.getError());
+                    throw new RuntimeException("Failed to process video: " + job.getError());
                 }
-                
-                validateVideoFile(inputPath);
-                
-                // Create output directory if it doesn't exist
-                Path outputDirPath = Paths.get(outputDir);
-                Files.createDirectories(outputDirPath);
-                
-                // Generate output filename
-                String fileName = Paths.get(inputPath).getFileName().toString();
-                String nameWithoutExt = fileName.substring(0, fileName.lastIndexOf('.'));
-                String outputPath = outputDir + "/" + nameWithoutExt + "_processed.mp4";
-                
-                // Prepare video for YouTube upload (ensure compatibility)
-                FFmpegBuilder builder = new FFmpegBuilder()
-                    .setInput(inputPath)
-                    .overrideOutputFiles(true)
-                    .addOutput(outputPath)
-                    .setFormat("mp4")
-                    .setVideoCodec("libx264")
-                    .setAudioCodec("aac")
-                    .setVideoFrameRate(30)
-                    .setAudioSampleRate(44100)
-                    .addExtraArgs("-preset", "medium")
-                    .addExtraArgs("-crf", "23")
-                    .addExtraArgs("-pix_fmt", "yuv420p")
-                    .addExtraArgs("-movflags", "+faststart")
-                    .done();
-                
-                FFmpegExecutor executor = new FFmpegExecutor(ffmpeg, ffprobe);
-                
-                log.info("Processing video for upload: {} -> {}", inputPath, outputPath);
-                executor.createJob(builder).run();
-                
                 log.info("Video processing completed: {}", outputPath);
                 return outputPath;
-                
-            } catch (Exception e) {
-                log.error("Error processing video for upload: {}", inputPath, e);
-                throw new RuntimeException("Failed to process video: " + e.getMessage(), e);
+            });
+    }
+    
+    /**
+     * Queue a video of one still image over audio tracks played back to back, e.g. a cover over
+     * a playlist; any replica with enough free threads renders it. Since the picture never
+     * changes, it is encoded at {@code ffmpeg.compose.frame-rate} with a long GOP, which costs a
+     * fraction of a regular encode.
+     * <p>
+     * The tracks are read through the concat demuxer, so they must share codec, sample rate and
+     * channels, as downloads of one source do.
+     * 
+     * @param outputPath An .mp4 file, or an .m3u8 playlist to write HLS segments next to, for streaming
+     * @return A future completed with {@code outputPath}
+     */
+    public CompletableFuture<String> composeStillImage(String imagePath, List<String> trackPaths, String outputPath) {
+        if (!Files.isRegularFile(Paths.get(imagePath))) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Image file does not exist: " + imagePath));
+        }
+        if (trackPaths.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("No tracks to compose"));
+        }
+        Map<String, FFmpegProbeResult> tracks = probeCache.probeAll(trackPaths);
+        double durationSeconds = 0;
+        FFmpegStream first = null;
+        for (String trackPath : trackPaths) {
+            FFmpegProbeResult probeResult = tracks.get(trackPath);
+            FFmpegStream audio = probeResult != null ? firstStream(probeResult, FFmpegStream.CodecType.AUDIO) : null;
+            if (audio == null) {
+                return CompletableFuture.failedFuture(new IllegalArgumentException("Not an audio file: " + trackPath));
+            }
+            if (first == null) {
+                first = audio;
+            } else if (!Objects.equals(audio.codec_name, first.codec_name) || audio.sample_rate != first.sample_rate
+                    || audio.channels != first.channels) {
+                return CompletableFuture.failedFuture(new IllegalArgumentException(String.format(
+                    "Track %s is %s %d Hz %d channels, unlike %s %d Hz %d channels of the first track", trackPath,
+                    audio.codec_name, audio.sample_rate, audio.channels, first.codec_name, first.sample_rate, first.channels)));
             }
-        });
+            durationSeconds += probeResult.getFormat().duration;
+        }
+        
+        Path trackList = Paths.get(outputPath + ".tracks.txt").toAbsolutePath();
+        try {
+            Files.createDirectories(trackList.getParent());
+            StringBuilder entries = new StringBuilder();
+            for (String trackPath : trackPaths) {
+                entries.append(concatEntry(Paths.get(trackPath).toAbsolutePath().toString()));
+            }
+            Files.writeString(trackList, entries);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to compose video: " + e.getMessage(), e));
+        }
+        
+        double pixels = (double) composeConfig.getWidth() * composeConfig.getHeight();
+        double cost = durationSeconds * pixels / (1920.0 * 1080.0) * composeConfig.getFrameRate() / UPLOAD_FRAME_RATE
+            * PRESET_COST.getOrDefault(composeConfig.getPreset(), 1.0);
+        log.info("Composing {} over {} tracks ({} s) -> {}", imagePath, trackPaths.size(), (long) durationSeconds, outputPath);
+        return jobQueue.submit(FFmpegJob.builder()
+                .type(FFmpegJob.Type.COMPOSE)
+                .priority(FFmpegJob.Priority.NORMAL)
+                .threads(uploadThreads(cost))
+                .inputPath(imagePath)
+                .outputPath(outputPath)
+                .concatList(trackList.toString())
+                .cost(cost)
+                .build())
+            .whenComplete((job, e) -> trackList.toFile().delete())
+            .thenApply(job -> {
+                if (job.getStatus() != FFmpegJob.Status.SUCCEEDED) {
+                    log.error("Error composing video {}: {}", outputPath, job.getError());
+                    throw new RuntimeException("Failed to compose video: " + job.getError());
+                }
+                log.info("Video composed: {}", outputPath);
+                return outputPath;
+            });
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,455 @@
+package com.contentorganizer.youtube.service;
+
+import com.contentorganizer.youtube.config.FFmpegJobConfig;
+import com.contentorganizer.youtube.config.LiveStreamConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Keeps one live stream to YouTube running around the clock from a still image and a playlist.
+ * <p>
+ * A single FFmpeg encoder reads raw PCM audio from its stdin for the whole stream, so tracks
+ * follow each other without the encoder, and the RTMP connection, being restarted between them.
+ * A pump decodes the tracks one after another into that pipe, starting the next track's decoder
+ * while the current one plays, and feeds silence while the playlist is empty. Tracks can be added
+ * while the stream runs; with {@code youtube.live.loop} played tracks go back to the end.
+ * <p>
+ * When the encoder exits, e.g. because YouTube dropped the connection, it is restarted after a
+ * delay that doubles with every failure up to {@code youtube.live.max-restart-delay} and resets
+ * once an encoder ran for {@code youtube.live.stable-after}. The pump holds the audio it could not
+ * write meanwhile, so the stream resumes where it broke off. The stream reserves
+ * {@code ffmpeg.jobs.stream-threads} of this node's FFmpeg budget while it runs.
+ * <p>
+ * The stream runs on the replica that received the start request, and status and stop requests
+ * have to reach that replica.
+ */
+@Slf4j
+@Service
+public class LiveStreamSupervisor implements SmartLifecycle {
+    
+    private static final int ERROR_TAIL_LINES = 20;
+    // one s16le sample per channel
+    private static final int FRAME_BYTES = FFmpegService.LIVE_CHANNELS * 2;
+    // 0.1 s of audio, whole frames only
+    private static final int CHUNK_BYTES = FFmpegService.LIVE_SAMPLE_RATE / 10 * FRAME_BYTES;
+    
+    private final FFmpegService ffmpegService;
+    private final FFmpegJobWorker jobWorker;
+    private final FFmpegJobConfig jobConfig;
+    private final LiveStreamConfig config;
+    private final Counter restartCounter;
+    
+    // the stream, its encoder and the pipe into it, guarded by this
+    private Session session;
+    private volatile boolean running;
+    
+    public LiveStreamSupervisor(FFmpegService ffmpegService, FFmpegJobWorker jobWorker, FFmpegJobConfig jobConfig,
+                                LiveStreamConfig config, ObjectProvider<MeterRegistry> meterRegistry) {
+        this.ffmpegService = ffmpegService;
+        this.jobWorker = jobWorker;
+        this.jobConfig = jobConfig;
+        this.config = config;
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry != null) {
+            Gauge.builder("live.stream.running", this, supervisor -> supervisor.isStreaming() ? 1 : 0)
+                .description("Whether this node runs a live stream")
+                .register(registry);
+            Gauge.builder("live.stream.queued", this, LiveStreamSupervisor::queuedTracks)
+                .description("Tracks waiting in the live stream playlist")
+                .register(registry);
+            this.restartCounter = Counter.builder("live.stream.restarts")
+                .description("Live stream encoders restarted after they stopped")
+                .register(registry);
+        } else {
+            this.restartCounter = null;
+        }
+    }
+    
+    /**
+     * Start streaming the image over the tracks, which are played in this order
+     * 
+     * @param loop Put played tracks back at the end of the playlist, {@code youtube.live.loop} if null
+     * @throws IllegalStateException If a stream is already running on this node
+     * @throws IOException If the image or a track does not exist
+     */
+    public synchronized void start(String imagePath, List<String> trackPaths, Boolean loop) throws IOException {
+        if (session != null) {
+            throw new IllegalStateException("A live stream is already running since " + session.startedAt);
+        }
+        checkFiles(List.of(imagePath));
+        checkFiles(trackPaths);
+        // fail now rather than in the supervisor if ffmpeg cannot be found
+        ffmpegService.liveEncoderCommand(imagePath, 0);
+        
+        session = new Session(imagePath, trackPaths, loop != null ? loop : config.isLoop(),
+                jobConfig.getStreamThreads());
+        jobWorker.reserveThreads(session.threads);
+        Session started = session;
+        started.supervisorThread = new Thread(() -> superviseLoop(started), "live-stream-supervisor");
+        started.pumpThread = new Thread(() -> pumpLoop(started), "live-stream-pump");
+        started.supervisorThread.setDaemon(true);
+        started.pumpThread.setDaemon(true);
+        started.supervisorThread.start();
+        started.pumpThread.start();
+        log.info("Live stream started with {} tracks (loop {})", trackPaths.size(), started.loop);
+    }
+    
+    /**
+     * Append tracks to the playlist of the running stream
+     * 
+     * @throws IllegalStateException If no stream is running on this node
+     * @throws IOException If a track does not exist
+     */
+    public synchronized void addTracks(Collection<String> trackPaths) throws IOException {
+        if (session == null) {
+            throw new IllegalStateException("No live stream is running");
+        }
+        checkFiles(trackPaths);
+        session.playlist.addAll(trackPaths);
+    }
+    
+    /**
+     * Stop the stream, if one runs
+     * 
+     * @return Whether a stream was running
+     */
+    public boolean stopStream() {
+        Session stopped;
+        synchronized (this) {
+            stopped = session;
+            if (stopped == null) {
+                return false;
+            }
+            session = null;
+            stopped.active = false;
+            notifyAll();
+        }
+        stopped.supervisorThread.interrupt();
+        stopped.pumpThread.interrupt();
+        Process encoder = stopped.encoder;
+        if (encoder != null) {
+            encoder.destroy();
+        }
+        jobWorker.releaseThreads(stopped.threads);
+        log.info("Live stream stopped after {} restarts", stopped.restarts);
+        return true;
+    }
+    
+    public synchronized boolean isStreaming() {
+        return session != null;
+    }
+    
+    private synchronized int queuedTracks() {
+        return session != null ? session.playlist.size() : 0;
+    }
+    
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("streaming", session != null);
+        if (session != null) {
+            Process encoder = session.encoder;
+            status.put("imagePath", session.imagePath);
+            status.put("loop", session.loop);
+            status.put("startedAt", session.startedAt);
+            status.put("encoderRunning", encoder != null && encoder.isAlive());
+            status.put("encoderStartedAt", session.encoderStartedAt);
+            status.put("restarts", session.restarts);
+            status.put("currentTrack", session.currentTrack);
+            status.put("queued", new ArrayList<>(session.playlist));
+            status.put("lastError", session.lastError);
+        }
+        return status;
+    }
+    
+    @Override
+    public void start() {
+        running = true;
+    }
+    
+    @Override
+    public void stop() {
+        running = false;
+        stopStream();
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    private void superviseLoop(Session session) {
+        Duration delay = config.getRestartDelay();
+        while (session.active) {
+            Instant started = Instant.now();
+            Process encoder;
+            try {
+                List<String> command = ffmpegService.liveEncoderCommand(session.imagePath, session.threads);
+                encoder = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            } catch (IOException e) {
+                session.lastError = "Could not start FFmpeg: " + e.getMessage();
+                log.error("Could not start the live stream encoder", e);
+                encoder = null;
+            }
+            if (encoder != null) {
+                synchronized (this) {
+                    if (!session.active) {
+                        encoder.destroy();
+                        closeQuietly(encoder.getOutputStream());
+                        return;
+                    }
+                    session.encoder = encoder;
+                    session.encoderInput = encoder.getOutputStream();
+                    session.encoderStartedAt = started;
+                    // wakes the pump if it waits for a new encoder
+                    notifyAll();
+                }
+                String tail = drainErrors(encoder);
+                int exitCode;
+                try {
+                    exitCode = encoder.waitFor();
+                } catch (InterruptedException e) {
+                    encoder.destroy();
+                    return;
+                } finally {
+                    synchronized (this) {
+                        session.encoderInput = null;
+                    }
+                    // the next encoder gets a new pipe, this one would leak its file descriptor
+                    closeQuietly(encoder.getOutputStream());
+                }
+                if (!session.active) {
+                    return;
+                }
+                session.lastError = "FFmpeg exited with code " + exitCode + ": " + tail;
+                log.warn("Live stream encoder stopped, restarting in {}: {}", delay, session.lastError);
+                if (Duration.between(started, Instant.now()).compareTo(config.getStableAfter()) >= 0) {
+                    delay = config.getRestartDelay();
+                }
+            }
+            try {
+                Thread.sleep(delay.toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+            session.restarts++;
+            if (restartCounter != null) {
+                restartCounter.increment();
+            }
+            delay = min(delay.multipliedBy(2), config.getMaxRestartDelay());
+        }
+    }
+    
+    private void pumpLoop(Session session) {
+        byte[] silence = new byte[CHUNK_BYTES];
+        Decoder current = null;
+        Decoder next = null;
+        try {
+            while (session.active) {
+                if (current == null) {
+                    current = next != null ? next : startDecoder(session);
+                    next = null;
+                }
+                if (current == null) {
+                    session.currentTrack = null;
+                    write(session, silence, silence.length);
+                    continue;
+                }
+                session.currentTrack = current.trackPath;
+                if (next == null) {
+                    // decodes into its pipe while the current track plays, so it starts without a gap
+                    next = startDecoder(session);
+                }
+                byte[] buffer = current.buffer;
+                // whole chunks, so every write starts on a frame boundary, also for a restarted encoder
+                int read = current.process.getInputStream().readNBytes(buffer, 0, buffer.length);
+                int length = read - read % FRAME_BYTES;
+                if (length > 0) {
+                    current.played = true;
+                    write(session, buffer, length);
+                }
+                if (read < buffer.length) {
+                    // end of the track, a partial frame at its end is dropped
+                    if (!current.finish()) {
+                        // do not loop over a track that cannot be decoded at all
+                        session.playlist.removeLastOccurrence(current.trackPath);
+                    }
+                    current = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (IOException e) {
+            log.error("Live stream pump failed", e);
+            session.lastError = "Pump failed: " + e.getMessage();
+        } finally {
+            if (current != null) {
+                current.process.destroy();
+            }
+            if (next != null) {
+                next.process.destroy();
+            }
+        }
+    }
+    
+    private Decoder startDecoder(Session session) {
+        String trackPath;
+        while ((trackPath = session.playlist.pollFirst()) != null) {
+            if (session.loop) {
+                session.playlist.addLast(trackPath);
+            }
+            try {
+                Process process = new ProcessBuilder(ffmpegService.pcmDecoderCommand(trackPath))
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+                return new Decoder(trackPath, process);
+            } catch (IOException e) {
+                log.error("Could not decode {} for the live stream, skipping it", trackPath, e);
+                session.playlist.removeLastOccurrence(trackPath);
+                if (session.playlist.isEmpty()) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Write audio to the encoder, waiting for a restarted encoder if the current one went away
+     */
+    private void write(Session session, byte[] buffer, int length) throws InterruptedException {
+        while (true) {
+            OutputStream input;
+            synchronized (this) {
+                while (session.active && session.encoderInput == null) {
+                    wait();
+                }
+                if (!session.active) {
+                    throw new InterruptedException();
+                }
+                input = session.encoderInput;
+            }
+            try {
+                input.write(buffer, 0, length);
+                return;
+            } catch (IOException e) {
+                synchronized (this) {
+                    // the supervisor replaces it once the encoder is restarted
+                    if (session.encoderInput == input) {
+                        session.encoderInput = null;
+                    }
+                }
+            }
+        }
+    }
+    
+    private String drainErrors(Process encoder) {
+        Deque<String> tail = new ArrayDeque<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(encoder.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                log.debug("[live] {}", line);
+                if (tail.size() == ERROR_TAIL_LINES) {
+                    tail.removeFirst();
+                }
+                tail.addLast(line);
+            }
+        } catch (IOException e) {
+            log.debug("Lost the output of the live stream encoder", e);
+        }
+        return String.join("\n", tail);
+    }
+    
+    private static void closeQuietly(OutputStream input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            log.debug("Failed to close the input of the live stream encoder", e);
+        }
+    }
+    
+    private static void checkFiles(Collection<String> paths) throws IOException {
+        for (String path : paths) {
+            if (!Files.isRegularFile(Paths.get(path))) {
+                throw new IOException("File does not exist: " + path);
+            }
+        }
+    }
+    
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+    
+    private static final class Session {
+        
+        final String imagePath;
+        // tracks still to play, and with loop the played ones again
+        final Deque<String> playlist = new LinkedBlockingDeque<>();
+        final boolean loop;
+        final int threads;
+        final Instant startedAt = Instant.now();
+        volatile boolean active = true;
+        volatile Process encoder;
+        volatile Instant encoderStartedAt;
+        // null while the encoder is down, guarded by the supervisor
+        OutputStream encoderInput;
+        volatile int restarts;
+        volatile String currentTrack;
+        volatile String lastError;
+        Thread supervisorThread;
+        Thread pumpThread;
+        
+        Session(String imagePath, Collection<String> trackPaths, boolean loop, int threads) {
+            this.imagePath = imagePath;
+            this.playlist.addAll(trackPaths);
+            this.loop = loop;
+            this.threads = threads;
+        }
+    }
+    
+    private static final class Decoder {
+        
+        final String trackPath;
+        final Process process;
+        final byte[] buffer = new byte[CHUNK_BYTES];
+        boolean played;
+        
+        Decoder(String trackPath, Process process) {
+            this.trackPath = trackPath;
+            this.process = process;
+        }
+        
+        /**
+         * @return Whether any of the track was played
+         */
+        boolean finish() throws InterruptedException {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                log.warn("Decoding {} for the live stream failed with code {}", trackPath, exitCode);
+            }
+            return played;
+        }
+    }
+}
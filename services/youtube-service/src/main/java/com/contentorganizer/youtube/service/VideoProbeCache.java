@@ -0,0 +1,284 @@
+package com.contentorganizer.youtube.service;
+
+import com.contentorganizer.youtube.config.FFmpegConfig;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.bramp.ffmpeg.FFprobe;
+import net.bramp.ffmpeg.probe.FFmpegProbeResult;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches ffprobe results, so a video is probed once however often it is validated, costed and
+ * described.
+ * <p>
+ * An entry is only used while the file still has the size, modification time and file key
+ * (inode) it was probed with, so a replaced file is probed again. In addition a WatchService on
+ * the temp and output directories drops entries as soon as their file changes, so deleted
+ * videos do not stay in the cache. The least recently used entries are evicted beyond
+ * {@code ffmpeg.probe-cache-size}.
+ */
+@Slf4j
+@Service
+public class VideoProbeCache implements SmartLifecycle {
+    
+    private final FFprobe ffprobe;
+    private final FFmpegConfig ffmpegConfig;
+    // access-ordered for LRU eviction, guarded by itself
+    private final Map<Path, CachedProbe> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    private volatile boolean running;
+    private WatchService watchService;
+    private Thread watchThread;
+    private ExecutorService probeExecutor;
+    
+    public VideoProbeCache(FFprobe ffprobe, FFmpegConfig ffmpegConfig, ObjectProvider<MeterRegistry> meterRegistry) {
+        this.ffprobe = ffprobe;
+        this.ffmpegConfig = ffmpegConfig;
+        int maxEntries = ffmpegConfig.getProbeCacheSize();
+        this.cache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, CachedProbe> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        meterRegistry.ifAvailable(registry -> {
+            FunctionCounter.builder("ffmpeg.probe.cache.requests", hits, AtomicLong::get)
+                .description("ffprobe results served from the cache or probed")
+                .tag("result", "hit")
+                .register(registry);
+            FunctionCounter.builder("ffmpeg.probe.cache.requests", misses, AtomicLong::get)
+                .description("ffprobe results served from the cache or probed")
+                .tag("result", "miss")
+                .register(registry);
+            Gauge.builder("ffmpeg.probe.cache.hit.ratio", this, VideoProbeCache::getHitRatio)
+                .description("Share of ffprobe results served from the cache")
+                .register(registry);
+            Gauge.builder("ffmpeg.probe.cache.size", this, VideoProbeCache::size)
+                .description("ffprobe results in the cache")
+                .register(registry);
+        });
+    }
+    
+    /**
+     * The ffprobe result of a file, probed only if the file is not cached or changed since
+     * 
+     * @throws IOException If the file is not a regular file or cannot be probed
+     */
+    public FFmpegProbeResult probe(String videoPath) throws IOException {
+        Path path = Paths.get(videoPath).toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) {
+            throw new IOException("Path is not a regular file: " + videoPath);
+        }
+        synchronized (cache) {
+            CachedProbe cached = cache.get(path);
+            if (cached != null && cached.matches(attributes)) {
+                hits.incrementAndGet();
+                return cached.result;
+            }
+        }
+        misses.incrementAndGet();
+        FFmpegProbeResult result = ffprobe.probe(path.toString());
+        synchronized (cache) {
+            cache.put(path, new CachedProbe(attributes, result));
+        }
+        return result;
+    }
+    
+    /**
+     * Probe many files, at most {@code ffmpeg.probe-concurrency} at a time, e.g. for catalogue
+     * scans. Files that cannot be probed are logged and left out.
+     * 
+     * @return The results in the order of {@code videoPaths}
+     */
+    public Map<String, FFmpegProbeResult> probeAll(Collection<String> videoPaths) {
+        ExecutorService executor = probeExecutor;
+        List<CompletableFuture<FFmpegProbeResult>> futures = new ArrayList<>();
+        for (String videoPath : videoPaths) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return probe(videoPath);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Could not probe {}: {}", videoPath, e.toString());
+                    return null;
+                }
+            }, executor != null ? executor : Runnable::run));
+        }
+        Map<String, FFmpegProbeResult> results = new LinkedHashMap<>();
+        int i = 0;
+        for (String videoPath : videoPaths) {
+            FFmpegProbeResult result = futures.get(i++).join();
+            if (result != null) {
+                results.put(videoPath, result);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Drop the entry of a file, e.g. after writing it
+     */
+    public void invalidate(Path path) {
+        synchronized (cache) {
+            cache.remove(path.toAbsolutePath().normalize());
+        }
+    }
+    
+    /**
+     * Share of lookups answered from the cache since startup
+     */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total > 0 ? (double) hitCount / total : 0;
+    }
+    
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+    
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size());
+        stats.put("maxSize", ffmpegConfig.getProbeCacheSize());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRatio", getHitRatio());
+        return stats;
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        AtomicInteger probeThreads = new AtomicInteger();
+        probeExecutor = Executors.newFixedThreadPool(Math.max(1, ffmpegConfig.getProbeConcurrency()), runnable -> {
+            Thread thread = new Thread(runnable, "video-probe-" + probeThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (String directory : List.of(ffmpegConfig.getTempDirectory(), ffmpegConfig.getOutputDirectory())) {
+                // created if missing, since a directory the jobs create later would not be watched
+                Path dir = Files.createDirectories(Paths.get(directory).toAbsolutePath().normalize());
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        } catch (IOException e) {
+            // entries are still checked against the file's identity on every lookup
+            log.warn("Could not watch the video directories, cached probes are only evicted when used", e);
+            return;
+        }
+        watchThread = new Thread(this::watchLoop, "video-probe-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Failed to close the probe cache watch service", e);
+            }
+            watchService = null;
+            watchThread = null;
+        }
+        if (probeExecutor != null) {
+            probeExecutor.shutdownNow();
+            probeExecutor = null;
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+    
+    private void watchLoop() {
+        WatchService watcher = watchService;
+        while (running) {
+            try {
+                WatchKey key = watcher.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidateDirectory(dir);
+                    } else {
+                        invalidate(dir.resolve((Path) event.context()));
+                    }
+                }
+                key.reset();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+    
+    private void invalidateDirectory(Path dir) {
+        synchronized (cache) {
+            cache.keySet().removeIf(path -> dir.equals(path.getParent()));
+        }
+    }
+    
+    private static final class CachedProbe {
+        
+        final long size;
+        final long modifiedMillis;
+        // the inode where the file system has one
+        final Object fileKey;
+        final FFmpegProbeResult result;
+        
+        CachedProbe(BasicFileAttributes attributes, FFmpegProbeResult result) {
+            this.size = attributes.size();
+            this.modifiedMillis = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey();
+            this.result = result;
+        }
+        
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                && modifiedMillis == attributes.lastModifiedTime().toMillis()
+                && Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+}
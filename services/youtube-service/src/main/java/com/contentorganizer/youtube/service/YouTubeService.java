@@ -1,6 +1,7 @@
 package com.contentorganizer.youtube.service;
 
 import com.contentorganizer.youtube.config.ContentGenerationConfig;
+import com.contentorganizer.youtube.dto.ComposeRequest;
 import com.contentorganizer.youtube.dto.VideoResponse;
 import com.contentorganizer.youtube.dto.VideoStreamRequest;
 import com.contentorganizer.youtube.dto.VideoUploadRequest;
@@ -18,7 +19,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -31,6 +31,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 @Service
@@ -47,18 +48,17 @@ public class YouTubeService {
         try {
             VideoMetadata metadata = ffmpegService.getVideoMetadata(request.getInputPath());
             
-            // Start streaming in a separate thread
-            new Thread(() -> {
-                try {
-                    ffmpegService.startStreaming(request);
-                } catch (Exception e) {
-                    log.error("Streaming thread failed", e);
-                }
-            }).start();
+            // Queued, so that any replica with enough free FFmpeg threads runs the stream
+            ffmpegService.streamToYouTube(request)
+                .whenComplete((result, e) -> {
+                    if (e != null) {
+                        log.error("Streaming job failed", e);
+                    }
+                });
 
             return Mono.just(VideoResponse.builder()
                 .status("STREAMING")
-                .message("Stream started successfully")
+                .message("Stream queued successfully")
                 .videoPath(request.getInputPath())
                 .durationSeconds(metadata.getDurationSeconds())
                 .fileSizeBytes(metadata.getFileSizeBytes())
@@ -72,9 +72,40 @@ public class YouTubeService {
         }
     }
     
+    public Mono<VideoResponse> composeVideo(ComposeRequest request) {
+        CompletableFuture<String> composed = ffmpegService.composeStillImage(
+            request.getImagePath(), request.getTrackPaths(), request.getOutputPath());
+        if (composed.isCompletedExceptionally()) {
+            // rejected before it was queued: missing image, no tracks, tracks that cannot be joined
+            Throwable cause = composed.handle((outputPath, e) -> e).join();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            log.error("Failed to compose video {}: {}", request.getOutputPath(), cause.getMessage());
+            return Mono.just(VideoResponse.builder()
+                .status("ERROR")
+                .message("Failed to compose video: " + cause.getMessage())
+                .build());
+        }
+        
+        // Queued like streams; the render takes a while, so its outcome is only logged
+        composed
+            .whenComplete((outputPath, e) -> {
+                if (e != null) {
+                    log.error("Compose job for {} failed", request.getOutputPath(), e);
+                }
+            });
+        
+        return Mono.just(VideoResponse.builder()
+            .status("COMPOSING")
+            .message("Video composition queued successfully")
+            .videoPath(request.getOutputPath())
+            .build());
+    }
+    
     public Mono<VideoResponse> uploadVideo(VideoUploadRequest request) {
         try {
-            validateVideoFile(request.getVideoPath());
+            // validates the file as well
             VideoMetadata metadata = ffmpegService.getVideoMetadata(request.getVideoPath());
 
             if (request.isUseAiGeneration()) {
@@ -120,13 +151,6 @@ public class YouTubeService {
             });
     }
     
-    private void validateVideoFile(String path) {
-        File file = new File(path);
-        if (!file.exists() || !file.isFile()) {
-            throw new IllegalArgumentException("Video file does not exist: " + path);
-        }
-    }
-
     private Mono<VideoResponse> uploadVideoWithMetadata(
         String videoPath,
         String title,